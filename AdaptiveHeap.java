@@ -0,0 +1,351 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AdaptiveHeap
+ *
+ * A Heap that picks lazyMelds and lazyDecreaseKeys from the observed
+ * workload instead of fixing them in the constructor. Operations are
+ * counted over windows of a fixed number of operations; at the end of
+ * every window the mix and the cost counters spent in it decide the mode
+ * for the next one:
+ *
+ *   decrease keys   heapify (HDK) is dropped for cuts (LDK) when a
+ *                   decreaseKey costs more than heapifyLimit swaps on
+ *                   average (default 2: a lazy decreaseKey costs about
+ *                   one cut plus the link that later merges the cut
+ *                   tree back); LDK goes back to HDK when decreaseKeys
+ *                   are rarer than rareDecreaseShare of the window.
+ *   melds           lazy (LM) when inserts are more than half of the
+ *                   window, eager (EM) when deleteMins are at least as
+ *                   frequent as inserts and either inserts are under a
+ *                   quarter of the window or the root lists the lazy
+ *                   deleteMins had to walk averaged more than twice the
+ *                   trees an eager heap of that size keeps.
+ *
+ * Links are not used to decide: every link is paid once in either meld
+ * mode, only later in LM, so they do not tell the modes apart. What
+ * differs is how many roots a consolidation walks, which numTrees
+ * shows. Links and root list lengths are reported in the switch reason.
+ *
+ * A switch is applied only at a safe point: right after a deleteMin
+ * (the heap was just consolidated), or any time while melds are eager
+ * (an eager heap is consolidated after every operation). Switching moves
+ * the forest into a new Heap in the new mode in O(1), so items stay
+ * valid and the counters carry over, also through an empty heap.
+ *
+ */
+public class AdaptiveHeap implements AddressableHeap
+{
+    public static final int DEFAULT_WINDOW = 4096;
+    public static final int HISTORY_SIZE = 64;
+
+    public final int window;
+    public double heapifyLimit = 2;
+    public double rareDecreaseShare = 0.05;
+
+    private Heap heap;
+    private long operations = 0;
+    private final ArrayDeque<Switch> history = new ArrayDeque<>();
+
+    // counts for the current window and counters at its start
+    private int inserts = 0;
+    private int deleteMins = 0;
+    private int decreaseKeys = 0;
+    private int windowOps = 0;
+    private int heapifyAtStart = 0;
+    private int cutsAtStart = 0;
+    private int linksAtStart = 0;
+    // root list lengths seen by the window's deleteMins while melds were lazy
+    private long rootsScanned = 0;
+    private int lazyDeleteMins = 0;
+
+    // mode chosen at the end of the last window, not applied yet
+    private boolean pending = false;
+    private boolean nextLazyMelds;
+    private boolean nextLazyDecreaseKeys;
+    private String nextReason;
+
+    /**
+     *
+     * Constructor to initialize an empty heap that starts lazy in both
+     * respects and reconsiders its mode every DEFAULT_WINDOW operations.
+     *
+     */
+    public AdaptiveHeap()
+    {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * pre: window > 0
+     *
+     * Constructor to initialize an empty heap that reconsiders its mode
+     * every window operations.
+     *
+     */
+    public AdaptiveHeap(int window)
+    {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        this.window = window;
+        this.heap = new Heap(true, true);
+    }
+
+    /**
+     * pre: key > 0
+     *
+     * Insert (key,info) into the heap and return the newly generated HeapItem.
+     *
+     */
+    public Heap.HeapItem insert(int key, String info)
+    {
+        Heap.HeapItem item;
+        if (heap.min == null) {
+            // an insert into an empty Heap resets its counters
+            int heapify = heap.heapify;
+            int cuts = heap.cuts;
+            int links = heap.links;
+            int markedNodes = heap.markedNodes;
+            item = heap.insert(key, info);
+            heap.heapify += heapify;
+            heap.cuts += cuts;
+            heap.links += links;
+            heap.markedNodes += markedNodes;
+        } else {
+            item = heap.insert(key, info);
+        }
+        inserts++;
+        operationDone(false);
+        return item;
+    }
+
+    /**
+     *
+     * Return the minimal HeapItem, null if empty.
+     *
+     */
+    public Heap.HeapItem findMin()
+    {
+        return heap.findMin();
+    }
+
+    /**
+     *
+     * Delete the minimal item.
+     *
+     */
+    public void deleteMin()
+    {
+        countRoots();
+        heap.deleteMin();
+        deleteMins++;
+        operationDone(true);
+    }
+
+    /**
+     *
+     * pre: 0<=diff<=x.key, x is in this heap
+     *
+     * Decrease the key of x by diff and fix the heap.
+     *
+     */
+    public void decreaseKey(Handle x, int diff)
+    {
+        heap.decreaseKey((Heap.HeapItem) x, diff);
+        decreaseKeys++;
+        operationDone(false);
+    }
+
+    /**
+     *
+     * pre: x is in this heap
+     *
+     * Delete the x from the heap.
+     *
+     */
+    public void delete(Handle x)
+    {
+        countRoots();
+        heap.delete((Heap.HeapItem) x);
+        deleteMins++;
+        operationDone(true);
+    }
+
+    private void operationDone(boolean consolidated)
+    {
+        operations++;
+        if (++windowOps == window) {
+            decide();
+        }
+        if (pending && (consolidated || !heap.lazyMelds)) {
+            Heap next = new Heap(nextLazyMelds, nextLazyDecreaseKeys);
+            if (heap.min == null) {
+                // meld ignores an empty heap, counters included
+                carryCounters(heap, next);
+            } else {
+                next.meld(heap); // empty target: takes over the forest and the counters
+            }
+            if (history.size() == HISTORY_SIZE) {
+                history.removeFirst();
+            }
+            history.addLast(new Switch(operations, mode(heap), mode(next), nextReason));
+            heap = next;
+            pending = false;
+        }
+    }
+
+    private void countRoots()
+    {
+        if (heap.lazyMelds && heap.size() > 0) {
+            rootsScanned += heap.numTrees();
+            lazyDeleteMins++;
+        }
+    }
+
+    // adds the counters of from to those of to; from is empty
+    private static void carryCounters(Heap from, Heap to)
+    {
+        to.heapify += from.heapify;
+        to.cuts += from.cuts;
+        to.links += from.links;
+        to.markedNodes += from.markedNodes;
+    }
+
+    private void decide()
+    {
+        boolean lazyMelds = heap.lazyMelds;
+        boolean lazyDecreaseKeys = heap.lazyDecreaseKeys;
+        String reason = null;
+
+        if (!lazyDecreaseKeys && decreaseKeys > 0
+                && (double) (heap.totalHeapifyCosts() - heapifyAtStart) / decreaseKeys > heapifyLimit) {
+            lazyDecreaseKeys = true;
+            reason = String.format("%.1f heapify swaps per decreaseKey",
+                    (double) (heap.totalHeapifyCosts() - heapifyAtStart) / decreaseKeys);
+        } else if (lazyDecreaseKeys && decreaseKeys < rareDecreaseShare * windowOps) {
+            lazyDecreaseKeys = false;
+            reason = decreaseKeys + " decreaseKeys (" + (heap.totalCuts() - cutsAtStart) + " cuts)";
+        }
+        if (!lazyMelds && inserts * 2 > windowOps) {
+            lazyMelds = true;
+            reason = (reason == null ? "" : reason + ", ") + inserts + " inserts";
+        } else if (lazyMelds && deleteMins >= inserts) {
+            // an eager heap keeps at most floor(log2(size)) + 1 trees
+            int eagerTrees = 32 - Integer.numberOfLeadingZeros(heap.size());
+            double roots = lazyDeleteMins == 0 ? 0 : (double) rootsScanned / lazyDeleteMins;
+            if (inserts * 4 < windowOps || roots > 2 * eagerTrees) {
+                lazyMelds = false;
+                reason = (reason == null ? "" : reason + ", ") + inserts + " inserts, " + deleteMins
+                        + String.format(" deleteMins (%.1f roots each, %d links)", roots,
+                                heap.totalLinks() - linksAtStart);
+            }
+        }
+
+        pending = lazyMelds != heap.lazyMelds || lazyDecreaseKeys != heap.lazyDecreaseKeys;
+        nextLazyMelds = lazyMelds;
+        nextLazyDecreaseKeys = lazyDecreaseKeys;
+        nextReason = reason + " in " + windowOps + " ops";
+
+        inserts = 0;
+        deleteMins = 0;
+        decreaseKeys = 0;
+        windowOps = 0;
+        rootsScanned = 0;
+        lazyDeleteMins = 0;
+        heapifyAtStart = heap.totalHeapifyCosts();
+        cutsAtStart = heap.totalCuts();
+        linksAtStart = heap.totalLinks();
+    }
+
+    private static String mode(Heap h)
+    {
+        return (h.lazyMelds ? "LM" : "EM") + "/" + (h.lazyDecreaseKeys ? "LDK" : "HDK");
+    }
+
+    /**
+     *
+     * Return the current mode, e.g. "LM/LDK".
+     *
+     */
+    public String mode()
+    {
+        return mode(heap);
+    }
+
+    /**
+     *
+     * Return the last HISTORY_SIZE mode switches, oldest first.
+     *
+     */
+    public List<Switch> switches()
+    {
+        return new ArrayList<>(history);
+    }
+
+    /**
+     *
+     * Return the Heap currently holding the items. It is replaced on
+     * every switch, so do not keep it across operations.
+     *
+     */
+    public Heap heap()
+    {
+        return heap;
+    }
+
+    public int size()
+    {
+        return heap.size();
+    }
+
+    public int numTrees()
+    {
+        return heap.numTrees();
+    }
+
+    public int numMarkedNodes()
+    {
+        return heap.numMarkedNodes();
+    }
+
+    public int totalLinks()
+    {
+        return heap.totalLinks();
+    }
+
+    public int totalCuts()
+    {
+        return heap.totalCuts();
+    }
+
+    public int totalHeapifyCosts()
+    {
+        return heap.totalHeapifyCosts();
+    }
+
+    /**
+     * A mode switch: after how many operations it happened, the modes
+     * before and after, and why.
+     *
+     */
+    public static class Switch{
+        public final long operation;
+        public final String from;
+        public final String to;
+        public final String reason;
+
+        Switch(long operation, String from, String to, String reason) {
+            this.operation = operation;
+            this.from = from;
+            this.to = to;
+            this.reason = reason;
+        }
+
+        public String toString() {
+            return "op " + operation + ": " + from + " -> " + to + " (" + reason + ")";
+        }
+    }
+}
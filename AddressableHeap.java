@@ -0,0 +1,108 @@
+/**
+ * AddressableHeap
+ *
+ * The operations shared by the addressable priority queues over positive
+ * integers in this project (Heap, PairingHeap, IndexedDaryHeap, and
+ * RadixAddressableHeap for monotone workloads).
+ * insert returns a handle that stays valid until its item is deleted
+ * and can be passed back to decreaseKey/delete.
+ *
+ * The cost counters follow Heap's meaning; engines report 0 for counters
+ * that do not apply to them.
+ *
+ */
+public interface AddressableHeap
+{
+    /**
+     * pre: key > 0
+     *
+     * Insert (key,info) into the heap and return its handle.
+     *
+     */
+    Handle insert(int key, String info);
+
+    /**
+     *
+     * Return the handle of the minimal item, null if empty.
+     *
+     */
+    Handle findMin();
+
+    /**
+     *
+     * Delete the minimal item.
+     *
+     */
+    void deleteMin();
+
+    /**
+     *
+     * pre: 0<=diff<=x.key(), x was returned by this heap and is still in it
+     *
+     * Decrease the key of x by diff and fix the heap.
+     *
+     */
+    void decreaseKey(Handle x, int diff);
+
+    /**
+     *
+     * pre: x was returned by this heap and is still in it
+     *
+     * Delete the x from the heap.
+     *
+     */
+    void delete(Handle x);
+
+    /**
+     *
+     * Return the number of elements in the heap
+     *
+     */
+    int size();
+
+    /**
+     *
+     * Return the number of trees in the heap.
+     *
+     */
+    int numTrees();
+
+    /**
+     *
+     * Return the number of marked nodes in the heap.
+     *
+     */
+    int numMarkedNodes();
+
+    /**
+     *
+     * Return the total number of links.
+     *
+     */
+    int totalLinks();
+
+    /**
+     *
+     * Return the total number of cuts.
+     *
+     */
+    int totalCuts();
+
+    /**
+     *
+     * Return the total heapify costs.
+     *
+     */
+    int totalHeapifyCosts();
+
+    /**
+     * An item in an AddressableHeap.
+     *
+     */
+    interface Handle
+    {
+        int key();
+
+        String info();
+    }
+}
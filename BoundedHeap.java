@@ -0,0 +1,251 @@
+/**
+ * BoundedHeap
+ *
+ * Keeps the capacity smallest keys seen so far, for streaming top-K.
+ * The items live in a regular Heap (min side) and in an array-backed
+ * binary max heap over the same items (max side), so both the best and
+ * the worst kept item are found in O(1).
+ *
+ * Once the heap is full, an insert whose key is not smaller than the
+ * current maximum is rejected before anything is allocated; otherwise the
+ * maximum is evicted (deleted from the Heap and the max side) to make
+ * room. Memory stays O(capacity).
+ *
+ * Counters are those of the underlying Heap; evictions and rejections
+ * are counted separately.
+ *
+ */
+public class BoundedHeap implements AddressableHeap
+{
+    public final Heap heap;
+    public final int capacity;
+    public int evictions = 0;
+    public int rejections = 0;
+
+    private final BoundedItem[] maxSide;
+
+    /**
+     * pre: capacity > 0
+     *
+     * Constructor to initialize an empty heap that keeps at most capacity items.
+     *
+     */
+    public BoundedHeap(boolean lazyMelds, boolean lazyDecreaseKeys, int capacity)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.heap = new Heap(lazyMelds, lazyDecreaseKeys);
+        this.capacity = capacity;
+        this.maxSide = new BoundedItem[capacity];
+    }
+
+    /**
+     * pre: key > 0
+     *
+     * Insert (key,info) into the heap and return the new item. If the heap
+     * is full, evict the maximum when key is smaller than it, and otherwise
+     * return null without changing or allocating anything.
+     *
+     */
+    public BoundedItem insert(int key, String info)
+    {
+        int size = heap.size();
+        if (size == capacity) {
+            BoundedItem worst = maxSide[0];
+            if (key >= worst.key) {
+                rejections++;
+                return null;
+            }
+            removeFromMaxSide(worst);
+            heap.delete(worst);
+            evictions++;
+            size--;
+        }
+        BoundedItem item = new BoundedItem(key, info);
+        heap.insertItem(item);
+        maxSide[size] = item;
+        item.maxIndex = size;
+        siftUp(size);
+        return item;
+    }
+
+    /**
+     *
+     * Return true if an insert of key would be kept, i.e. the heap is not
+     * full or key is smaller than the current maximum.
+     *
+     */
+    public boolean accepts(int key)
+    {
+        return heap.size() < capacity || key < maxSide[0].key;
+    }
+
+    /**
+     *
+     * Return the minimal item, null if empty.
+     *
+     */
+    public BoundedItem findMin()
+    {
+        return (BoundedItem) heap.findMin();
+    }
+
+    /**
+     *
+     * Return the maximal item (the next one to be evicted), null if empty.
+     *
+     */
+    public BoundedItem findMax()
+    {
+        return heap.size() == 0 ? null : maxSide[0];
+    }
+
+    /**
+     *
+     * Delete the minimal item.
+     *
+     */
+    public void deleteMin()
+    {
+        BoundedItem min = findMin();
+        if (min == null) {
+            throw new RuntimeException("nothing to delete");
+        }
+        removeFromMaxSide(min);
+        heap.deleteMin();
+    }
+
+    /**
+     *
+     * pre: 0<=diff<=x.key, x is in this heap
+     *
+     * Decrease the key of x by diff and fix the heap.
+     *
+     */
+    public void decreaseKey(Handle x, int diff)
+    {
+        BoundedItem item = (BoundedItem) x;
+        heap.decreaseKey(item, diff);
+        siftDown(item.maxIndex);
+    }
+
+    /**
+     *
+     * pre: x is in this heap
+     *
+     * Delete the x from the heap.
+     *
+     */
+    public void delete(Handle x)
+    {
+        BoundedItem item = (BoundedItem) x;
+        removeFromMaxSide(item);
+        heap.delete(item);
+    }
+
+    // takes item out of the max side, the last entry fills its place
+    private void removeFromMaxSide(BoundedItem item)
+    {
+        int last = heap.size() - 1;
+        int i = item.maxIndex;
+        item.maxIndex = -1;
+        if (i == last) {
+            maxSide[last] = null;
+            return;
+        }
+        maxSide[i] = maxSide[last];
+        maxSide[i].maxIndex = i;
+        maxSide[last] = null;
+        if (i > 0 && maxSide[i].key > maxSide[(i - 1) / 2].key) {
+            siftUp(i);
+        } else {
+            siftDown(i, last);
+        }
+    }
+
+    private void siftUp(int i)
+    {
+        BoundedItem item = maxSide[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (maxSide[parent].key >= item.key) {
+                break;
+            }
+            maxSide[i] = maxSide[parent];
+            maxSide[i].maxIndex = i;
+            i = parent;
+        }
+        maxSide[i] = item;
+        item.maxIndex = i;
+    }
+
+    private void siftDown(int i)
+    {
+        siftDown(i, heap.size());
+    }
+
+    private void siftDown(int i, int size)
+    {
+        BoundedItem item = maxSide[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && maxSide[child + 1].key > maxSide[child].key) {
+                child++;
+            }
+            if (maxSide[child].key <= item.key) {
+                break;
+            }
+            maxSide[i] = maxSide[child];
+            maxSide[i].maxIndex = i;
+            i = child;
+        }
+        maxSide[i] = item;
+        item.maxIndex = i;
+    }
+
+    public int size()
+    {
+        return heap.size();
+    }
+
+    public int numTrees()
+    {
+        return heap.numTrees();
+    }
+
+    public int numMarkedNodes()
+    {
+        return heap.numMarkedNodes();
+    }
+
+    public int totalLinks()
+    {
+        return heap.totalLinks();
+    }
+
+    public int totalCuts()
+    {
+        return heap.totalCuts();
+    }
+
+    public int totalHeapifyCosts()
+    {
+        return heap.totalHeapifyCosts();
+    }
+
+    /**
+     * Class implementing a HeapItem together with its position on the max side.
+     *
+     */
+    public static class BoundedItem extends Heap.HeapItem{
+        int maxIndex = -1;
+
+        public BoundedItem(int key, String info) {
+            super(key, info);
+        }
+    }
+}
@@ -0,0 +1,515 @@
+/**
+ * CompactHeap
+ *
+ * A Fibonacci heap over positive integers with the same modes, algorithms
+ * and counters as Heap, but with one object per entry instead of a
+ * HeapItem plus a HeapNode. The node is the handle, so there is no item
+ * object to swap between nodes; heapify instead moves the node itself one
+ * level up by relinking it with its parent, which costs the two child
+ * lists a pointer update per child but keeps handles valid.
+ *
+ * The payload is chosen per entry by the insert method: insert(key, info)
+ * stores a String only when info is not null, insertInt and insertLong
+ * store a primitive with no info object at all. With compressed oops a
+ * Node takes 40 bytes and an IntNode, LongNode or InfoNode 48, against
+ * 64 for a HeapItem with its HeapNode before any info String (see the
+ * footprint report in HeapTester).
+ *
+ */
+public class CompactHeap implements AddressableHeap
+{
+    public int heapify = 0;
+    public int cuts = 0;
+    public int links = 0;
+    public int markedNodes = 0;
+    public int numOfTrees = 0;
+    public int size = 0;
+
+    public final boolean lazyMelds;
+    public final boolean lazyDecreaseKeys;
+    public Node min;
+
+    private Node[] rankTable = new Node[0];
+
+    /**
+     *
+     * Constructor to initialize an empty heap.
+     *
+     */
+    public CompactHeap(boolean lazyMelds, boolean lazyDecreaseKeys)
+    {
+        this.lazyMelds = lazyMelds;
+        this.lazyDecreaseKeys = lazyDecreaseKeys;
+        this.min = null;
+    }
+
+    /**
+     * pre: key > 0
+     *
+     * Insert (key,info) into the heap and return the new node, an
+     * InfoNode when info is not null.
+     *
+     */
+    public Node insert(int key, String info)
+    {
+        return add(info == null ? new Node(key) : new InfoNode(key, info));
+    }
+
+    /**
+     * pre: key > 0
+     *
+     * Insert key with an int payload and return the new node.
+     *
+     */
+    public IntNode insertInt(int key, int value)
+    {
+        return add(new IntNode(key, value));
+    }
+
+    /**
+     * pre: key > 0
+     *
+     * Insert key with a long payload and return the new node.
+     *
+     */
+    public LongNode insertLong(int key, long value)
+    {
+        return add(new LongNode(key, value));
+    }
+
+    private <N extends Node> N add(N node)
+    {
+        if (min == null) {
+            min = node;
+        } else {
+            concatenate(min, node);
+            if (node.key < min.key) {
+                min = node;
+            }
+        }
+        size++;
+        numOfTrees++;
+        if (!lazyMelds) {
+            successiveLinking();
+        }
+        return node;
+    }
+
+    /**
+     *
+     * Return the minimal node, null if empty.
+     *
+     */
+    public Node findMin()
+    {
+        return min;
+    }
+
+    /**
+     *
+     * Delete the minimal item.
+     *
+     */
+    public void deleteMin()
+    {
+        if (size == 0) {
+            throw new RuntimeException("nothing to delete");
+        }
+        Node removed = min;
+        size--;
+        numOfTrees--;
+        Node child = removed.child;
+        if (child != null) {
+            Node c = child;
+            do {
+                c.parent = null;
+                if (c.marked) {
+                    c.marked = false;
+                    markedNodes--;
+                }
+                c = c.next;
+            } while (c != child);
+            numOfTrees += removed.rank;
+            concatenate(removed, child);
+        }
+        if (removed.next == removed) {
+            min = null;
+        } else {
+            min = removed.next;
+            removed.prev.next = removed.next;
+            removed.next.prev = removed.prev;
+            Node c = min;
+            do {
+                if (c.key < min.key) {
+                    min = c;
+                }
+                c = c.next;
+            } while (c != removed.next);
+            successiveLinking();
+        }
+        removed.next = removed;
+        removed.prev = removed;
+        removed.child = null;
+        removed.rank = 0;
+    }
+
+    /**
+     *
+     * pre: 0<=diff<=x.key, x is in this heap
+     *
+     * Decrease the key of x by diff and fix the heap.
+     *
+     */
+    public void decreaseKey(Handle handle, int diff)
+    {
+        Node x = (Node) handle;
+        x.key -= diff;
+        if (lazyDecreaseKeys) {
+            Node parent = x.parent;
+            if (parent != null && x.key < parent.key) {
+                cut(x, parent);
+                if (!lazyMelds) {
+                    if (x.key < min.key) {
+                        min = x;
+                    }
+                    successiveLinking();
+                }
+                cascadingCut(parent);
+            }
+        } else {
+            while (x.parent != null && x.key < x.parent.key) {
+                if (min == x.parent) {
+                    min = x;
+                }
+                swapWithParent(x);
+                heapify++;
+            }
+        }
+        if (x.key < min.key) {
+            min = x;
+        }
+    }
+
+    // puts x in the place of its parent p and p in the place of x:
+    // x joins p's sibling list under p's parent, p joins x's old sibling
+    // list under x, and the two nodes trade child lists, ranks and marks
+    private static void swapWithParent(Node x)
+    {
+        Node p = x.parent;
+        Node g = p.parent;
+        Node pPrev = p.prev;
+        Node pNext = p.next;
+        Node xPrev = x.prev;
+        Node xNext = x.next;
+        Node xChild = x.child;
+        Node pChild = p.child == x ? p : p.child;
+
+        if (pNext == p) {
+            x.next = x;
+            x.prev = x;
+        } else {
+            x.prev = pPrev;
+            x.next = pNext;
+            pPrev.next = x;
+            pNext.prev = x;
+        }
+        x.parent = g;
+        if (g != null && g.child == p) {
+            g.child = x;
+        }
+
+        if (xNext == x) {
+            p.next = p;
+            p.prev = p;
+        } else {
+            p.prev = xPrev;
+            p.next = xNext;
+            xPrev.next = p;
+            xNext.prev = p;
+        }
+        x.child = pChild;
+        Node c = p;
+        do {
+            c.parent = x;
+            c = c.next;
+        } while (c != p);
+
+        p.child = xChild;
+        if (xChild != null) {
+            c = xChild;
+            do {
+                c.parent = p;
+                c = c.next;
+            } while (c != xChild);
+        }
+
+        int rank = x.rank;
+        x.rank = p.rank;
+        p.rank = rank;
+        boolean marked = x.marked;
+        x.marked = p.marked;
+        p.marked = marked;
+    }
+
+    private void cut(Node x, Node y)
+    {
+        if (x.next == x) {
+            y.child = null;
+        } else {
+            x.next.prev = x.prev;
+            x.prev.next = x.next;
+            if (y.child == x) {
+                y.child = x.next;
+            }
+        }
+        y.rank--;
+        x.parent = null;
+        if (x.marked) {
+            x.marked = false;
+            markedNodes--;
+        }
+        x.next = x;
+        x.prev = x;
+        concatenate(min, x);
+        cuts++;
+        numOfTrees++;
+    }
+
+    private void cascadingCut(Node y)
+    {
+        Node z = y.parent;
+        if (z != null) {
+            if (!y.marked) {
+                y.marked = true;
+                markedNodes++;
+            } else {
+                cut(y, z);
+                if (!lazyMelds) {
+                    successiveLinking();
+                }
+                cascadingCut(z);
+            }
+        }
+    }
+
+    /**
+     *
+     * pre: x is in this heap
+     *
+     * Delete the x from the heap.
+     *
+     */
+    public void delete(Handle x)
+    {
+        decreaseKey(x, x.key() + 1); // make x key -1 so it is the min.
+        deleteMin();
+    }
+
+    /**
+     *
+     * Meld the heap with heap2
+     * pre: heap2.lazyMelds = this.lazyMelds AND heap2.lazyDecreaseKeys = this.lazyDecreaseKeys
+     *
+     */
+    public void meld(CompactHeap heap2)
+    {
+        if (heap2.min == null) {
+            return;
+        }
+        heapify += heap2.heapify;
+        cuts += heap2.cuts;
+        links += heap2.links;
+        markedNodes += heap2.markedNodes;
+        numOfTrees += heap2.numOfTrees;
+        size += heap2.size;
+        if (min == null) {
+            min = heap2.min;
+            return;
+        }
+        concatenate(min, heap2.min);
+        if (heap2.min.key < min.key) {
+            min = heap2.min;
+        }
+        if (!lazyMelds) {
+            successiveLinking();
+        }
+    }
+
+    private void successiveLinking()
+    {
+        int maxDegree = 32 - Integer.numberOfLeadingZeros(size); // floor(log2(size)) + 1
+        if (rankTable.length < maxDegree * 2) {
+            rankTable = new Node[maxDegree * 2];
+        }
+        Node[] arr = rankTable;
+        int top = 0;
+        Node c = min;
+        Node last = min.prev;
+        boolean done = false;
+        while (!done) {
+            done = c == last;
+            Node next = c.next;
+            c.next = c;
+            c.prev = c;
+            Node x = c;
+            int d = x.rank;
+            while (arr[d] != null) {
+                Node y = arr[d];
+                if (x.key > y.key) {
+                    Node temp = x;
+                    x = y;
+                    y = temp;
+                }
+                link(y, x);
+                arr[d] = null;
+                d++;
+            }
+            arr[d] = x;
+            top = Math.max(top, d + 1);
+            c = next;
+        }
+
+        min = null;
+        numOfTrees = 0;
+        for (int i = 0; i < top; i++) {
+            Node node = arr[i];
+            arr[i] = null;
+            if (node != null) {
+                if (min == null) {
+                    min = node;
+                } else {
+                    concatenate(min, node);
+                    if (node.key < min.key) {
+                        min = node;
+                    }
+                }
+                numOfTrees++;
+            }
+        }
+    }
+
+    // makes root y a child of root x
+    private void link(Node y, Node x)
+    {
+        y.parent = x;
+        if (x.child == null) {
+            x.child = y;
+        } else {
+            concatenate(x.child, y);
+        }
+        x.rank++;
+        links++;
+    }
+
+    private static void concatenate(Node n1, Node n2)
+    {
+        Node n1Next = n1.next;
+        Node n2Prev = n2.prev;
+        n1.next = n2;
+        n2.prev = n1;
+        n1Next.prev = n2Prev;
+        n2Prev.next = n1Next;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int numTrees()
+    {
+        return numOfTrees;
+    }
+
+    public int numMarkedNodes()
+    {
+        return markedNodes;
+    }
+
+    public int totalLinks()
+    {
+        return links;
+    }
+
+    public int totalCuts()
+    {
+        return cuts;
+    }
+
+    public int totalHeapifyCosts()
+    {
+        return heapify;
+    }
+
+    /**
+     * Class implementing an entry of a CompactHeap: the key and the tree
+     * links in one object, without a payload.
+     *
+     */
+    public static class Node implements Handle{
+        public int key;
+        Node child;
+        Node next;
+        Node prev;
+        Node parent;
+        int rank;
+        boolean marked;
+
+        Node(int key) {
+            this.key = key;
+            this.next = this;
+            this.prev = this;
+        }
+
+        public int key() {
+            return key;
+        }
+
+        public String info() {
+            return null;
+        }
+    }
+
+    /**
+     * A Node with a String payload.
+     *
+     */
+    public static class InfoNode extends Node{
+        public String info;
+
+        InfoNode(int key, String info) {
+            super(key);
+            this.info = info;
+        }
+
+        public String info() {
+            return info;
+        }
+    }
+
+    /**
+     * A Node with an int payload.
+     *
+     */
+    public static class IntNode extends Node{
+        public int value;
+
+        IntNode(int key, int value) {
+            super(key);
+            this.value = value;
+        }
+    }
+
+    /**
+     * A Node with a long payload.
+     *
+     */
+    public static class LongNode extends Node{
+        public long value;
+
+        LongNode(int key, long value) {
+            super(key);
+            this.value = value;
+        }
+    }
+}
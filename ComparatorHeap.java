@@ -0,0 +1,77 @@
+import java.util.Comparator;
+
+/**
+ * ComparatorHeap
+ *
+ * A Fibonacci heap over object keys ordered by a Comparator.
+ * Same algorithms, modes and counters as Heap; the structure is shared
+ * with the other key types in KeyedHeap.
+ *
+ */
+public class ComparatorHeap<K> extends KeyedHeap<ComparatorHeap.HeapItem<K>>
+{
+    public final Comparator<? super K> comparator;
+
+    /**
+     *
+     * Constructor to initialize an empty heap.
+     *
+     */
+    public ComparatorHeap(boolean lazyMelds, boolean lazyDecreaseKeys, Comparator<? super K> comparator)
+    {
+        super(lazyMelds, lazyDecreaseKeys);
+        this.comparator = comparator;
+    }
+
+    protected boolean less(HeapItem<K> a, HeapItem<K> b)
+    {
+        return comparator.compare(a.key, b.key) < 0;
+    }
+
+    /**
+     *
+     * Insert (key,info) into the heap and return the newly generated item.
+     *
+     */
+    public HeapItem<K> insert(K key, String info)
+    {
+        return add(new HeapItem<>(key, info));
+    }
+
+    /**
+     *
+     * pre: comparator.compare(newKey, x.key) <= 0
+     *
+     * Replace the key of x by the smaller or equal newKey and fix the heap.
+     *
+     */
+    public void decreaseKey(HeapItem<K> x, K newKey)
+    {
+        x.key = newKey;
+        keyDecreased(x);
+    }
+
+    /**
+     *
+     * Meld the heap with heap2
+     * pre: heap2.lazyMelds = this.lazyMelds AND heap2.lazyDecreaseKeys = this.lazyDecreaseKeys AND heap2.comparator = this.comparator
+     *
+     */
+    public void meld(ComparatorHeap<K> heap2)
+    {
+        meldHeap(heap2);
+    }
+
+    /**
+     * Class implementing an item in a ComparatorHeap.
+     *
+     */
+    public static class HeapItem<K> extends KeyedHeap.Item<HeapItem<K>>{
+        public K key;
+
+        public HeapItem(K key, String info) {
+            super(info);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * CsrGraph
+ *
+ * A directed graph with non-negative int edge weights stored in
+ * compressed sparse row form: the edges leaving vertex v are
+ * targets[offsets[v] .. offsets[v+1]) with the matching weights.
+ * Undirected graphs store every edge in both directions.
+ *
+ */
+public class CsrGraph
+{
+    public final int numVertices;
+    public final int[] offsets;
+    public final int[] targets;
+    public final int[] weights;
+
+    private CsrGraph(int numVertices, int[] offsets, int[] targets, int[] weights)
+    {
+        this.numVertices = numVertices;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    /**
+     * pre: 0 <= from[i], to[i] < n, weight[i] >= 0, the arrays have equal length
+     *
+     * Build a graph on vertices 0..n-1 from an edge list. If undirected,
+     * every edge is added in both directions.
+     *
+     */
+    public static CsrGraph fromEdges(int n, int[] from, int[] to, int[] weight, boolean undirected)
+    {
+        int m = from.length;
+        int total = undirected ? 2 * m : m;
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < m; i++) {
+            offsets[from[i] + 1]++;
+            if (undirected) {
+                offsets[to[i] + 1]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+
+        int[] fill = Arrays.copyOf(offsets, n);
+        int[] targets = new int[total];
+        int[] weights = new int[total];
+        for (int i = 0; i < m; i++) {
+            int e = fill[from[i]]++;
+            targets[e] = to[i];
+            weights[e] = weight[i];
+            if (undirected) {
+                e = fill[to[i]]++;
+                targets[e] = from[i];
+                weights[e] = weight[i];
+            }
+        }
+        return new CsrGraph(n, offsets, targets, weights);
+    }
+
+    /**
+     *
+     * Load a graph from a text file. Two formats are accepted:
+     * DIMACS shortest path files ("p sp n m" header, "a u v w" arcs with
+     * 1-based vertices, "c" comment lines), or a plain "n m" header line
+     * followed by m "u v w" lines with 0-based vertices.
+     *
+     */
+    public static CsrGraph load(Path file, boolean undirected) throws IOException
+    {
+        int n = -1;
+        int m = 0;
+        int[] from = new int[16];
+        int[] to = new int[16];
+        int[] weight = new int[16];
+        boolean dimacs = false;
+
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("c") || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                if (parts[0].equals("p")) {
+                    dimacs = true;
+                    n = Integer.parseInt(parts[2]);
+                    continue;
+                }
+                if (n < 0) {
+                    n = Integer.parseInt(parts[0]);
+                    continue;
+                }
+                int first = parts[0].equals("a") ? 1 : 0;
+                if (m == from.length) {
+                    from = Arrays.copyOf(from, m * 2);
+                    to = Arrays.copyOf(to, m * 2);
+                    weight = Arrays.copyOf(weight, m * 2);
+                }
+                int shift = dimacs ? 1 : 0;
+                from[m] = Integer.parseInt(parts[first]) - shift;
+                to[m] = Integer.parseInt(parts[first + 1]) - shift;
+                weight[m] = Integer.parseInt(parts[first + 2]);
+                m++;
+            }
+        }
+        if (n < 0) {
+            throw new IOException("missing graph header in " + file);
+        }
+        return fromEdges(n, Arrays.copyOf(from, m), Arrays.copyOf(to, m), Arrays.copyOf(weight, m), undirected);
+    }
+
+    /**
+     *
+     * Return the number of stored (directed) edges.
+     *
+     */
+    public int numEdges()
+    {
+        return targets.length;
+    }
+}
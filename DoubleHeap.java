@@ -0,0 +1,73 @@
+/**
+ * DoubleHeap
+ *
+ * A Fibonacci heap over double keys (for example costs).
+ * Keys are ordered as by Double.compare, so NaN sorts after every other key.
+ * Same algorithms, modes and counters as Heap; the structure is shared
+ * with the other key types in KeyedHeap.
+ *
+ */
+public class DoubleHeap extends KeyedHeap<DoubleHeap.HeapItem>
+{
+    /**
+     *
+     * Constructor to initialize an empty heap.
+     *
+     */
+    public DoubleHeap(boolean lazyMelds, boolean lazyDecreaseKeys)
+    {
+        super(lazyMelds, lazyDecreaseKeys);
+    }
+
+    protected boolean less(HeapItem a, HeapItem b)
+    {
+        return Double.compare(a.key, b.key) < 0;
+    }
+
+    /**
+     *
+     * Insert (key,info) into the heap and return the newly generated item.
+     *
+     */
+    public HeapItem insert(double key, String info)
+    {
+        return add(new HeapItem(key, info));
+    }
+
+    /**
+     *
+     * pre: 0<=diff
+     *
+     * Decrease the key of x by diff and fix the heap.
+     *
+     */
+    public void decreaseKey(HeapItem x, double diff)
+    {
+        x.key = x.key - diff;
+        keyDecreased(x);
+    }
+
+    /**
+     *
+     * Meld the heap with heap2
+     * pre: heap2.lazyMelds = this.lazyMelds AND heap2.lazyDecreaseKeys = this.lazyDecreaseKeys
+     *
+     */
+    public void meld(DoubleHeap heap2)
+    {
+        meldHeap(heap2);
+    }
+
+    /**
+     * Class implementing an item in a DoubleHeap.
+     *
+     */
+    public static class HeapItem extends KeyedHeap.Item<HeapItem>{
+        public double key;
+
+        public HeapItem(double key, String info) {
+            super(info);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,468 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * ExternalHeap
+ *
+ * A priority queue over positive integers that keeps at most
+ * maxInMemory items in memory and the rest in sorted runs on disk.
+ *
+ * The hot region (the smallest keys) is a regular Heap. An insert whose
+ * key is not smaller than the smallest key on disk goes to a cold buffer
+ * instead. When the heap and the buffer together pass maxInMemory, the
+ * buffer is sorted and written out as a run if it holds at least half of
+ * the items, otherwise the larger half of the heap is (taken out in order
+ * with deleteMin(k)). Runs are written and read through FileChannels in
+ * blocks of BLOCK_SIZE bytes; a run is a sequence of records
+ * (int key, int info length or -1 for null, UTF-8 info bytes).
+ *
+ * deleteMin works on the heap while its min is not larger than the
+ * smallest key on disk. Otherwise the heap is refilled first: the buffer
+ * is flushed as a run and up to maxInMemory / 2 of the smallest disk
+ * items are merged from all runs into the heap with insertAll. When more
+ * than maxRuns runs exist they are merged into one.
+ *
+ * Items that went through the disk come back as new HeapItems, so
+ * handles are not stable and there is no decreaseKey or delete.
+ * Not thread safe. close() deletes the run files.
+ *
+ */
+public class ExternalHeap implements AutoCloseable
+{
+    public static final int BLOCK_SIZE = 1 << 16;
+    public static final int DEFAULT_MAX_RUNS = 32;
+
+    public final int maxInMemory;
+    public final int maxRuns;
+
+    // I/O done so far
+    public long bytesWritten = 0;
+    public long bytesRead = 0;
+    public int runsWritten = 0;
+    public int merges = 0;
+    public int spills = 0;
+    public int refills = 0;
+
+    private final Path dir;
+    private final Heap heap;
+    private final ArrayList<Run> runs = new ArrayList<>();
+    // cold buffer of keys not smaller than the smallest disk key
+    private int[] bufferKeys = new int[16];
+    private String[] bufferInfos = new String[16];
+    private int bufferSize = 0;
+    private int bufferMin = Integer.MAX_VALUE;
+
+    /**
+     * pre: maxInMemory >= 2
+     *
+     * Constructor to initialize an empty queue that keeps at most
+     * maxInMemory items in memory and writes its runs to files in dir.
+     *
+     */
+    public ExternalHeap(Path dir, int maxInMemory)
+    {
+        this(dir, maxInMemory, DEFAULT_MAX_RUNS);
+    }
+
+    /**
+     * pre: maxInMemory >= 2, maxRuns >= 2
+     *
+     * Constructor to initialize an empty queue that also merges its runs
+     * whenever there are more than maxRuns of them.
+     *
+     */
+    public ExternalHeap(Path dir, int maxInMemory, int maxRuns)
+    {
+        if (maxInMemory < 2 || maxRuns < 2) {
+            throw new IllegalArgumentException("maxInMemory and maxRuns must be at least 2");
+        }
+        this.dir = dir;
+        this.maxInMemory = maxInMemory;
+        this.maxRuns = maxRuns;
+        this.heap = new Heap(true, true);
+    }
+
+    /**
+     * pre: key > 0
+     *
+     * Insert (key,info).
+     *
+     */
+    public void insert(int key, String info)
+    {
+        if (key >= diskMin()) {
+            if (bufferSize == bufferKeys.length) {
+                bufferKeys = Arrays.copyOf(bufferKeys, bufferSize * 2);
+                bufferInfos = Arrays.copyOf(bufferInfos, bufferSize * 2);
+            }
+            bufferKeys[bufferSize] = key;
+            bufferInfos[bufferSize] = info;
+            bufferSize++;
+            bufferMin = Math.min(bufferMin, key);
+        } else {
+            heap.insert(key, info);
+        }
+        if (heap.size() + bufferSize > maxInMemory) {
+            if (bufferSize * 2 >= maxInMemory) {
+                flushBuffer();
+            } else {
+                spillHeap();
+            }
+        }
+    }
+
+    /**
+     *
+     * Return the minimal item, null if empty. May read from disk.
+     *
+     */
+    public Heap.HeapItem findMin()
+    {
+        if (!ensureMinInHeap()) {
+            return null;
+        }
+        return heap.findMin();
+    }
+
+    /**
+     *
+     * Delete the minimal item and return it. May read from disk.
+     *
+     */
+    public Heap.HeapItem deleteMin()
+    {
+        if (!ensureMinInHeap()) {
+            throw new RuntimeException("nothing to delete");
+        }
+        Heap.HeapItem min = heap.findMin();
+        heap.deleteMin();
+        return min;
+    }
+
+    /**
+     *
+     * Return the number of items, in memory and on disk.
+     *
+     */
+    public long size()
+    {
+        long size = heap.size() + bufferSize;
+        for (Run run : runs) {
+            size += run.remaining;
+        }
+        return size;
+    }
+
+    /**
+     *
+     * Return the number of items held in memory (heap and cold buffer).
+     *
+     */
+    public int inMemory()
+    {
+        return heap.size() + bufferSize;
+    }
+
+    /**
+     *
+     * Return the number of runs on disk.
+     *
+     */
+    public int numRuns()
+    {
+        return runs.size();
+    }
+
+    // smallest key not in the heap, Integer.MAX_VALUE + 1 if there is none
+    private long diskMin()
+    {
+        long min = bufferSize == 0 ? Integer.MAX_VALUE + 1L : bufferMin;
+        for (Run run : runs) {
+            min = Math.min(min, run.key);
+        }
+        return min;
+    }
+
+    // refills the heap if the minimum is on disk; false if all is empty
+    private boolean ensureMinInHeap()
+    {
+        long diskMin = diskMin();
+        if (heap.size() > 0 && heap.findMin().key <= diskMin) {
+            return true;
+        }
+        if (diskMin > Integer.MAX_VALUE) {
+            return heap.size() > 0;
+        }
+        flushBuffer();
+        refill(Math.max(1, maxInMemory / 2 - heap.size()));
+        return true;
+    }
+
+    // merges the count smallest disk items (or all of them) into the heap
+    private void refill(int count)
+    {
+        refills++;
+        PriorityQueue<Run> merge = new PriorityQueue<>((a, b) -> Integer.compare(a.key, b.key));
+        merge.addAll(runs);
+        int[] keys = new int[count];
+        String[] infos = new String[count];
+        int n = 0;
+        while (n < count && !merge.isEmpty()) {
+            Run run = merge.poll();
+            keys[n] = run.key;
+            infos[n] = run.info;
+            n++;
+            if (run.advance()) {
+                merge.add(run);
+            } else {
+                closeRun(run);
+            }
+        }
+        heap.insertAll(Arrays.copyOf(keys, n), Arrays.copyOf(infos, n));
+    }
+
+    // writes the cold buffer as a run
+    private void flushBuffer()
+    {
+        if (bufferSize == 0) {
+            return;
+        }
+        long[] order = new long[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+            order[i] = ((long) bufferKeys[i] << 32) | i;
+        }
+        Arrays.sort(order);
+        int[] keys = new int[bufferSize];
+        String[] infos = new String[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+            int from = (int) order[i];
+            keys[i] = bufferKeys[from];
+            infos[i] = bufferInfos[from];
+        }
+        Arrays.fill(bufferInfos, 0, bufferSize, null);
+        bufferSize = 0;
+        bufferMin = Integer.MAX_VALUE;
+        writeRun(keys, infos, keys.length);
+    }
+
+    // moves the larger half of the heap to a run
+    private void spillHeap()
+    {
+        spills++;
+        Heap.HeapItem[] sorted = heap.deleteMin(heap.size());
+        int keep = sorted.length / 2;
+        int[] keys = new int[sorted.length];
+        String[] infos = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            keys[i] = sorted[i].key;
+            infos[i] = sorted[i].info;
+        }
+        heap.insertAll(Arrays.copyOf(keys, keep), Arrays.copyOf(infos, keep));
+        writeRun(Arrays.copyOfRange(keys, keep, keys.length), Arrays.copyOfRange(infos, keep, infos.length),
+                keys.length - keep);
+    }
+
+    private void writeRun(int[] keys, String[] infos, int count)
+    {
+        if (count == 0) {
+            return;
+        }
+        try (RunWriter writer = new RunWriter(Files.createTempFile(dir, "heap-run", ".bin"))) {
+            for (int i = 0; i < count; i++) {
+                writer.write(keys[i], infos[i]);
+            }
+            runs.add(writer.finish());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (runs.size() > maxRuns) {
+            mergeRuns();
+        }
+    }
+
+    // merges all runs into one; the old runs stay in runs until the merged
+    // run is finished, so if writing fails they are still closed by close()
+    // (the records already copied into the failed run are lost with it)
+    private void mergeRuns()
+    {
+        merges++;
+        PriorityQueue<Run> merge = new PriorityQueue<>((a, b) -> Integer.compare(a.key, b.key));
+        merge.addAll(runs);
+        try (RunWriter writer = new RunWriter(Files.createTempFile(dir, "heap-run", ".bin"))) {
+            while (!merge.isEmpty()) {
+                Run run = merge.poll();
+                writer.write(run.key, run.info);
+                if (run.advance()) {
+                    merge.add(run);
+                } else {
+                    closeRun(run);
+                }
+            }
+            runs.add(writer.finish());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void closeRun(Run run)
+    {
+        runs.remove(run);
+        run.close();
+    }
+
+    /**
+     *
+     * Delete all run files; the queue is empty afterwards.
+     *
+     */
+    public void close()
+    {
+        for (Run run : runs) {
+            run.close();
+        }
+        runs.clear();
+        bufferSize = 0;
+        heap.deleteMin(heap.size());
+    }
+
+    // buffered sequential writer of one run
+    private class RunWriter implements AutoCloseable {
+        final Path path;
+        final FileChannel channel;
+        ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        long count = 0;
+        boolean finished = false;
+
+        RunWriter(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        }
+
+        void write(int key, String info) throws IOException {
+            byte[] bytes = info == null ? null : info.getBytes(StandardCharsets.UTF_8);
+            int length = 8 + (bytes == null ? 0 : bytes.length);
+            if (block.remaining() < length) {
+                flush();
+                if (block.capacity() < length) {
+                    block = ByteBuffer.allocateDirect(length);
+                }
+            }
+            block.putInt(key);
+            block.putInt(bytes == null ? -1 : bytes.length);
+            if (bytes != null) {
+                block.put(bytes);
+            }
+            count++;
+        }
+
+        private void flush() throws IOException {
+            block.flip();
+            while (block.hasRemaining()) {
+                bytesWritten += channel.write(block);
+            }
+            block.clear();
+        }
+
+        Run finish() throws IOException {
+            flush();
+            channel.close();
+            finished = true;
+            runsWritten++;
+            return new Run(path, count);
+        }
+
+        public void close() throws IOException {
+            if (!finished) {
+                channel.close();
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    // buffered sequential reader of one run, positioned on its next record
+    private class Run {
+        final Path path;
+        final FileChannel channel;
+        ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        // records not yet taken, including the current one
+        long remaining;
+        int key;
+        String info;
+
+        Run(Path path, long count) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.remaining = count;
+            block.limit(0);
+            read();
+        }
+
+        // moves to the next record, false when the run is exhausted
+        boolean advance() {
+            remaining--;
+            if (remaining == 0) {
+                return false;
+            }
+            try {
+                read();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        }
+
+        private void read() throws IOException {
+            ensure(8);
+            key = block.getInt();
+            int length = block.getInt();
+            if (length < 0) {
+                info = null;
+            } else {
+                ensure(length);
+                byte[] bytes = new byte[length];
+                block.get(bytes);
+                info = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        // makes at least n bytes available in block
+        private void ensure(int n) throws IOException {
+            if (block.remaining() >= n) {
+                return;
+            }
+            if (block.capacity() < n) {
+                ByteBuffer bigger = ByteBuffer.allocateDirect(n);
+                bigger.put(block);
+                block = bigger;
+            } else {
+                block.compact();
+            }
+            while (block.position() < n) {
+                int read = channel.read(block);
+                if (read < 0) {
+                    throw new IOException("heap run " + path + " is truncated");
+                }
+                bytesRead += read;
+            }
+            block.flip();
+        }
+
+        void close() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+import java.util.Arrays;
+
+/**
+ * GraphSearch
+ *
+ * Dijkstra shortest paths and Prim minimum spanning forest on a CsrGraph,
+ * using Heap.insert/decreaseKey/deleteMin as the frontier queue.
+ *
+ * Heap items are VertexItems (the vertex id is a field, so no info
+ * strings are built) kept in a vertex-indexed array instead of a map.
+ * Heap keys are distances (or edge weights) plus one, since Heap keys
+ * must be positive.
+ *
+ */
+public class GraphSearch
+{
+    public static final int UNREACHED = Integer.MAX_VALUE;
+
+    private GraphSearch()
+    {
+    }
+
+    /**
+     * pre: 0 <= source < g.numVertices, every shortest path length + 1
+     * fits in an int
+     *
+     * Run Dijkstra from source on a heap in the given mode.
+     * result.value[v] is the distance to v (UNREACHED if unreachable),
+     * result.parent[v] the previous vertex on a shortest path (-1 for
+     * the source and unreachable vertices).
+     *
+     */
+    public static Result dijkstra(CsrGraph g, int source, boolean lazyMelds, boolean lazyDecreaseKeys)
+    {
+        int n = g.numVertices;
+        Heap heap = new Heap(lazyMelds, lazyDecreaseKeys);
+        VertexItem[] items = new VertexItem[n];
+        boolean[] done = new boolean[n];
+        int[] dist = new int[n];
+        int[] parent = new int[n];
+        Arrays.fill(dist, UNREACHED);
+        Arrays.fill(parent, -1);
+        Result result = new Result(dist, parent);
+
+        long start = System.nanoTime();
+        dist[source] = 0;
+        items[source] = new VertexItem(1, source);
+        heap.insertItem(items[source]);
+        result.inserts++;
+        while (heap.size() > 0) {
+            VertexItem min = (VertexItem) heap.findMin();
+            int u = min.vertex;
+            heap.deleteMin();
+            result.deleteMins++;
+            done[u] = true;
+            items[u] = null;
+
+            int du = dist[u];
+            for (int e = g.offsets[u]; e < g.offsets[u + 1]; e++) {
+                int v = g.targets[e];
+                if (done[v]) {
+                    continue;
+                }
+                int candidate = du + g.weights[e];
+                if (candidate >= dist[v]) {
+                    continue;
+                }
+                parent[v] = u;
+                if (items[v] == null) {
+                    dist[v] = candidate;
+                    items[v] = new VertexItem(candidate + 1, v);
+                    heap.insertItem(items[v]);
+                    result.inserts++;
+                } else {
+                    heap.decreaseKey(items[v], dist[v] - candidate);
+                    dist[v] = candidate;
+                    result.decreaseKeys++;
+                }
+            }
+        }
+        result.finish(heap, System.nanoTime() - start);
+        for (int v = 0; v < n; v++) {
+            if (dist[v] != UNREACHED) {
+                result.total += dist[v];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * pre: 0 <= source < g.numVertices, every shortest path length fits
+     * in an int
+     *
+     * Run Dijkstra from source like dijkstra(), on a RadixHeap instead of
+     * a Heap. Result links/cuts/heapify stay 0; the number of items moved
+     * between radix buckets is reported as links.
+     *
+     */
+    public static Result dijkstraRadix(CsrGraph g, int source)
+    {
+        int n = g.numVertices;
+        RadixHeap heap = new RadixHeap(n);
+        int[] handles = new int[n];
+        int[] vertexOf = new int[n];
+        boolean[] done = new boolean[n];
+        int[] dist = new int[n];
+        int[] parent = new int[n];
+        Arrays.fill(handles, RadixHeap.NIL);
+        Arrays.fill(dist, UNREACHED);
+        Arrays.fill(parent, -1);
+        Result result = new Result(dist, parent);
+
+        long start = System.nanoTime();
+        dist[source] = 0;
+        handles[source] = heap.insert(0, null);
+        vertexOf[handles[source]] = source;
+        result.inserts++;
+        while (heap.size() > 0) {
+            int u = vertexOf[heap.findMin()];
+            heap.deleteMin();
+            result.deleteMins++;
+            done[u] = true;
+            handles[u] = RadixHeap.NIL;
+
+            int du = dist[u];
+            for (int e = g.offsets[u]; e < g.offsets[u + 1]; e++) {
+                int v = g.targets[e];
+                if (done[v]) {
+                    continue;
+                }
+                int candidate = du + g.weights[e];
+                if (candidate >= dist[v]) {
+                    continue;
+                }
+                parent[v] = u;
+                if (handles[v] == RadixHeap.NIL) {
+                    handles[v] = heap.insert(candidate, null);
+                    vertexOf[handles[v]] = v;
+                    result.inserts++;
+                } else {
+                    heap.decreaseKey(handles[v], dist[v] - candidate);
+                    result.decreaseKeys++;
+                }
+                dist[v] = candidate;
+            }
+        }
+        result.nanos = System.nanoTime() - start;
+        result.links = (int) Math.min(heap.redistributions, Integer.MAX_VALUE);
+        for (int v = 0; v < n; v++) {
+            if (dist[v] != UNREACHED) {
+                result.total += dist[v];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * pre: g is undirected (every edge stored both ways), every weight + 1
+     * fits in an int
+     *
+     * Run Prim on a heap in the given mode, restarting from the smallest
+     * unvisited vertex so disconnected graphs get a spanning forest.
+     * result.value[v] is the weight of the edge connecting v to its
+     * parent (0 for roots), result.parent[v] that parent (-1 for roots),
+     * result.total the forest weight.
+     *
+     */
+    public static Result prim(CsrGraph g, boolean lazyMelds, boolean lazyDecreaseKeys)
+    {
+        int n = g.numVertices;
+        Heap heap = new Heap(lazyMelds, lazyDecreaseKeys);
+        VertexItem[] items = new VertexItem[n];
+        boolean[] done = new boolean[n];
+        int[] best = new int[n];
+        int[] parent = new int[n];
+        Arrays.fill(best, UNREACHED);
+        Arrays.fill(parent, -1);
+        Result result = new Result(best, parent);
+
+        long start = System.nanoTime();
+        for (int root = 0; root < n; root++) {
+            if (done[root]) {
+                continue;
+            }
+            best[root] = 0;
+            items[root] = new VertexItem(1, root);
+            heap.insertItem(items[root]);
+            result.inserts++;
+            while (heap.size() > 0) {
+                VertexItem min = (VertexItem) heap.findMin();
+                int u = min.vertex;
+                heap.deleteMin();
+                result.deleteMins++;
+                done[u] = true;
+                items[u] = null;
+                result.total += best[u];
+
+                for (int e = g.offsets[u]; e < g.offsets[u + 1]; e++) {
+                    int v = g.targets[e];
+                    int w = g.weights[e];
+                    if (done[v] || w >= best[v]) {
+                        continue;
+                    }
+                    parent[v] = u;
+                    if (items[v] == null) {
+                        best[v] = w;
+                        items[v] = new VertexItem(w + 1, v);
+                        heap.insertItem(items[v]);
+                        result.inserts++;
+                    } else {
+                        heap.decreaseKey(items[v], best[v] - w);
+                        best[v] = w;
+                        result.decreaseKeys++;
+                    }
+                }
+            }
+        }
+        result.finish(heap, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Heap item that carries its vertex instead of an info string.
+     *
+     */
+    private static class VertexItem extends Heap.HeapItem {
+        final int vertex;
+
+        VertexItem(int key, int vertex) {
+            super(key, null);
+            this.vertex = vertex;
+        }
+    }
+
+    /**
+     * Output of one run: per-vertex values and parents, plus the operation
+     * counts and heap costs of the run.
+     *
+     */
+    public static class Result {
+        public final int[] value;
+        public final int[] parent;
+        public long total;
+        public int inserts;
+        public int deleteMins;
+        public int decreaseKeys;
+        public int links;
+        public int cuts;
+        public int heapify;
+        public long nanos;
+
+        Result(int[] value, int[] parent) {
+            this.value = value;
+            this.parent = parent;
+        }
+
+        void finish(Heap heap, long elapsed) {
+            links = heap.totalLinks();
+            cuts = heap.totalCuts();
+            heapify = heap.totalHeapifyCosts();
+            nanos = elapsed;
+        }
+
+        public String toString() {
+            return String.format("total=%d inserts=%d deleteMins=%d decreaseKeys=%d links=%d cuts=%d heapify=%d ms=%.1f",
+                    total, inserts, deleteMins, decreaseKeys, links, cuts, heapify, nanos / 1e6);
+        }
+    }
+}
@@ -1,3 +1,16 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * Heap
  *
@@ -6,8 +19,13 @@
  * the possibility of not performing lazy decrease keys.
  *
  */
-public class Heap
+public class Heap implements Iterable<Heap.HeapItem>, AddressableHeap
 {
+    // default root list length from which setParallelLinking consolidates on its pool
+    public static final int PARALLEL_LINKING_THRESHOLD = 1 << 16;
+    // smallest slice of roots a parallel linking task splits off
+    private static final int PARALLEL_LEAF_SIZE = 1 << 12;
+
     public int heapify = 0;
     public int cuts = 0;
     public int links = 0;
@@ -18,6 +36,30 @@ public class Heap
     public final boolean lazyMelds;
     public final boolean lazyDecreaseKeys;
     public HeapItem min;
+    // set while a batch operation postpones consolidation to its end
+    private boolean deferLinking = false;
+    // bumped by every structural change, checked by iterators
+    private int modCount = 0;
+
+    // recycled items (each with its node), null when pooling is off
+    private final HeapItem[] pool;
+    private int poolSize = 0;
+    // rank table reused by successiveLinking, grown as needed
+    private HeapNode[] rankTable = new HeapNode[0];
+    // frontier array reused by deleteMin(k)/drainTo, grown as needed
+    private HeapNode[] popFrontier = new HeapNode[16];
+    // lazy deletes: 0 when off, else the tombstones/size() ratio that triggers a purge
+    private double purgeFraction = 0;
+    // deleted items still in the trees, counted in size but not in size()
+    int tombstones = 0;
+    // null unless enableMetrics() was called
+    private HeapMetrics metrics = null;
+    // ids of the IndexedItems in the heap, null until the first insertWithId
+    private IdIndex idIndex = null;
+    // pool for parallel consolidation (null = always sequential) and the
+    // root list length from which it is used
+    private ForkJoinPool linkingPool = null;
+    private int parallelThreshold = PARALLEL_LINKING_THRESHOLD;
     
     /**
      *
@@ -29,6 +71,7 @@ public class Heap
         this.lazyMelds = lazyMelds;
         this.lazyDecreaseKeys = lazyDecreaseKeys;
         this.min = null;
+        this.pool = null;
         
     }
 
@@ -39,7 +82,27 @@ public class Heap
         this.min = first;
         this.size = 1;
         this.numOfTrees = 1;
+        this.pool = null;
+
+    }
 
+    /**
+     * pre: poolCapacity >= 0
+     *
+     * Constructor to initialize an empty heap that recycles up to
+     * poolCapacity deleted items (and their nodes) for later inserts.
+     * In this mode insert does not allocate a throwaway heap either, so
+     * steady-state insert/deleteMin/decreaseKey cycles allocate nothing.
+     * An item must not be used after it was deleted, since insert may
+     * hand the same object out again.
+     *
+     */
+    public Heap(boolean lazyMelds, boolean lazyDecreaseKeys, int poolCapacity)
+    {
+        this.lazyMelds = lazyMelds;
+        this.lazyDecreaseKeys = lazyDecreaseKeys;
+        this.min = null;
+        this.pool = new HeapItem[poolCapacity];
     }
 
     /**
@@ -48,8 +111,25 @@ public class Heap
      * Insert (key,info) into the heap and return the newly generated HeapNode.
      *
      */
-    public HeapItem insert(int key, String info) 
+    public HeapItem insert(int key, String info)
+    {
+        HeapMetrics m = metrics;
+        if (m == null) {
+            return insertImpl(key, info);
+        }
+        long start = m.begin();
+        try {
+            return insertImpl(key, info);
+        } finally {
+            m.end(HeapMetrics.INSERT, start);
+        }
+    }
+
+    private HeapItem insertImpl(int key, String info)
     {   
+        if (pool != null) {
+            return insertPooled(key, info);
+        }
         HeapItem newItem = new HeapItem(key, info);
         Heap newHeap = new Heap(this.lazyMelds, this.lazyDecreaseKeys, newItem);
         this.meld(newHeap);
@@ -57,6 +137,340 @@ public class Heap
         return newItem; 
     }
 
+    private HeapItem insertPooled(int key, String info)
+    {
+        HeapItem newItem;
+        if (poolSize > 0) {
+            newItem = pool[--poolSize];
+            pool[poolSize] = null;
+            newItem.key = key;
+            newItem.info = info;
+        } else {
+            newItem = new HeapItem(key, info);
+        }
+        return insertItem(newItem);
+    }
+
+    /**
+     * pre: item is a new item (created by the HeapItem(key, info)
+     * constructor, possibly of a subclass) that was never in a heap,
+     * item.key > 0
+     *
+     * Insert item into the heap without allocating anything and return it.
+     *
+     */
+    public HeapItem insertItem(HeapItem item)
+    {
+        modCount++;
+        size++;
+        numOfTrees++;
+        if (min == null) {
+            min = item;
+            return item;
+        }
+        concatenate(min.node, item.node);
+        if (item.key < min.key) {
+            min = item;
+        }
+        if (!lazyMelds) {
+            successiveLinking();
+        }
+        return item;
+    }
+
+    private void recycle(HeapItem item)
+    {
+        if (pool == null || poolSize == pool.length || item instanceof IndexedItem) {
+            return;
+        }
+        HeapNode node = item.node;
+        node.tombstone = false;
+        node.child = null;
+        node.next = node;
+        node.prev = node;
+        node.parent = null;
+        node.marked = false;
+        node.rank = 0;
+        item.info = null;
+        pool[poolSize++] = item;
+    }
+
+    /**
+     * pre: keys[i] > 0 for all i, infos == null or infos.length == keys.length
+     *
+     * Insert all (keys[i],infos[i]) pairs into the heap at once and return
+     * the newly generated items in the same order.
+     * The new nodes are spliced into the root list in one step and the heap
+     * is consolidated at most once (only if lazyMelds is false).
+     *
+     */
+    public HeapItem[] insertAll(int[] keys, String[] infos)
+    {
+        int n = keys.length;
+        HeapItem[] items = new HeapItem[n];
+        for (int i = 0; i < n; i++) {
+            items[i] = new HeapItem(keys[i], infos == null ? null : infos[i]);
+        }
+        insertItems(items, n);
+        return items;
+    }
+
+    /**
+     * pre: items[0..count) are new items (created by the HeapItem(key, info)
+     * constructor) that were never in a heap, all keys > 0
+     *
+     * Insert the first count items into the heap at once, the same way as
+     * insertAll. Only the items' nodes are relinked, so callers may have
+     * used the nodes' next fields as scratch space before.
+     *
+     */
+    public void insertItems(HeapItem[] items, int count)
+    {
+        modCount++;
+        if (count == 0) {
+            return;
+        }
+
+        HeapItem newMin = null;
+        HeapNode first = null;
+        HeapNode last = null;
+        for (int i = 0; i < count; i++) {
+            HeapItem item = items[i];
+            HeapNode node = item.node;
+            if (first == null) {
+                first = node;
+            } else {
+                last.next = node;
+                node.prev = last;
+            }
+            last = node;
+            if (newMin == null || item.key < newMin.key) {
+                newMin = item;
+            }
+        }
+        last.next = first;
+        first.prev = last;
+
+        size += count;
+        numOfTrees += count;
+        if (min == null) {
+            min = newMin;
+        } else {
+            concatenate(min.node, first);
+            if (newMin.key < min.key) {
+                min = newMin;
+            }
+        }
+
+        if (!lazyMelds) {
+            successiveLinking();
+        }
+    }
+
+    /**
+     *
+     * Turn on metrics (see HeapMetrics) and return them; calling it again
+     * returns the same metrics.
+     *
+     */
+    public HeapMetrics enableMetrics()
+    {
+        if (metrics == null) {
+            metrics = new HeapMetrics(this);
+        }
+        return metrics;
+    }
+
+    /**
+     *
+     * Turn off metrics, dropping what was collected.
+     *
+     */
+    public void disableMetrics()
+    {
+        metrics = null;
+    }
+
+    /**
+     *
+     * Return the metrics, null if they are off.
+     *
+     */
+    public HeapMetrics metrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * pre: key > 0
+     *
+     * Insert (key,info) under the caller's id and return the new item.
+     * The heap keeps an index from ids to items (see IdIndex), created by
+     * the first call; items inserted without an id are not in it.
+     * An id leaves the index when its item is deleted by any method.
+     * Throws IllegalArgumentException if id is already in the heap.
+     *
+     */
+    public IndexedItem insertWithId(long id, int key, String info)
+    {
+        if (idIndex == null) {
+            idIndex = new IdIndex(16);
+        }
+        IndexedItem item = new IndexedItem(id, key, info);
+        idIndex.put(id, item);
+        insertItem(item);
+        return item;
+    }
+
+    // adds an item that is already in the trees to the id index (HeapSnapshot.read)
+    void index(IndexedItem item)
+    {
+        if (idIndex == null) {
+            idIndex = new IdIndex(16);
+        }
+        idIndex.put(item.id, item);
+    }
+
+    /**
+     *
+     * Return true if an item with this id is in the heap.
+     *
+     */
+    public boolean containsId(long id)
+    {
+        return idIndex != null && idIndex.get(id) != null;
+    }
+
+    /**
+     *
+     * Return the item with this id, null if there is none.
+     *
+     */
+    public IndexedItem getById(long id)
+    {
+        return idIndex == null ? null : (IndexedItem) idIndex.get(id);
+    }
+
+    /**
+     *
+     * pre: 0<=diff<=key of the item
+     *
+     * Decrease the key of the item with this id by diff. Return false if
+     * there is no such item.
+     *
+     */
+    public boolean decreaseKeyById(long id, int diff)
+    {
+        IndexedItem item = getById(id);
+        if (item == null) {
+            return false;
+        }
+        decreaseKey(item, diff);
+        return true;
+    }
+
+    /**
+     *
+     * Delete the item with this id. Return false if there is no such item.
+     *
+     */
+    public boolean deleteById(long id)
+    {
+        IndexedItem item = getById(id);
+        if (item == null) {
+            return false;
+        }
+        delete(item);
+        return true;
+    }
+
+    /**
+     *
+     * Delete the minimal item and return its id.
+     * Throws IllegalStateException if the min was inserted without an id.
+     *
+     */
+    public long deleteMinId()
+    {
+        if (size() == 0) {
+            throw new RuntimeException("nothing to delete");
+        }
+        if (!(min instanceof IndexedItem)) {
+            throw new IllegalStateException("the min has no id");
+        }
+        long id = ((IndexedItem) min).id;
+        deleteMin();
+        return id;
+    }
+
+    // drops item from the id index once it left the heap
+    private void unindex(HeapItem item)
+    {
+        if (idIndex != null && item instanceof IndexedItem) {
+            idIndex.remove(((IndexedItem) item).id, item);
+        }
+    }
+
+    /**
+     * pre: threshold >= 0
+     *
+     * Consolidate root lists of at least threshold trees on pool, or
+     * always sequentially if pool is null, which is the default. Pass
+     * PARALLEL_LINKING_THRESHOLD as threshold for the usual cut-off.
+     *
+     */
+    public void setParallelLinking(ForkJoinPool pool, int threshold)
+    {
+        this.linkingPool = pool;
+        this.parallelThreshold = threshold;
+    }
+
+    /**
+     * pre: keys[i] > 0 for all i, infos == null or infos.length == keys.length
+     *
+     * Insert all (keys[i],infos[i]) pairs like insertAll, but create the
+     * items and link them into binomial trees in parallel on pool, so at
+     * most log2(keys.length)+1 new trees are added to the root list.
+     * Consolidates the whole heap afterwards only if lazyMelds is false.
+     *
+     */
+    public HeapItem[] insertAllParallel(int[] keys, String[] infos, ForkJoinPool pool)
+    {
+        modCount++;
+        HeapItem[] items = new HeapItem[keys.length];
+        if (keys.length == 0) {
+            return items;
+        }
+        LinkTask task = new LinkTask(null, items, keys, infos, 0, keys.length,
+                34 - Integer.numberOfLeadingZeros(keys.length), leafSize(keys.length, pool));
+        HeapNode[] forest = pool.invoke(task);
+        links += task.links;
+        size += keys.length;
+        for (HeapNode tree : forest) {
+            if (tree == null) {
+                continue;
+            }
+            numOfTrees++;
+            if (min == null) {
+                min = tree.item;
+            } else {
+                concatenate(min.node, tree);
+                if (tree.item.key < min.key) {
+                    min = tree.item;
+                }
+            }
+        }
+        if (!lazyMelds) {
+            successiveLinking();
+        }
+        return items;
+    }
+
+    private static int leafSize(int n, ForkJoinPool pool)
+    {
+        return Math.max(PARALLEL_LEAF_SIZE, n / (pool.getParallelism() * 8));
+    }
+
     /**
      * 
      * Return the minimal HeapNode, null if empty.
@@ -78,14 +492,63 @@ public class Heap
 
     public void deleteMin()
     {
+        HeapMetrics m = metrics;
+        if (m == null) {
+            deleteMinImpl();
+            return;
+        }
+        long start = m.begin();
+        try {
+            deleteMinImpl();
+        } finally {
+            m.end(HeapMetrics.DELETE_MIN, start);
+        }
+    }
+
+    private void deleteMinImpl()
+    {
+        modCount++;
         
         if (size == 0){
             throw new RuntimeException("nothing to delete");
         }
+        removeMinRoot(true);
+        if (min == null) {
+            return;
+        }
+
+        HeapNode c = min.node;
+        HeapItem start = min;
+        do{
+
+            if (min.key > c.item.key){
+                min = c.item;
+            }
+            c = c.next;
+        }while ( c != start.node);
+        
+        successiveLinking();
+        return;
+        
+    }
+
+    /**
+     * Remove the min node, promote its children to roots and set min to
+     * some remaining root (null if the heap became empty), without
+     * searching for the real min or consolidating.
+     * The removed item is recycled only if reuse is true.
+     */
+    private void removeMinRoot(boolean reuse)
+    {
+        HeapItem removed = min;
+        unindex(removed);
         if (size == 1){
             size --;
             numOfTrees --;
             min = null;
+            if (reuse) {
+                recycle(removed);
+            }
             return;
         }
 
@@ -121,22 +584,160 @@ public class Heap
         }
 
         size--;
+        if (reuse) {
+            recycle(removed);
+        }
+    }
 
-        
+    /**
+     * pre: k >= 0
+     *
+     * Delete the min(k, size()) smallest items and return them in
+     * increasing key order.
+     * The items are found through a small priority queue over the roots
+     * and the children of removed nodes; the heap is consolidated only
+     * once at the end. Returned items are never recycled by a pooled heap.
+     *
+     */
+    public HeapItem[] deleteMin(int k)
+    {
+        HeapItem[] result = new HeapItem[Math.min(k, size())];
+        popSmallest(result.length, result, null);
+        return result;
+    }
+
+    /**
+     * pre: k >= 0, consumer does not modify the heap
+     *
+     * Delete the min(k, size()) smallest items, passing each one to
+     * consumer in increasing key order, and return how many were deleted.
+     * Like deleteMin(k) the heap is consolidated only once.
+     *
+     */
+    public int drainTo(Consumer<? super HeapItem> consumer, int k)
+    {
+        int count = Math.min(k, size());
+        popSmallest(count, null, consumer);
+        return count;
+    }
 
+    private void popSmallest(int count, HeapItem[] out, Consumer<? super HeapItem> consumer)
+    {
+        modCount++;
+        if (count == 0) {
+            return;
+        }
+        HeapNode[] frontier = popFrontier;
+        int frontierSize = 0;
+        HeapNode root = min.node;
+        do {
+            frontier = pushFrontier(frontier, frontierSize++, root);
+            root = root.next;
+        } while (root != min.node);
+
+        for (int i = 0; i < count; ) {
+            HeapNode node = frontier[0];
+            popFrontier(frontier, --frontierSize);
+            if (node.child != null) {
+                HeapNode c = node.child;
+                do {
+                    frontier = pushFrontier(frontier, frontierSize++, c);
+                    c = c.next;
+                } while (c != node.child);
+            }
+            // node is a root now: its parent (if any) was removed before it
+            min = node.item;
+            if (node.tombstone) {
+                node.tombstone = false;
+                tombstones--;
+                removeMinRoot(true);
+                continue;
+            }
+            i++;
+            if (out != null) {
+                out[i - 1] = node.item;
+                removeMinRoot(false);
+            } else {
+                consumer.accept(node.item);
+                removeMinRoot(true);
+            }
+        }
+
+        Arrays.fill(frontier, 0, frontierSize, null);
+        popFrontier = frontier;
+        if (min == null) {
+            numOfTrees = 0;
+            return;
+        }
         HeapNode c = min.node;
         HeapItem start = min;
-        do{
-
-            if (min.key > c.item.key){
+        do {
+            if (c.item.key < min.key) {
                 min = c.item;
             }
             c = c.next;
-        }while ( c != start.node);
-        
+        } while (c != start.node);
         successiveLinking();
-        return;
-        
+    }
+
+    // binary min heap by key over frontier[0..size) for popSmallest and SortedIterator;
+    // adds node at index size, growing the array if needed, and returns it
+    private static HeapNode[] pushFrontier(HeapNode[] frontier, int size, HeapNode node)
+    {
+        if (size == frontier.length) {
+            frontier = Arrays.copyOf(frontier, Math.max(16, size * 2));
+        }
+        int key = node.item.key;
+        int i = size;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (frontier[parent].item.key <= key) {
+                break;
+            }
+            frontier[i] = frontier[parent];
+            i = parent;
+        }
+        frontier[i] = node;
+        return frontier;
+    }
+
+    // removes frontier[0]; size is the size after the removal
+    private static void popFrontier(HeapNode[] frontier, int size)
+    {
+        HeapNode last = frontier[size];
+        frontier[size] = null;
+        if (size > 0) {
+            siftDownFrontier(frontier, size, 0, last);
+        }
+    }
+
+    // turns frontier[0..size) into a binary min heap in O(size)
+    private static void heapifyFrontier(HeapNode[] frontier, int size)
+    {
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDownFrontier(frontier, size, i, frontier[i]);
+        }
+    }
+
+    // puts node at index i or below, moving smaller children up
+    private static void siftDownFrontier(HeapNode[] frontier, int size, int i, HeapNode node)
+    {
+        int key = node.item.key;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && frontier[child + 1].item.key < frontier[child].item.key) {
+                child++;
+            }
+            if (frontier[child].item.key >= key) {
+                break;
+            }
+            frontier[i] = frontier[child];
+            i = child;
+        }
+        frontier[i] = node;
     }
 
     /**
@@ -146,15 +747,31 @@ public class Heap
      * Decrease the key of x by diff and fix the heap.
      * 
      */
-    public void decreaseKey(HeapItem x, int diff) 
+    public void decreaseKey(HeapItem x, int diff)
+    {
+        HeapMetrics m = metrics;
+        if (m == null) {
+            decreaseKeyImpl(x, diff);
+            return;
+        }
+        long start = m.begin();
+        try {
+            decreaseKeyImpl(x, diff);
+        } finally {
+            m.end(HeapMetrics.DECREASE_KEY, start);
+        }
+    }
+
+    private void decreaseKeyImpl(HeapItem x, int diff)
     {    
+        modCount++;
         x.key -= diff;
         if(lazyDecreaseKeys)
         {   
             HeapNode parent = x.node.parent;
             if (parent != null && x.key < parent.item.key){
                 cut(x.node, parent);
-                if (!lazyMelds) {
+                if (!lazyMelds && !deferLinking) {
                     if (x.key < min.key){
                         min = x;
                     }
@@ -212,28 +829,220 @@ public class Heap
                 markedNodes++;
             } else {
                 cut(y, z);
-                 if (!lazyMelds) {
+                 if (!lazyMelds && !deferLinking) {
                     successiveLinking();
                 }
                 cascadingCut(z);
             }
         }
     }
+
+    /**
+     *
+     * pre: items.length == diffs.length, 0<=diffs[i]<=items[i].key,
+     * no item appears twice
+     *
+     * Decrease the key of every items[i] by diffs[i].
+     * All cuts and cascading cuts are done first; when lazyMelds is false
+     * the heap is consolidated once at the end instead of after every cut.
+     *
+     */
+    public void decreaseKeys(HeapItem[] items, int[] diffs)
+    {
+        int cutsBefore = cuts;
+        deferLinking = true;
+        try {
+            for (int i = 0; i < items.length; i++) {
+                decreaseKey(items[i], diffs[i]);
+            }
+        } finally {
+            deferLinking = false;
+        }
+        if (!lazyMelds && cuts != cutsBefore) {
+            successiveLinking();
+        }
+    }
+
+    /**
+     *
+     * pre: no item appears twice
+     *
+     * Delete all the items from the heap.
+     * Each item is cut out (or heapified up) and removed without
+     * consolidating; the min is searched and the heap is consolidated
+     * once at the end.
+     *
+     */
+    public void deleteAll(HeapItem[] items)
+    {
+        modCount++;
+        if (items.length == 0) {
+            return;
+        }
+        deferLinking = true;
+        try {
+            for (HeapItem x : items) {
+                decreaseKey(x, x.key+1); // make x key -1 so it is the min.
+                removeMinRoot(true);
+            }
+        } finally {
+            deferLinking = false;
+        }
+        if (min == null) {
+            numOfTrees = 0;
+            return;
+        }
+
+        HeapNode c = min.node;
+        HeapItem start = min;
+        do {
+            if (c.item.key < min.key) {
+                min = c.item;
+            }
+            c = c.next;
+        } while (c != start.node);
+        successiveLinking();
+    }
+
     /**
      * 
      * Delete the x from the heap.
+     * With lazy deletes on, an x other than the min is only tombstoned.
      *
      */
-    public void delete(HeapItem x) 
+    public void delete(HeapItem x)
+    {
+        HeapMetrics m = metrics;
+        if (m == null) {
+            deleteImpl(x);
+            return;
+        }
+        long start = m.begin();
+        try {
+            deleteImpl(x);
+        } finally {
+            m.end(HeapMetrics.DELETE, start);
+        }
+    }
+
+    private void deleteImpl(HeapItem x)
     {    
+        if (purgeFraction > 0 && x != min) {
+            modCount++;
+            x.node.tombstone = true;
+            tombstones++;
+            unindex(x);
+            if (tombstones > purgeFraction * (size - tombstones)) {
+                purgeTombstones();
+            }
+            return;
+        }
         decreaseKey(x, x.key+1); // make x key -1 so it is the min. 
         deleteMin();
         return; 
     }
 
+    /**
+     * pre: purgeFraction >= 0
+     *
+     * Turn lazy deletes on (purgeFraction > 0) or off (purgeFraction == 0).
+     * When on, delete(x) of an item that is not the min just marks x as a
+     * tombstone, without cuts or consolidation. Tombstones are skipped by
+     * size(), the iterator and deleteMin(k), dropped whenever a
+     * consolidation meets them as roots, and all purged at once when their
+     * number passes purgeFraction * size(). Turning lazy deletes off
+     * purges the remaining tombstones.
+     *
+     */
+    public void setLazyDeletes(double purgeFraction)
+    {
+        if (!(purgeFraction >= 0)) {
+            throw new IllegalArgumentException("purgeFraction must be non-negative");
+        }
+        this.purgeFraction = purgeFraction;
+        if (purgeFraction == 0) {
+            purgeTombstones();
+        }
+    }
+
+    /**
+     *
+     * Return the number of tombstoned items still in the trees.
+     *
+     */
+    public int numTombstones()
+    {
+        return tombstones;
+    }
+
+    /**
+     *
+     * Remove all tombstones: every tombstone is cut to the root list
+     * (with the usual cascading cuts) and the heap is consolidated once,
+     * which drops the tombstoned roots.
+     *
+     */
+    public void purgeTombstones()
+    {
+        if (tombstones == 0) {
+            return;
+        }
+        modCount++;
+        ArrayList<HeapNode> dead = new ArrayList<>(tombstones);
+        ArrayList<HeapNode> stack = new ArrayList<>();
+        HeapNode root = min.node;
+        do {
+            stack.add(root);
+            root = root.next;
+        } while (root != min.node);
+        while (!stack.isEmpty()) {
+            HeapNode node = stack.remove(stack.size() - 1);
+            if (node.tombstone) {
+                dead.add(node);
+            }
+            if (node.child != null) {
+                HeapNode c = node.child;
+                do {
+                    stack.add(c);
+                    c = c.next;
+                } while (c != node.child);
+            }
+        }
+        deferLinking = true;
+        try {
+            for (HeapNode node : dead) {
+                HeapNode parent = node.parent;
+                if (parent != null) {
+                    cut(node, parent);
+                    cascadingCut(parent);
+                }
+            }
+        } finally {
+            deferLinking = false;
+        }
+        successiveLinking();
+    }
+
+    /**
+     *
+     * AddressableHeap versions of decreaseKey and delete.
+     * pre: x is a HeapItem of this heap
+     *
+     */
+    public void decreaseKey(Handle x, int diff)
+    {
+        decreaseKey((HeapItem) x, diff);
+    }
+
+    public void delete(Handle x)
+    {
+        delete((HeapItem) x);
+    }
+
 
     public void heapify(HeapItem item)
     {
+        modCount++;
         
         while (item.node.parent != null && item.key < item.node.parent.item.key) {
             item.SwapNode(item.node.parent.item);
@@ -241,26 +1050,54 @@ public class Heap
         }
     }
     private void link(HeapNode y, HeapNode x) {
+        linkNodes(y, x);
+        links++;
+    }
+
+    // makes root y a child of root x without touching the heap's counters
+    private static void linkNodes(HeapNode y, HeapNode x) {
         y.parent = x;
         if (x.child == null) {
             x.child = y;
             y.next = y;
             y.prev = y;
         } else {
-            concatenate(x.child, y);
+            concatenateNodes(x.child, y);
         }
         x.rank++;
-        links++;
     }
  
     public void successiveLinking()
     {
+        HeapMetrics m = metrics;
+        if (m == null || min == null) {
+            linkRoots();
+            return;
+        }
+        int roots = numOfTrees;
+        int linksBefore = links;
+        HeapMetrics.ConsolidationEvent event = m.beginConsolidation(roots);
+        linkRoots();
+        m.endConsolidation(event, roots, links - linksBefore, numOfTrees);
+    }
+
+    private void linkRoots()
+    {
+        modCount++;
         if (min == null) {
             return;
         }
 
-        int maxDegree = (size > 0) ? (int) (Math.floor(Math.log(size) / Math.log(2))) + 1 : 1;
-        HeapNode[] arr = new HeapNode[maxDegree*2];
+        int maxDegree = (size > 0) ? 32 - Integer.numberOfLeadingZeros(size) : 1; // floor(log2(size)) + 1
+        if (rankTable.length < maxDegree*2) {
+            rankTable = new HeapNode[maxDegree*2];
+        }
+        if (linkingPool != null && numOfTrees >= parallelThreshold && tombstones == 0) {
+            parallelLinking(maxDegree * 2);
+            return;
+        }
+        HeapNode[] arr = rankTable;
+        int top = 0;
         boolean done = true;
         HeapNode last = min.node.prev;
         HeapNode c = min.node;
@@ -273,30 +1110,44 @@ public class Heap
 
             c.next = c;
             c.prev = c;
-            HeapNode x = c;
-            int d = x.rank;
-
-            // תהליך האיחוד (Linking)
-            while (arr[d] != null) {
-                HeapNode y = arr[d];
-                if (x.item.key > y.item.key) {
-                    HeapNode temp = x;
-                    x = y;
-                    y = temp;
-                }
-                link(y, x); // y הופך לבן של x
-                arr[d] = null;
-                d++;
-            }
-
-            arr[d] = x;
+            top = c.tombstone ? dropTombstone(c, arr, top) : addTree(c, arr, top);
             c = next;
         }
 
+        collectRoots(arr, top);
+    }
+
+    // copies the root list into an array and links slices of it into
+    // rank tables in parallel; the tables are merged by rank as the tasks
+    // join, so the result has at most one tree per rank like the
+    // sequential pass (the trees themselves may be shaped differently)
+    private void parallelLinking(int tableSize)
+    {
+        HeapNode[] roots = new HeapNode[numOfTrees];
+        int count = 0;
+        HeapNode c = min.node;
+        do {
+            if (count == roots.length) {
+                roots = Arrays.copyOf(roots, count * 2);
+            }
+            roots[count++] = c;
+            c = c.next;
+        } while (c != min.node);
+
+        LinkTask task = new LinkTask(roots, null, null, null, 0, count, tableSize, leafSize(count, linkingPool));
+        HeapNode[] arr = linkingPool.invoke(task);
+        links += task.links;
+        collectRoots(arr, arr.length);
+    }
 
+    // rebuilds the root list from the trees in arr[0..top), clearing arr
+    private void collectRoots(HeapNode[] arr, int top)
+    {
         min = null;
         numOfTrees = 0;
-        for (HeapNode node : arr) {
+        for (int i = 0; i < top; i++) {
+            HeapNode node = arr[i];
+            arr[i] = null;
             if (node != null) {
                 if (min == null) {
                     min = node.item;
@@ -315,7 +1166,66 @@ public class Heap
 
     }
 
+    // links the single tree x into the rank table, returns the new top
+    private int addTree(HeapNode x, HeapNode[] arr, int top)
+    {
+        int d = x.rank;
+
+        // תהליך האיחוד (Linking)
+        while (arr[d] != null) {
+            HeapNode y = arr[d];
+            if (x.item.key > y.item.key) {
+                HeapNode temp = x;
+                x = y;
+                y = temp;
+            }
+            link(y, x); // y הופך לבן של x
+            arr[d] = null;
+            d++;
+        }
+
+        arr[d] = x;
+        return d >= top ? d + 1 : top;
+    }
+
+    // removes the tombstoned root t and links its children into the rank
+    // table instead (dropping tombstoned children the same way)
+    private int dropTombstone(HeapNode t, HeapNode[] arr, int top)
+    {
+        HeapNode child = t.child;
+        if (child != null) {
+            HeapNode c = child;
+            do {
+                HeapNode next = c.next;
+                c.parent = null;
+                if (c.marked) {
+                    c.marked = false;
+                    markedNodes--;
+                }
+                c.next = c;
+                c.prev = c;
+                top = c.tombstone ? dropTombstone(c, arr, top) : addTree(c, arr, top);
+                c = next;
+            } while (c != child);
+        }
+        t.child = null;
+        t.rank = 0;
+        if (t.marked) {
+            t.marked = false;
+            markedNodes--;
+        }
+        t.tombstone = false;
+        tombstones--;
+        size--;
+        recycle(t.item);
+        return top;
+    }
+
     private void concatenate(HeapNode n1, HeapNode n2) {
+        concatenateNodes(n1, n2);
+    }
+
+    private static void concatenateNodes(HeapNode n1, HeapNode n2) {
         HeapNode n1Next = n1.next;
         HeapNode n2Prev = n2.prev;
 
@@ -333,9 +1243,26 @@ public class Heap
      */
     public void meld(Heap heap2)
     {
+        HeapMetrics m = metrics;
+        if (m == null) {
+            meldImpl(heap2);
+            return;
+        }
+        long start = m.begin();
+        try {
+            meldImpl(heap2);
+        } finally {
+            m.end(HeapMetrics.MELD, start);
+        }
+    }
+
+    private void meldImpl(Heap heap2)
+    {
+        modCount++;
         if (heap2.min == null){
             return;
         }
+        meldIdIndex(heap2);
 
         if(min == null)
         {
@@ -347,6 +1274,7 @@ public class Heap
             markedNodes = heap2.markedNodes;
             numOfTrees = heap2.numOfTrees;
             size = heap2.size;
+            tombstones = heap2.tombstones;
             return;
         }
 
@@ -356,6 +1284,7 @@ public class Heap
         markedNodes += heap2.markedNodes;
         numOfTrees += heap2.numOfTrees;
         size += heap2.size;
+        tombstones += heap2.tombstones;
 
         concatenate(min.node,heap2.min.node);
         
@@ -371,6 +1300,146 @@ public class Heap
     }
     
     
+    // merges the smaller id index into the larger one; throws before
+    // anything changes if both heaps hold the same id
+    private void meldIdIndex(Heap heap2)
+    {
+        IdIndex other = heap2.idIndex;
+        if (other == null || other.size() == 0) {
+            return;
+        }
+        if (idIndex == null || idIndex.size() == 0) {
+            idIndex = other;
+        } else {
+            IdIndex small = idIndex.size() < other.size() ? idIndex : other;
+            IdIndex large = small == other ? idIndex : other;
+            if (!large.disjoint(small)) {
+                throw new IllegalArgumentException("both heaps hold the same id");
+            }
+            large.putAll(small);
+            idIndex = large;
+        }
+        heap2.idIndex = null;
+    }
+
+    /**
+     *
+     * Return an iterator over the items in increasing key order without
+     * changing the heap. It walks the existing trees with a small binary
+     * heap built bottom-up from the root list, so the first k items cost
+     * O(#trees + k log(#trees + k)). Throws ConcurrentModificationException if the
+     * heap is modified during iteration.
+     *
+     */
+    public Iterator<HeapItem> iterator()
+    {
+        return new SortedIterator();
+    }
+
+    /**
+     *
+     * Return a sequential stream over the items in increasing key order,
+     * backed by iterator().
+     *
+     */
+    public Stream<HeapItem> stream()
+    {
+        return StreamSupport.stream(Spliterators.spliterator(iterator(), size(),
+                Spliterator.ORDERED | Spliterator.SIZED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * pre: k >= 0
+     *
+     * Return the min(k, size()) smallest items in increasing key order
+     * without changing the heap.
+     *
+     */
+    public HeapItem[] peekMin(int k)
+    {
+        HeapItem[] result = new HeapItem[Math.min(k, size())];
+        Iterator<HeapItem> it = iterator();
+        for (int i = 0; i < result.length; i++) {
+            result[i] = it.next();
+        }
+        return result;
+    }
+
+    private class SortedIterator implements Iterator<HeapItem>
+    {
+        private final int expectedModCount = modCount;
+        // binary min heap over frontier[0..size), see pushFrontier
+        private HeapNode[] frontier = new HeapNode[Math.max(16, numOfTrees)];
+        private int size = 0;
+
+        SortedIterator()
+        {
+            if (min != null) {
+                HeapNode root = min.node;
+                do {
+                    if (size == frontier.length) {
+                        frontier = Arrays.copyOf(frontier, size * 2);
+                    }
+                    frontier[size++] = root;
+                    root = root.next;
+                } while (root != min.node);
+                heapifyFrontier(frontier, size);
+            }
+            skipTombstones();
+        }
+
+        public boolean hasNext()
+        {
+            checkForComodification();
+            return size > 0;
+        }
+
+        public HeapItem next()
+        {
+            checkForComodification();
+            if (size == 0) {
+                throw new NoSuchElementException();
+            }
+            HeapNode node = poll();
+            expand(node);
+            skipTombstones();
+            return node.item;
+        }
+
+        private HeapNode poll()
+        {
+            HeapNode node = frontier[0];
+            popFrontier(frontier, --size);
+            return node;
+        }
+
+        private void expand(HeapNode node)
+        {
+            if (node.child != null) {
+                HeapNode c = node.child;
+                do {
+                    frontier = pushFrontier(frontier, size++, c);
+                    c = c.next;
+                } while (c != node.child);
+            }
+        }
+
+        // tombstones are not returned, but their children are
+        private void skipTombstones()
+        {
+            while (size > 0 && frontier[0].tombstone) {
+                expand(poll());
+            }
+        }
+
+        private void checkForComodification()
+        {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
     /**
      * 
      * Return the number of elements in the heap
@@ -378,7 +1447,7 @@ public class Heap
      */
     public int size()
     {
-        return size; 
+        return size - tombstones; 
     }
 
 
@@ -488,6 +1557,89 @@ public class Heap
             } while (currChild != node.child && currChild != null);
         }
 }
+    /**
+     * Links the roots in [from, to) into a rank table of tableSize slots,
+     * splitting the range while it is longer than leafSize. If keys is
+     * not null the roots are created here from keys/infos and stored in
+     * items instead of being read from roots. links is the number of
+     * links made by this task and its subtasks.
+     *
+     */
+    private static class LinkTask extends RecursiveTask<HeapNode[]> {
+        private static final long serialVersionUID = 1L;
+
+        final HeapNode[] roots;
+        final HeapItem[] items;
+        final int[] keys;
+        final String[] infos;
+        final int from;
+        final int to;
+        final int tableSize;
+        final int leafSize;
+        int links = 0;
+
+        LinkTask(HeapNode[] roots, HeapItem[] items, int[] keys, String[] infos,
+                int from, int to, int tableSize, int leafSize) {
+            this.roots = roots;
+            this.items = items;
+            this.keys = keys;
+            this.infos = infos;
+            this.from = from;
+            this.to = to;
+            this.tableSize = tableSize;
+            this.leafSize = leafSize;
+        }
+
+        protected HeapNode[] compute() {
+            if (to - from <= leafSize) {
+                HeapNode[] table = new HeapNode[tableSize];
+                for (int i = from; i < to; i++) {
+                    HeapNode node;
+                    if (keys != null) {
+                        items[i] = new HeapItem(keys[i], infos == null ? null : infos[i]);
+                        node = items[i].node;
+                    } else {
+                        node = roots[i];
+                        node.next = node;
+                        node.prev = node;
+                    }
+                    add(table, node);
+                }
+                return table;
+            }
+            int mid = (from + to) >>> 1;
+            LinkTask left = new LinkTask(roots, items, keys, infos, from, mid, tableSize, leafSize);
+            LinkTask right = new LinkTask(roots, items, keys, infos, mid, to, tableSize, leafSize);
+            left.fork();
+            HeapNode[] table = right.compute();
+            HeapNode[] other = left.join();
+            links += left.links + right.links;
+            for (HeapNode tree : other) {
+                if (tree != null) {
+                    add(table, tree);
+                }
+            }
+            return table;
+        }
+
+        private void add(HeapNode[] table, HeapNode x) {
+            int d = x.rank;
+            while (table[d] != null) {
+                HeapNode y = table[d];
+                if (x.item.key > y.item.key) {
+                    HeapNode temp = x;
+                    x = y;
+                    y = temp;
+                }
+                linkNodes(y, x);
+                links++;
+                table[d] = null;
+                d++;
+            }
+            table[d] = x;
+        }
+    }
+
     /**
      * Class implementing a node in a Heap.
      *  
@@ -499,6 +1651,8 @@ public class Heap
         public HeapNode prev;
         public HeapNode parent;
         public boolean marked;
+        // the item at this node was deleted lazily
+        public boolean tombstone;
         public int rank;
 
         public HeapNode(HeapItem item) {
@@ -525,6 +1679,9 @@ public class Heap
             HeapItem tempInfo = this.item;
             this.item = other.item;
             other.item = tempInfo;
+            boolean tempTombstone = this.tombstone;
+            this.tombstone = other.tombstone;
+            other.tombstone = tempTombstone;
 
             this.item.node = this;
             other.item.node = other;
@@ -571,11 +1728,19 @@ public class Heap
      * Class implementing an item in a Heap.
      *  
      */
-    public static class HeapItem{
+    public static class HeapItem implements Handle{
         public HeapNode node;
         public int key;
         public String info;
 
+        public int key() {
+            return key;
+        }
+
+        public String info() {
+            return info;
+        }
+
         public HeapItem(HeapNode node, int key, String info) {
             this.node = node;
             this.key = key;
@@ -595,6 +1760,9 @@ public class Heap
             HeapNode tempInfo = this.node;
             this.node = other.node;
             other.node = tempInfo;
+            boolean tempTombstone = this.node.tombstone;
+            this.node.tombstone = other.node.tombstone;
+            other.node.tombstone = tempTombstone;
 
             this.node.item = this;
             other.node.item = other;
@@ -602,4 +1770,18 @@ public class Heap
         }
 
     }
+
+    /**
+     * Class implementing a HeapItem together with the caller's id, see
+     * insertWithId.
+     *
+     */
+    public static class IndexedItem extends HeapItem{
+        public final long id;
+
+        public IndexedItem(long id, int key, String info) {
+            super(key, info);
+            this.id = id;
+        }
+    }
 }
@@ -0,0 +1,929 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * HeapBenchmark
+ *
+ * Micro benchmarks for insert, deleteMin, decreaseKey, delete and meld
+ * over the four Heap(lazyMelds, lazyDecreaseKeys) configurations,
+ * with java.util.PriorityQueue as a baseline.
+ *
+ * Unlike HeapTester, nothing is validated or logged inside the timed
+ * region: every measurement builds its heap first, then times a batch of
+ * operations only. Besides ns/op it reports the links, cuts and heapify
+ * costs spent per operation.
+ *
+ * Usage: java HeapBenchmark [maxSize] [iterations]
+ * Sizes run from 1e3 up to maxSize (default 1e7) in powers of ten.
+ *
+ * java HeapBenchmark alloc [size] measures bytes allocated per
+ * insert/decreaseKey/deleteMin cycle instead, with and without pooling.
+ *
+ * java HeapBenchmark concurrent [maxThreads] compares a lock-guarded Heap
+ * with MultiQueue (relaxed and strict) on a mixed insert/deleteMin load.
+ *
+ * java HeapBenchmark engines [size] runs an insert/decreaseKey/deleteMin
+ * workload on every HeapFactory engine through AddressableHeap.
+ *
+ * java HeapBenchmark cancel [size] inserts size timers, cancels half of
+ * them and expires the rest, with eager deletes and with lazy deletes at
+ * a few purge fractions.
+ *
+ * java HeapBenchmark parallel [size] times the first deleteMin after a
+ * lazy bulk load (consolidation of size singleton roots) and
+ * insertAllParallel, sequentially and on pools of 1, 2, 4, ... threads up
+ * to the number of processors.
+ *
+ * java HeapBenchmark metrics [size] times insert/decreaseKey/deleteMin
+ * cycles with metrics off and on, and prints the metrics snapshot.
+ *
+ * java HeapBenchmark ids [size] runs decreaseKey/deleteMin/insert cycles
+ * addressed by long ids, through the built-in id index and through a
+ * caller-side HashMap<Long, HeapItem> plus an IdentityHashMap back to ids.
+ *
+ * java HeapBenchmark scheduler [rate] [seconds] schedules rate tasks per
+ * second (default 1e6) with 1-100ms delays on a TimerScheduler for the
+ * given seconds (default 5), cancelling every tenth, and reports the
+ * sustained rate and the wake-up lateness, with tasks run on the ticker
+ * thread and on the default executor.
+ *
+ * java HeapBenchmark publisher [size] drains size items through a
+ * StagedHeap.pollMin loop and through a HeapPublisher subscriber at a
+ * few batch sizes.
+ *
+ * java HeapBenchmark external [size] [memory] inserts size random keys
+ * into an ExternalHeap that keeps at most memory items in memory
+ * (default 10^7 and 10^6) and deletes them all, reporting the time and
+ * the disk traffic of each phase.
+ *
+ * java HeapBenchmark graph [file [directed | undirected] | side] runs
+ * Dijkstra and Prim in every Heap mode, and Dijkstra on RadixHeap, on a
+ * graph file (see CsrGraph.load) or on a random side x side grid graph
+ * (default 1000). Dijkstra runs on the file's edges as directed arcs by
+ * default, since DIMACS files list both directions already; Prim always
+ * runs on the file loaded as undirected.
+ *
+ */
+public class HeapBenchmark {
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int BATCH = 100000;
+    // PriorityQueue.remove(Object) is linear, so the baseline does fewer of those
+    private static final int PQ_REMOVE_BATCH = 1000;
+    private static final int MELD_HEAP_SIZE = 16;
+
+    private static final String[] OPS = {"insert", "deleteMin", "decreaseKey", "delete", "meld"};
+
+    // keeps results reachable so the JIT cannot drop the timed work
+    public static long sink;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("alloc")) {
+            int n = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+            runAllocation(n);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("engines")) {
+            runEngines(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("cancel")) {
+            runCancel(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("parallel")) {
+            runParallel(args.length > 1 ? Integer.parseInt(args[1]) : 4000000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("metrics")) {
+            runMetrics(args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("ids")) {
+            runIds(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("scheduler")) {
+            runScheduler(args.length > 1 ? Integer.parseInt(args[1]) : 1000000,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 5);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("publisher")) {
+            runPublisher(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("external")) {
+            runExternal(args.length > 1 ? Integer.parseInt(args[1]) : 10000000,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 1000000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("graph")) {
+            if (args.length > 1 && !args[1].matches("\\d+")) {
+                boolean undirected = args.length > 2 && args[2].equals("undirected");
+                if (args.length > 2 && !undirected && !args[2].equals("directed")) {
+                    throw new IllegalArgumentException("expected directed or undirected, got " + args[2]);
+                }
+                CsrGraph mstGraph = CsrGraph.load(Paths.get(args[1]), true);
+                runGraph(undirected ? mstGraph : CsrGraph.load(Paths.get(args[1]), false), mstGraph);
+            } else {
+                CsrGraph graph = gridGraph(args.length > 1 ? Integer.parseInt(args[1]) : 1000, new Random(1));
+                runGraph(graph, graph);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("concurrent")) {
+            int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+            runConcurrent(maxThreads);
+            return;
+        }
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.printf("%-10s %-12s %-12s %12s %10s %10s %10s%n",
+                "size", "config", "op", "ns/op", "links/op", "cuts/op", "heapify/op");
+        for (int n = 1000; n <= maxSize; n *= 10) {
+            for (int mode = 0; mode < 4; mode++) {
+                boolean lazyMelds = (mode & 1) != 0;
+                boolean lazyDecreaseKeys = (mode & 2) != 0;
+                for (String op : OPS) {
+                    runHeap(n, lazyMelds, lazyDecreaseKeys, op, iterations);
+                }
+            }
+            for (String op : OPS) {
+                runPriorityQueue(n, op, iterations);
+            }
+        }
+    }
+
+    private static String configName(boolean lazyMelds, boolean lazyDecreaseKeys) {
+        return (lazyMelds ? "LM" : "EM") + "/" + (lazyDecreaseKeys ? "LDK" : "HDK");
+    }
+
+    private static void runHeap(int n, boolean lazyMelds, boolean lazyDecreaseKeys, String op, int iterations) {
+        long totalNanos = 0;
+        long totalOps = 0;
+        long totalLinks = 0;
+        long totalCuts = 0;
+        long totalHeapify = 0;
+
+        for (int it = 0; it < WARMUP_ITERATIONS + iterations; it++) {
+            Random rand = new Random(it);
+            Heap heap = new Heap(lazyMelds, lazyDecreaseKeys);
+            Heap.HeapItem[] items = new Heap.HeapItem[n];
+            for (int i = 0; i < n; i++) {
+                items[i] = heap.insert(rand.nextInt(Integer.MAX_VALUE / 2) + 1, null);
+            }
+            // consolidate once so every configuration starts from a linked forest
+            Heap.HeapItem first = heap.findMin();
+            heap.deleteMin();
+            items[indexOf(items, first)] = items[n - 1];
+
+            int ops = Math.min(BATCH, n / 2);
+            int[] targets = distinctIndexes(rand, n - 1, ops);
+            Heap[] others = null;
+            if (op.equals("meld")) {
+                others = new Heap[ops];
+                for (int i = 0; i < ops; i++) {
+                    others[i] = new Heap(lazyMelds, lazyDecreaseKeys);
+                    for (int j = 0; j < MELD_HEAP_SIZE; j++) {
+                        others[i].insert(rand.nextInt(Integer.MAX_VALUE / 2) + 1, null);
+                    }
+                }
+            }
+            int[] keys = new int[ops];
+            for (int i = 0; i < ops; i++) {
+                keys[i] = rand.nextInt(Integer.MAX_VALUE / 2) + 1;
+            }
+
+            int links = heap.totalLinks();
+            int cuts = heap.totalCuts();
+            int heapify = heap.totalHeapifyCosts();
+            long start = System.nanoTime();
+            switch (op) {
+                case "insert":
+                    for (int i = 0; i < ops; i++) {
+                        sink += heap.insert(keys[i], null).key;
+                    }
+                    break;
+                case "deleteMin":
+                    for (int i = 0; i < ops; i++) {
+                        heap.deleteMin();
+                    }
+                    break;
+                case "decreaseKey":
+                    for (int i = 0; i < ops; i++) {
+                        Heap.HeapItem x = items[targets[i]];
+                        heap.decreaseKey(x, x.key / 2);
+                    }
+                    break;
+                case "delete":
+                    for (int i = 0; i < ops; i++) {
+                        heap.delete(items[targets[i]]);
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < ops; i++) {
+                        heap.meld(others[i]);
+                    }
+                    break;
+            }
+            long elapsed = System.nanoTime() - start;
+            sink += heap.size();
+
+            if (it >= WARMUP_ITERATIONS) {
+                totalNanos += elapsed;
+                totalOps += ops;
+                totalLinks += heap.totalLinks() - links;
+                totalCuts += heap.totalCuts() - cuts;
+                totalHeapify += heap.totalHeapifyCosts() - heapify;
+            }
+        }
+        report(n, configName(lazyMelds, lazyDecreaseKeys), op, totalNanos, totalOps,
+                totalLinks, totalCuts, totalHeapify);
+    }
+
+    private static void runPriorityQueue(int n, String op, int iterations) {
+        long totalNanos = 0;
+        long totalOps = 0;
+
+        for (int it = 0; it < WARMUP_ITERATIONS + iterations; it++) {
+            Random rand = new Random(it);
+            PriorityQueue<Entry> queue = new PriorityQueue<>();
+            Entry[] entries = new Entry[n];
+            for (int i = 0; i < n; i++) {
+                entries[i] = new Entry(rand.nextInt(Integer.MAX_VALUE / 2) + 1);
+                queue.add(entries[i]);
+            }
+
+            boolean removing = op.equals("decreaseKey") || op.equals("delete");
+            int ops = Math.min(removing ? PQ_REMOVE_BATCH : BATCH, n / 2);
+            int[] targets = distinctIndexes(rand, n, ops);
+            List<List<Entry>> others = new ArrayList<>();
+            if (op.equals("meld")) {
+                for (int i = 0; i < ops; i++) {
+                    List<Entry> other = new ArrayList<>();
+                    for (int j = 0; j < MELD_HEAP_SIZE; j++) {
+                        other.add(new Entry(rand.nextInt(Integer.MAX_VALUE / 2) + 1));
+                    }
+                    others.add(other);
+                }
+            }
+            int[] keys = new int[ops];
+            for (int i = 0; i < ops; i++) {
+                keys[i] = rand.nextInt(Integer.MAX_VALUE / 2) + 1;
+            }
+
+            long start = System.nanoTime();
+            switch (op) {
+                case "insert":
+                    for (int i = 0; i < ops; i++) {
+                        queue.add(new Entry(keys[i]));
+                    }
+                    break;
+                case "deleteMin":
+                    for (int i = 0; i < ops; i++) {
+                        sink += queue.poll().key;
+                    }
+                    break;
+                case "decreaseKey":
+                    for (int i = 0; i < ops; i++) {
+                        Entry x = entries[targets[i]];
+                        queue.remove(x);
+                        x.key /= 2;
+                        queue.add(x);
+                    }
+                    break;
+                case "delete":
+                    for (int i = 0; i < ops; i++) {
+                        queue.remove(entries[targets[i]]);
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < ops; i++) {
+                        queue.addAll(others.get(i));
+                    }
+                    break;
+            }
+            long elapsed = System.nanoTime() - start;
+            sink += queue.size();
+
+            if (it >= WARMUP_ITERATIONS) {
+                totalNanos += elapsed;
+                totalOps += ops;
+            }
+        }
+        report(n, "PriorityQ", op, totalNanos, totalOps, 0, 0, 0);
+    }
+
+    /**
+     * Allocation rate of steady-state insert/decreaseKey/deleteMin cycles
+     * on a heap that keeps n items, with pooling off and on.
+     */
+    private static void runAllocation(int n) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int cycles = 1000000;
+        System.out.printf("%-10s %-12s %-8s %12s%n", "size", "config", "pooled", "bytes/op");
+        for (int mode = 0; mode < 4; mode++) {
+            boolean lazyMelds = (mode & 1) != 0;
+            boolean lazyDecreaseKeys = (mode & 2) != 0;
+            for (int pooled = 0; pooled < 2; pooled++) {
+                Heap heap = pooled == 1
+                        ? new Heap(lazyMelds, lazyDecreaseKeys, 1024)
+                        : new Heap(lazyMelds, lazyDecreaseKeys);
+                Random rand = new Random(mode);
+                int[] keys = new int[cycles];
+                for (int i = 0; i < cycles; i++) {
+                    keys[i] = rand.nextInt(Integer.MAX_VALUE / 2) + 2;
+                }
+                for (int i = 0; i < n; i++) {
+                    heap.insert(keys[i % cycles], null);
+                }
+                // warm up, then measure the same cycle
+                runCycles(heap, keys, cycles);
+                long before = threads.getCurrentThreadAllocatedBytes();
+                runCycles(heap, keys, cycles);
+                long bytes = threads.getCurrentThreadAllocatedBytes() - before;
+                System.out.printf("%-10d %-12s %-8s %12.2f%n", n,
+                        configName(lazyMelds, lazyDecreaseKeys), pooled == 1, (double) bytes / cycles);
+            }
+        }
+    }
+
+    private static void runCycles(Heap heap, int[] keys, int cycles) {
+        for (int i = 0; i < cycles; i++) {
+            Heap.HeapItem x = heap.insert(keys[i], null);
+            heap.decreaseKey(x, x.key / 2);
+            heap.deleteMin();
+        }
+        sink += heap.size();
+    }
+
+    /**
+     * Items per second out of a preloaded heap: a consumer polling a
+     * StagedHeap with findMin/deleteMin, and a subscriber of a
+     * HeapPublisher that requests batchSize items at a time.
+     */
+    private static void runPublisher(int n) {
+        Random rand = new Random(24);
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = rand.nextInt(Integer.MAX_VALUE / 2) + 1;
+        }
+        System.out.printf("%-16s %14s%n", "consumer", "items/s");
+        for (int it = 0; it < WARMUP_ITERATIONS + 1; it++) {
+            StagedHeap polled = new StagedHeap(true, true);
+            for (int key : keys) {
+                polled.insert(key, null);
+            }
+            long start = System.nanoTime();
+            while (true) {
+                Heap.HeapItem min = polled.pollMin();
+                if (min == null) {
+                    break;
+                }
+                sink += min.key;
+            }
+            long elapsed = System.nanoTime() - start;
+            if (it == WARMUP_ITERATIONS) {
+                System.out.printf("%-16s %14.0f%n", "poll loop", n * 1e9 / elapsed);
+            }
+        }
+        for (int batch : new int[] {1, 16, 256}) {
+            for (int it = 0; it < WARMUP_ITERATIONS + 1; it++) {
+                HeapPublisher publisher = new HeapPublisher(true, true, batch);
+                for (int key : keys) {
+                    publisher.insert(key, null);
+                }
+                publisher.close();
+                long[] received = new long[1];
+                long start = System.nanoTime();
+                publisher.subscribe(new java.util.concurrent.Flow.Subscriber<Heap.HeapItem>() {
+                    java.util.concurrent.Flow.Subscription subscription;
+                    int left;
+
+                    public void onSubscribe(java.util.concurrent.Flow.Subscription s) {
+                        subscription = s;
+                        left = batch;
+                        s.request(batch);
+                    }
+
+                    public void onNext(Heap.HeapItem item) {
+                        sink += item.key;
+                        received[0]++;
+                        if (--left == 0) {
+                            left = batch;
+                            subscription.request(batch);
+                        }
+                    }
+
+                    public void onError(Throwable t) {
+                    }
+
+                    public void onComplete() {
+                    }
+                });
+                long elapsed = System.nanoTime() - start;
+                if (it == WARMUP_ITERATIONS) {
+                    System.out.printf("%-16s %14.0f%n", "publisher/" + batch, received[0] * 1e9 / elapsed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills an ExternalHeap with random keys, then empties it in order,
+     * with the run files in a fresh temporary directory.
+     */
+    private static void runExternal(int n, int memory) throws IOException {
+        Path dir = Files.createTempDirectory("heap-runs");
+        Random rand = new Random(25);
+        try (ExternalHeap heap = new ExternalHeap(dir, memory)) {
+            System.out.printf("%-10s %10s %8s %12s %12s %6s %6s%n",
+                    "phase", "ms", "ns/op", "MB written", "MB read", "runs", "merges");
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                heap.insert(rand.nextInt(Integer.MAX_VALUE - 1) + 1, null);
+            }
+            printExternal("insert", heap, n, System.nanoTime() - start, 0, 0);
+            long written = heap.bytesWritten;
+            long read = heap.bytesRead;
+            start = System.nanoTime();
+            int last = 0;
+            for (int i = 0; i < n; i++) {
+                int key = heap.deleteMin().key;
+                if (key < last) {
+                    throw new IllegalStateException("deleteMin out of order: " + key + " after " + last);
+                }
+                last = key;
+            }
+            printExternal("deleteMin", heap, n, System.nanoTime() - start, written, read);
+        }
+        Files.delete(dir);
+    }
+
+    private static void printExternal(String phase, ExternalHeap heap, int n, long elapsed, long written, long read) {
+        System.out.printf("%-10s %10d %8.0f %12.1f %12.1f %6d %6d%n", phase, elapsed / 1000000, (double) elapsed / n,
+                (heap.bytesWritten - written) / 1e6, (heap.bytesRead - read) / 1e6, heap.runsWritten, heap.merges);
+    }
+
+    /**
+     * Sustained scheduling: one producer paces schedule calls to rate per
+     * second; every tenth call also cancels a task scheduled 512 calls
+     * earlier. The tasks themselves only count.
+     */
+    private static void runScheduler(int rate, int seconds) {
+        System.out.printf("%-10s %12s %12s %10s %10s %10s %10s %10s%n", "executor", "target/s", "achieved/s",
+                "ran", "cancelled", "p50 us", "p99 us", "max us");
+        for (int inline = 1; inline >= 0; inline--) {
+            java.util.concurrent.atomic.LongAdder ran = new java.util.concurrent.atomic.LongAdder();
+            Runnable action = ran::increment;
+            TimerScheduler scheduler = new TimerScheduler(TimerScheduler.DEFAULT_TICK_NANOS,
+                    inline == 1 ? Runnable::run : null);
+            TimerScheduler.Task[] recent = new TimerScheduler.Task[1024];
+            long total = (long) rate * seconds;
+            long start = System.nanoTime();
+            for (long i = 0; i < total; i++) {
+                if ((i & 1023) == 0) {
+                    long due = start + (long) (i * 1e9 / rate);
+                    while (System.nanoTime() < due) {
+                        Thread.onSpinWait();
+                    }
+                }
+                recent[(int) i & 1023] = scheduler.schedule(action, 1 + i % 100, java.util.concurrent.TimeUnit.MILLISECONDS);
+                if (i % 10 == 0 && i >= 512) {
+                    scheduler.cancel(recent[(int) (i - 512) & 1023]);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            long wait = System.nanoTime() + 2000000000L;
+            while (scheduler.pending() > 0 && System.nanoTime() < wait) {
+                Thread.onSpinWait();
+            }
+            scheduler.close();
+            System.out.printf("%-10s %12d %12.0f %10d %10d %10.0f %10.0f %10.0f%n", inline == 1 ? "ticker" : "default",
+                    rate, total * 1e9 / elapsed, scheduler.firedCount(), scheduler.cancelledCount(),
+                    scheduler.latenessPercentile(0.5) / 1e3, scheduler.latenessPercentile(0.99) / 1e3,
+                    scheduler.latenessPercentile(1.0) / 1e3);
+            sink += ran.sum();
+        }
+    }
+
+    /**
+     * Id-addressed cycles (decreaseKey of a random live id, deleteMin
+     * returning the min's id, insert of a new id) over a heap of n items,
+     * with the id index and with caller-side maps.
+     */
+    private static void runIds(int n) {
+        int cycles = 1000000;
+        Random rand = new Random(22);
+        int[] keys = new int[n + cycles];
+        int[] picks = new int[cycles];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = rand.nextInt(Integer.MAX_VALUE / 2) + 2;
+        }
+        System.out.printf("%-12s %-10s %12s%n", "config", "index", "ns/cycle");
+        for (int mode = 0; mode < 4; mode++) {
+            boolean lazyMelds = (mode & 1) != 0;
+            boolean lazyDecreaseKeys = (mode & 2) != 0;
+            for (int builtIn = 1; builtIn >= 0; builtIn--) {
+                long nanos = 0;
+                for (int it = 0; it < WARMUP_ITERATIONS + 1; it++) {
+                    Heap heap = new Heap(lazyMelds, lazyDecreaseKeys);
+                    HashMap<Long, Heap.HeapItem> byId = new HashMap<>();
+                    IdentityHashMap<Heap.HeapItem, Long> ids = new IdentityHashMap<>();
+                    long[] live = new long[n];
+                    for (int i = 0; i < n; i++) {
+                        long id = i * 7919L;
+                        live[i] = id;
+                        if (builtIn == 1) {
+                            heap.insertWithId(id, keys[i], null);
+                        } else {
+                            Heap.HeapItem item = heap.insert(keys[i], null);
+                            byId.put(id, item);
+                            ids.put(item, id);
+                        }
+                    }
+                    for (int c = 0; c < cycles; c++) {
+                        picks[c] = rand.nextInt(n);
+                    }
+                    long start = System.nanoTime();
+                    for (int c = 0; c < cycles; c++) {
+                        int slot = picks[c];
+                        long id = live[slot];
+                        long newId = (long) (n + c) * 7919L;
+                        if (builtIn == 1) {
+                            Heap.IndexedItem item = heap.getById(id);
+                            if (item != null) {
+                                heap.decreaseKeyById(id, item.key / 2);
+                            }
+                            sink += heap.deleteMinId();
+                            heap.insertWithId(newId, keys[n + c], null);
+                        } else {
+                            Heap.HeapItem item = byId.get(id);
+                            if (item != null) {
+                                heap.decreaseKey(item, item.key / 2);
+                            }
+                            Heap.HeapItem min = heap.findMin();
+                            long minId = ids.remove(min);
+                            byId.remove(minId);
+                            sink += minId;
+                            heap.deleteMin();
+                            Heap.HeapItem fresh = heap.insert(keys[n + c], null);
+                            byId.put(newId, fresh);
+                            ids.put(fresh, newId);
+                        }
+                        live[slot] = newId;
+                    }
+                    nanos = System.nanoTime() - start;
+                }
+                System.out.printf("%-12s %-10s %12.1f%n", configName(lazyMelds, lazyDecreaseKeys),
+                        builtIn == 1 ? "built-in" : "HashMap", (double) nanos / cycles);
+            }
+        }
+    }
+
+    /**
+     * Cost of HeapMetrics: the same cycles with metrics off and on, in every
+     * mode, then the snapshot of the last run.
+     */
+    private static void runMetrics(int n) {
+        int cycles = 1000000;
+        System.out.printf("%-12s %14s %14s%n", "config", "off ns/cycle", "on ns/cycle");
+        Heap heap = null;
+        for (int mode = 0; mode < 4; mode++) {
+            boolean lazyMelds = (mode & 1) != 0;
+            boolean lazyDecreaseKeys = (mode & 2) != 0;
+            Random rand = new Random(mode);
+            int[] keys = new int[cycles];
+            for (int i = 0; i < cycles; i++) {
+                keys[i] = rand.nextInt(Integer.MAX_VALUE / 2) + 2;
+            }
+            long[] nanos = new long[2];
+            for (int on = 0; on < 2; on++) {
+                heap = new Heap(lazyMelds, lazyDecreaseKeys);
+                if (on == 1) {
+                    heap.enableMetrics();
+                }
+                for (int i = 0; i < n; i++) {
+                    heap.insert(keys[i % cycles], null);
+                }
+                for (int it = 0; it < WARMUP_ITERATIONS + 1; it++) {
+                    long start = System.nanoTime();
+                    runCycles(heap, keys, cycles);
+                    nanos[on] = System.nanoTime() - start;
+                }
+            }
+            System.out.printf("%-12s %14.1f %14.1f%n", configName(lazyMelds, lazyDecreaseKeys),
+                    (double) nanos[0] / cycles, (double) nanos[1] / cycles);
+        }
+        System.out.println(heap.metrics().snapshot());
+    }
+
+    /**
+     * Throughput of a 50/50 insert/deleteMin mix from 1 to maxThreads
+     * threads, against one Heap behind a global lock and against MultiQueue.
+     */
+    private static void runConcurrent(int maxThreads) {
+        int prefill = 100000;
+        int opsPerThread = 1000000;
+        System.out.printf("%-8s %-14s %14s%n", "threads", "queue", "Mops/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (int kind = 0; kind < 3; kind++) {
+                Object lock = new Object();
+                Heap global = new Heap(true, true);
+                MultiQueue queue = new MultiQueue(Math.max(2, threads * 4), true, true, kind == 2);
+                Random rand = new Random(threads);
+                for (int i = 0; i < prefill; i++) {
+                    int key = rand.nextInt(Integer.MAX_VALUE / 2) + 1;
+                    if (kind == 0) {
+                        global.insert(key, null);
+                    } else {
+                        queue.insert(key, null);
+                    }
+                }
+                final int k = kind;
+                Thread[] workers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    final long seed = t;
+                    workers[t] = new Thread(() -> {
+                        Random r = new Random(seed);
+                        long local = 0;
+                        for (int i = 0; i < opsPerThread; i++) {
+                            int key = r.nextInt(Integer.MAX_VALUE / 2) + 1;
+                            boolean insert = (i & 1) == 0;
+                            if (k == 0) {
+                                synchronized (lock) {
+                                    if (insert) {
+                                        global.insert(key, null);
+                                    } else if (global.size() > 0) {
+                                        local += global.findMin().key;
+                                        global.deleteMin();
+                                    }
+                                }
+                            } else if (insert) {
+                                queue.insert(key, null);
+                            } else {
+                                MultiQueue.Item item = queue.deleteMin();
+                                if (item != null) {
+                                    local += item.key();
+                                }
+                            }
+                        }
+                        synchronized (HeapBenchmark.class) {
+                            sink += local;
+                        }
+                    });
+                }
+                long start = System.nanoTime();
+                for (Thread worker : workers) {
+                    worker.start();
+                }
+                for (Thread worker : workers) {
+                    try {
+                        worker.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                String name = kind == 0 ? "locked Heap" : kind == 1 ? "MultiQueue" : "MultiQ strict";
+                System.out.printf("%-8d %-14s %14.2f%n", threads, name,
+                        (double) threads * opsPerThread / elapsed * 1000);
+            }
+        }
+    }
+
+    /**
+     * Inserts n random keys, decreases n/4 of them and drains the heap, on
+     * every engine HeapFactory knows.
+     */
+    private static void runEngines(int n) {
+        System.out.printf("%-12s %12s %10s %10s %10s%n", "engine", "ms", "links", "cuts", "heapify");
+        for (String name : HeapFactory.NAMES) {
+            long elapsed = 0;
+            AddressableHeap heap = null;
+            for (int it = 0; it < WARMUP_ITERATIONS + 1; it++) {
+                Random rand = new Random(it);
+                heap = HeapFactory.create(name);
+                AddressableHeap.Handle[] handles = new AddressableHeap.Handle[n];
+                long start = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    handles[i] = heap.insert(rand.nextInt(Integer.MAX_VALUE / 2) + 1, null);
+                }
+                AddressableHeap.Handle first = heap.findMin();
+                heap.deleteMin();
+                for (int i = 0; i < n / 4; i++) {
+                    AddressableHeap.Handle x = handles[rand.nextInt(n)];
+                    if (x != first && x.key() > 1) {
+                        heap.decreaseKey(x, x.key() / 2);
+                    }
+                }
+                while (heap.size() > 0) {
+                    sink += heap.findMin().key();
+                    heap.deleteMin();
+                }
+                elapsed = System.nanoTime() - start;
+            }
+            System.out.printf("%-12s %12.1f %10d %10d %10d%n", name, elapsed / 1e6,
+                    heap.totalLinks(), heap.totalCuts(), heap.totalHeapifyCosts());
+        }
+    }
+
+    /**
+     * Timer cancellation: n inserts, n/2 deletes of random items, then
+     * deleteMin until empty, for every mode with eager deletes (fraction 0)
+     * and with lazy deletes. The cancel phase and the expire phase are
+     * timed separately, since lazy deletes move work into the latter.
+     */
+    private static void runCancel(int n) {
+        double[] fractions = {0, 0.25, 1, 4};
+        System.out.printf("%-10s %-10s %12s %12s %10s %10s%n",
+                "config", "fraction", "cancel ms", "expire ms", "links", "cuts");
+        for (int mode = 0; mode < 4; mode++) {
+            boolean lazyMelds = (mode & 1) != 0;
+            boolean lazyDecreaseKeys = (mode & 2) != 0;
+            for (double fraction : fractions) {
+                long cancel = 0;
+                long expire = 0;
+                Heap heap = null;
+                for (int it = 0; it < WARMUP_ITERATIONS + 1; it++) {
+                    Random rand = new Random(it);
+                    heap = new Heap(lazyMelds, lazyDecreaseKeys);
+                    heap.setLazyDeletes(fraction);
+                    Heap.HeapItem[] items = new Heap.HeapItem[n];
+                    for (int i = 0; i < n; i++) {
+                        items[i] = heap.insert(rand.nextInt(Integer.MAX_VALUE / 2) + 1, null);
+                    }
+                    Heap.HeapItem first = heap.findMin();
+                    heap.deleteMin();
+                    for (int i = n - 1; i > 0; i--) {
+                        int j = rand.nextInt(i + 1);
+                        Heap.HeapItem temp = items[i];
+                        items[i] = items[j];
+                        items[j] = temp;
+                    }
+                    long start = System.nanoTime();
+                    for (int i = 0, deleted = 0; deleted < n / 2; i++) {
+                        if (items[i] != first) {
+                            heap.delete(items[i]);
+                            deleted++;
+                        }
+                    }
+                    cancel = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    while (heap.size() > 0) {
+                        sink += heap.findMin().key;
+                        heap.deleteMin();
+                    }
+                    expire = System.nanoTime() - start;
+                }
+                System.out.printf("%-10s %-10s %12.1f %12.1f %10d %10d%n", configName(lazyMelds, lazyDecreaseKeys),
+                        fraction == 0 ? "eager" : String.valueOf(fraction), cancel / 1e6, expire / 1e6,
+                        heap.totalLinks(), heap.totalCuts());
+            }
+        }
+    }
+
+    /**
+     * Sequential vs parallel consolidation of n singleton roots, and
+     * insertAll + first deleteMin vs insertAllParallel + first deleteMin.
+     */
+    private static void runParallel(int n) {
+        Random rand = new Random(1);
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = rand.nextInt(Integer.MAX_VALUE / 2) + 1;
+        }
+        System.out.printf("%-10s %16s %16s%n", "threads", "consolidate ms", "build ms");
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 0; threads <= processors; threads = threads == 0 ? 1 : threads * 2) {
+            ForkJoinPool pool = threads == 0 ? null : new ForkJoinPool(threads);
+            long consolidate = 0;
+            long build = 0;
+            for (int it = 0; it < WARMUP_ITERATIONS + 1; it++) {
+                Heap heap = new Heap(true, true);
+                heap.setParallelLinking(pool, 0);
+                heap.insertAll(keys, null);
+                long start = System.nanoTime();
+                heap.deleteMin();
+                consolidate = System.nanoTime() - start;
+
+                heap = new Heap(true, true);
+                heap.setParallelLinking(pool, 0);
+                start = System.nanoTime();
+                if (pool == null) {
+                    heap.insertAll(keys, null);
+                } else {
+                    heap.insertAllParallel(keys, null, pool);
+                }
+                heap.deleteMin();
+                build = System.nanoTime() - start;
+                sink += heap.totalLinks();
+            }
+            System.out.printf("%-10s %16.1f %16.1f%n", threads == 0 ? "sequential" : String.valueOf(threads),
+                    consolidate / 1e6, build / 1e6);
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Dijkstra from vertex 0 and Prim on the whole graph for all four modes,
+     * after one warmup run each.
+     */
+    // Dijkstra on graph, Prim on mstGraph, which must be undirected
+    private static void runGraph(CsrGraph graph, CsrGraph mstGraph) {
+        System.out.println("vertices=" + graph.numVertices + " edges=" + graph.numEdges()
+                + " undirected edges=" + mstGraph.numEdges());
+        for (int mode = 0; mode < 4; mode++) {
+            boolean lazyMelds = (mode & 1) != 0;
+            boolean lazyDecreaseKeys = (mode & 2) != 0;
+            GraphSearch.dijkstra(graph, 0, lazyMelds, lazyDecreaseKeys);
+            GraphSearch.Result d = GraphSearch.dijkstra(graph, 0, lazyMelds, lazyDecreaseKeys);
+            System.out.println(configName(lazyMelds, lazyDecreaseKeys) + " dijkstra " + d);
+            GraphSearch.prim(mstGraph, lazyMelds, lazyDecreaseKeys);
+            GraphSearch.Result p = GraphSearch.prim(mstGraph, lazyMelds, lazyDecreaseKeys);
+            System.out.println(configName(lazyMelds, lazyDecreaseKeys) + " prim     " + p);
+        }
+        GraphSearch.dijkstraRadix(graph, 0);
+        System.out.println("radix  dijkstra " + GraphSearch.dijkstraRadix(graph, 0));
+    }
+
+    /**
+     * Undirected side x side grid with random weights in [1, 100], a rough
+     * stand-in for a road network.
+     */
+    static CsrGraph gridGraph(int side, Random rand) {
+        int n = side * side;
+        int m = 2 * side * (side - 1);
+        int[] from = new int[m];
+        int[] to = new int[m];
+        int[] weight = new int[m];
+        int e = 0;
+        for (int r = 0; r < side; r++) {
+            for (int c = 0; c < side; c++) {
+                int v = r * side + c;
+                if (c + 1 < side) {
+                    from[e] = v;
+                    to[e] = v + 1;
+                    weight[e++] = rand.nextInt(100) + 1;
+                }
+                if (r + 1 < side) {
+                    from[e] = v;
+                    to[e] = v + side;
+                    weight[e++] = rand.nextInt(100) + 1;
+                }
+            }
+        }
+        return CsrGraph.fromEdges(n, from, to, weight, true);
+    }
+
+    private static void report(int n, String config, String op, long nanos, long ops,
+                               long links, long cuts, long heapify) {
+        System.out.printf("%-10d %-12s %-12s %12.1f %10.3f %10.3f %10.3f%n",
+                n, config, op, (double) nanos / ops,
+                (double) links / ops, (double) cuts / ops, (double) heapify / ops);
+    }
+
+    private static int indexOf(Heap.HeapItem[] items, Heap.HeapItem x) {
+        for (int i = 0; i < items.length; i++) {
+            if (items[i] == x) {
+                return i;
+            }
+        }
+        return items.length - 1;
+    }
+
+    private static int[] distinctIndexes(Random rand, int bound, int count) {
+        int[] perm = new int[bound];
+        for (int i = 0; i < bound; i++) {
+            perm[i] = i;
+        }
+        for (int i = 0; i < count; i++) {
+            int j = i + rand.nextInt(bound - i);
+            int t = perm[i];
+            perm[i] = perm[j];
+            perm[j] = t;
+        }
+        return Arrays.copyOf(perm, count);
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        int key;
+
+        Entry(int key) {
+            this.key = key;
+        }
+
+        public int compareTo(Entry other) {
+            return Integer.compare(key, other.key);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * HeapFactory
+ *
+ * Creates AddressableHeap engines by name, so callers and benchmarks can
+ * pick one from a flag:
+ *
+ *   fib-LM-LDK, fib-LM-HDK, fib-EM-LDK, fib-EM-HDK
+ *       Heap with lazy (LM) or eager (EM) melds and lazy (LDK) or
+ *       heapify (HDK) decrease keys; "fib" alone means fib-LM-LDK
+ *   pairing
+ *       PairingHeap
+ *   dary<d>, e.g. dary4
+ *       IndexedDaryHeap with arity d ("dary" alone means arity 4)
+ *   adaptive
+ *       AdaptiveHeap, a Heap that switches its mode with the workload
+ *   compact
+ *       CompactHeap with lazy melds and lazy decrease keys
+ *   radix
+ *       RadixHeap through RadixAddressableHeap, for monotone workloads
+ *       only: a key inserted or decreased below the last min returned
+ *       throws IllegalArgumentException. It is left out of NAMES, which
+ *       lists the engines that take any workload.
+ *
+ */
+public class HeapFactory
+{
+    public static final String[] NAMES = {
+        "fib-EM-HDK", "fib-LM-HDK", "fib-EM-LDK", "fib-LM-LDK", "pairing", "dary2", "dary4", "dary8",
+        "adaptive", "compact"
+    };
+
+    private HeapFactory()
+    {
+    }
+
+    /**
+     *
+     * Return a new empty heap for the given engine name.
+     * Throws IllegalArgumentException for unknown names.
+     *
+     */
+    public static AddressableHeap create(String name)
+    {
+        if (name.equals("fib")) {
+            return new Heap(true, true);
+        }
+        if (name.startsWith("fib-")) {
+            String[] parts = name.split("-");
+            if (parts.length == 3 && parts[1].matches("LM|EM") && parts[2].matches("LDK|HDK")) {
+                return new Heap(parts[1].equals("LM"), parts[2].equals("LDK"));
+            }
+        }
+        if (name.equals("pairing")) {
+            return new PairingHeap();
+        }
+        if (name.equals("compact")) {
+            return new CompactHeap(true, true);
+        }
+        if (name.equals("radix")) {
+            return new RadixAddressableHeap();
+        }
+        if (name.equals("adaptive")) {
+            return new AdaptiveHeap();
+        }
+        if (name.equals("dary")) {
+            return new IndexedDaryHeap(4);
+        }
+        if (name.matches("dary\\d+")) {
+            return new IndexedDaryHeap(Integer.parseInt(name.substring(4)));
+        }
+        throw new IllegalArgumentException("unknown heap engine: " + name);
+    }
+}
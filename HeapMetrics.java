@@ -0,0 +1,293 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * HeapMetrics
+ *
+ * Optional instrumentation of a Heap, turned on with
+ * Heap.enableMetrics(). While it is off the heap only pays a null check
+ * per public operation.
+ *
+ * It keeps long operation counts, long totals of links, cuts and heapify
+ * swaps (the int fields of Heap wrap around on long runs, these do not),
+ * log2-bucketed latency histograms for insert, deleteMin, decreaseKey,
+ * delete and meld, and distributions of the number of roots per
+ * consolidation and of the length of cascading-cut chains. Nested calls
+ * (insert melds, delete calls deleteMin) are recorded once, as the
+ * outer operation.
+ *
+ * It also emits two JFR events, heap.Consolidation for successiveLinking
+ * passes over at least eventMinRoots roots and heap.CascadingCuts for
+ * decreaseKeys whose cut chain is at least eventMinChain long. Like all
+ * JFR events they cost next to nothing when no recording enables them.
+ *
+ * Latencies are sampled: counts are exact, but only every sampleEvery-th
+ * operation is timed, since System.nanoTime alone costs 20-50ns on
+ * common VMs. Set sampleEvery to 1 to time every operation.
+ *
+ * The long totals follow the heap's counters through every method,
+ * including the ones without a histogram (deleteMin(k), insertAll, ...).
+ *
+ * Like Heap it is not thread safe: snapshot() is a consistent copy only
+ * when taken by the thread that uses the heap.
+ *
+ */
+public class HeapMetrics
+{
+    public static final int INSERT = 0;
+    public static final int DELETE_MIN = 1;
+    public static final int DECREASE_KEY = 2;
+    public static final int DELETE = 3;
+    public static final int MELD = 4;
+    public static final String[] OP_NAMES = {"insert", "deleteMin", "decreaseKey", "delete", "meld"};
+
+    // bucket i holds values v with 2^(i-1) <= v < 2^i, bucket 0 holds 0
+    public static final int BUCKETS = 64;
+
+    public int eventMinRoots = 1024;
+    public int eventMinChain = 8;
+    public int sampleEvery = 16;
+
+    private final long[] counts = new long[OP_NAMES.length];
+    private final long[][] latency = new long[OP_NAMES.length][BUCKETS];
+    private final long[] samples = new long[OP_NAMES.length];
+    private final long[] latencyTotal = new long[OP_NAMES.length];
+    private final long[] consolidationRoots = new long[BUCKETS];
+    private final long[] cascadeLengths = new long[BUCKETS];
+    private long consolidations = 0;
+    private long links = 0;
+    private long cuts = 0;
+    private long heapify = 0;
+
+    private final Heap heap;
+    // the heap's int counters when they were last added to the totals
+    private int linksSeen;
+    private int cutsSeen;
+    private int heapifySeen;
+    // nesting depth of public operations, and cuts when the outermost started
+    private int depth = 0;
+    private int cutsBefore;
+    // operations until the next timed one, and whether the current one is
+    private int untilSample = 1;
+    private boolean timing;
+
+    HeapMetrics(Heap heap)
+    {
+        this.heap = heap;
+        this.linksSeen = heap.links;
+        this.cutsSeen = heap.cuts;
+        this.heapifySeen = heap.heapify;
+    }
+
+    static int bucket(long value)
+    {
+        return value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    long begin()
+    {
+        if (depth++ > 0) {
+            return 0;
+        }
+        cutsBefore = heap.cuts;
+        timing = --untilSample <= 0;
+        if (!timing) {
+            return 0;
+        }
+        untilSample = sampleEvery;
+        return System.nanoTime();
+    }
+
+    void end(int op, long start)
+    {
+        if (--depth > 0) {
+            return;
+        }
+        counts[op]++;
+        if (timing) {
+            long nanos = System.nanoTime() - start;
+            samples[op]++;
+            latency[op][bucket(nanos)]++;
+            latencyTotal[op] += nanos;
+        }
+        sync();
+        int opCuts = heap.cuts - cutsBefore;
+        if (op == DECREASE_KEY && opCuts > 0) {
+            cascadeLengths[bucket(opCuts)]++;
+            if (opCuts >= eventMinChain) {
+                CascadingCutsEvent event = new CascadingCutsEvent();
+                if (event.shouldCommit()) {
+                    event.cuts = opCuts;
+                    event.markedNodes = heap.markedNodes;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    // adds what the heap's int counters grew by since the last sync to the
+    // long totals; int differences stay right when a counter wraps around,
+    // a negative one means a meld into the empty heap reset the counters
+    private void sync()
+    {
+        links += Math.max(0, heap.links - linksSeen);
+        cuts += Math.max(0, heap.cuts - cutsSeen);
+        heapify += Math.max(0, heap.heapify - heapifySeen);
+        linksSeen = heap.links;
+        cutsSeen = heap.cuts;
+        heapifySeen = heap.heapify;
+    }
+
+    ConsolidationEvent beginConsolidation(int roots)
+    {
+        if (roots < eventMinRoots) {
+            return null;
+        }
+        ConsolidationEvent event = new ConsolidationEvent();
+        event.begin();
+        return event;
+    }
+
+    void endConsolidation(ConsolidationEvent event, int roots, int linksDone, int trees)
+    {
+        consolidations++;
+        consolidationRoots[bucket(roots)]++;
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.roots = roots;
+                event.links = linksDone;
+                event.trees = trees;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     *
+     * Return a copy of all metrics.
+     *
+     */
+    public Snapshot snapshot()
+    {
+        sync();
+        Snapshot s = new Snapshot();
+        s.counts = counts.clone();
+        s.latency = new long[latency.length][];
+        for (int i = 0; i < latency.length; i++) {
+            s.latency[i] = latency[i].clone();
+        }
+        s.samples = samples.clone();
+        s.latencyTotal = latencyTotal.clone();
+        s.consolidationRoots = consolidationRoots.clone();
+        s.cascadeLengths = cascadeLengths.clone();
+        s.consolidations = consolidations;
+        s.links = links;
+        s.cuts = cuts;
+        s.heapify = heapify;
+        return s;
+    }
+
+    /**
+     * A copy of the metrics at one point in time. Histograms are indexed
+     * by log2 bucket, see BUCKETS; latency[op] holds samples[op] timed
+     * operations out of counts[op].
+     *
+     */
+    public static class Snapshot{
+        public long[] counts;
+        public long[][] latency;
+        public long[] samples;
+        public long[] latencyTotal;
+        public long[] consolidationRoots;
+        public long[] cascadeLengths;
+        public long consolidations;
+        public long links;
+        public long cuts;
+        public long heapify;
+
+        /**
+         * pre: 0 <= p <= 1
+         *
+         * Return an upper bound of the p-quantile of the latency of op in
+         * nanoseconds (the top of its bucket), 0 if op never ran.
+         *
+         */
+        public long latencyPercentile(int op, double p) {
+            return percentile(latency[op], samples[op], p);
+        }
+
+        public double meanLatency(int op) {
+            return samples[op] == 0 ? 0 : (double) latencyTotal[op] / samples[op];
+        }
+
+        /**
+         *
+         * Return an upper bound of the p-quantile of the number of roots a
+         * consolidation started with.
+         *
+         */
+        public long consolidationRootsPercentile(double p) {
+            return percentile(consolidationRoots, consolidations, p);
+        }
+
+        private static long percentile(long[] histogram, long total, double p) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * total));
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank) {
+                    return i == 0 ? 0 : (i == 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int op = 0; op < counts.length; op++) {
+                if (counts[op] > 0) {
+                    sb.append(String.format("%-12s n=%d mean=%.0fns p50<=%dns p99<=%dns%n", OP_NAMES[op],
+                            counts[op], meanLatency(op), latencyPercentile(op, 0.5), latencyPercentile(op, 0.99)));
+                }
+            }
+            sb.append(String.format("consolidations=%d roots p50<=%d p99<=%d links=%d cuts=%d heapify=%d",
+                    consolidations, consolidationRootsPercentile(0.5), consolidationRootsPercentile(0.99),
+                    links, cuts, heapify));
+            return sb.toString();
+        }
+    }
+
+    @Name("heap.Consolidation")
+    @Label("Heap Consolidation")
+    @Category("Heap")
+    @Description("A successiveLinking pass over a long root list")
+    static class ConsolidationEvent extends Event {
+        @Label("Roots")
+        int roots;
+
+        @Label("Links")
+        int links;
+
+        @Label("Trees After")
+        int trees;
+    }
+
+    @Name("heap.CascadingCuts")
+    @Label("Heap Cascading Cuts")
+    @Category("Heap")
+    @Description("A decreaseKey that cut a long chain of marked ancestors")
+    static class CascadingCutsEvent extends Event {
+        @Label("Cuts")
+        int cuts;
+
+        @Label("Marked Nodes After")
+        int markedNodes;
+    }
+}
@@ -0,0 +1,255 @@
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * HeapPublisher
+ *
+ * A Flow.Publisher that hands the items of a heap to its subscribers in
+ * key order as they request them. Every item goes to exactly one
+ * subscriber, so several subscribers share the work, each at its own
+ * pace.
+ *
+ * insert may be called from any thread and never waits for emission: it
+ * stages the item on the lock-free stack of a StagedHeap. Emission runs
+ * in a drain loop entered by whichever thread (inserter or requester)
+ * finds it idle; the loop moves staged items into the heap and serves
+ * each subscriber with outstanding demand a batch of up to batchSize
+ * items through Heap.drainTo, so a batch costs one consolidation instead
+ * of one per item. Batches go round-robin over the subscribers, and
+ * every batch is in key order.
+ *
+ * After close() no more items are accepted and subscribers complete once
+ * the heap is empty; an insert racing with close() may be left behind.
+ * Items of a batch whose subscriber cancels or fails during it are
+ * inserted again as new items. A subscriber whose onNext throws, or that
+ * requests a non-positive amount, gets onError and no more items; when
+ * onNext threw, the item it was handed is lost. Every signal to a
+ * subscriber, onError included, comes from the drain loop, so the
+ * signals to one subscriber never overlap. Exceptions thrown by onError
+ * or onComplete are dropped.
+ *
+ */
+public class HeapPublisher implements Flow.Publisher<Heap.HeapItem>
+{
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    public final int batchSize;
+
+    private final StagedHeap staged;
+    private final CopyOnWriteArrayList<HeapSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    // number of drain requests; the thread that raises it from 0 runs the loop
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean closed = false;
+    // next subscription to serve first, for round-robin batches; drain loop only
+    private int next = 0;
+
+    /**
+     *
+     * Constructor to initialize a publisher over an empty heap in the
+     * given mode that emits batches of at most DEFAULT_BATCH_SIZE items.
+     *
+     */
+    public HeapPublisher(boolean lazyMelds, boolean lazyDecreaseKeys)
+    {
+        this(lazyMelds, lazyDecreaseKeys, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * pre: batchSize > 0
+     *
+     * Constructor to initialize a publisher that emits batches of at most
+     * batchSize items.
+     *
+     */
+    public HeapPublisher(boolean lazyMelds, boolean lazyDecreaseKeys, int batchSize)
+    {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.staged = new StagedHeap(lazyMelds, lazyDecreaseKeys);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * pre: key > 0
+     *
+     * Insert (key,info) and return the new item. Safe to call from any
+     * thread. Throws IllegalStateException after close().
+     *
+     */
+    public Heap.HeapItem insert(int key, String info)
+    {
+        if (closed) {
+            throw new IllegalStateException("publisher is closed");
+        }
+        Heap.HeapItem item = staged.insert(key, info);
+        drain();
+        return item;
+    }
+
+    /**
+     *
+     * Accept no more items; subscribers complete when the heap runs empty.
+     *
+     */
+    public void close()
+    {
+        closed = true;
+        drain();
+    }
+
+    public void subscribe(Flow.Subscriber<? super Heap.HeapItem> subscriber)
+    {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        HeapSubscription subscription = new HeapSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        // listed only now, so no signal can overtake onSubscribe
+        subscriptions.add(subscription);
+        drain();
+    }
+
+    /**
+     *
+     * Return the number of current subscribers.
+     *
+     */
+    public int subscribers()
+    {
+        return subscriptions.size();
+    }
+
+    private void drain()
+    {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            signalErrors();
+            boolean emitted = true;
+            while (emitted) {
+                emitted = false;
+                int n = subscriptions.size();
+                for (int i = 0; i < n; i++) {
+                    HeapSubscription s;
+                    try {
+                        s = subscriptions.get((next + i) % n);
+                    } catch (IndexOutOfBoundsException e) {
+                        break; // a subscription went away, start over
+                    }
+                    long requested = s.requested.get();
+                    if (requested == 0 || s.stopped()) {
+                        continue;
+                    }
+                    // StagedHeap.size() moves the staged items into the heap
+                    if (staged.size() == 0) {
+                        break;
+                    }
+                    int count = staged.heap().drainTo(s, (int) Math.min(requested, batchSize));
+                    signalErrors();
+                    if (count > 0) {
+                        emitted = true;
+                        if (requested != Long.MAX_VALUE) {
+                            s.requested.addAndGet(-count);
+                        }
+                    }
+                    next = (next + i + 1) % n;
+                    break;
+                }
+            }
+            if (closed && staged.size() == 0) {
+                for (HeapSubscription s : subscriptions) {
+                    subscriptions.remove(s);
+                    // a failure recorded after this read comes too late to be signalled
+                    Throwable error = s.error.get();
+                    try {
+                        if (error != null) {
+                            s.subscriber.onError(error);
+                        } else if (!s.cancelled) {
+                            s.cancelled = true;
+                            s.subscriber.onComplete();
+                        }
+                    } catch (Throwable ignored) {
+                        // nothing may reach the drain loop
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    // sends onError to the subscriptions that failed; drain loop only
+    private void signalErrors()
+    {
+        for (HeapSubscription s : subscriptions) {
+            Throwable error = s.error.get();
+            if (error != null) {
+                subscriptions.remove(s);
+                try {
+                    s.subscriber.onError(error);
+                } catch (Throwable ignored) {
+                    // nothing may reach the drain loop
+                }
+            }
+        }
+    }
+
+    // the subscription of one subscriber; also the consumer drainTo hands
+    // its batches to
+    private class HeapSubscription implements Flow.Subscription, Consumer<Heap.HeapItem> {
+        final Flow.Subscriber<? super Heap.HeapItem> subscriber;
+        final AtomicLong requested = new AtomicLong();
+        volatile boolean cancelled = false;
+        // first failure, signalled by the drain loop, which then unlists the subscription
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        HeapSubscription(Flow.Subscriber<? super Heap.HeapItem> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("request must be positive, got " + n));
+                drain();
+                return;
+            }
+            requested.getAndAccumulate(n, (r, add) -> r + add < 0 ? Long.MAX_VALUE : r + add);
+            drain();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        public void accept(Heap.HeapItem item) {
+            if (stopped()) {
+                // cancelled or failed during its batch: the rest goes back for the others
+                staged.insert(item.key, item.info);
+                return;
+            }
+            try {
+                subscriber.onNext(item);
+            } catch (Throwable t) {
+                fail(t); // we are in the drain loop, which signals it after drainTo
+            }
+        }
+
+        // stops emission; the subscription stays listed until its error is signalled
+        private void fail(Throwable t) {
+            if (!cancelled) {
+                error.compareAndSet(null, t);
+            }
+        }
+
+        boolean stopped() {
+            return cancelled || error.get() != null;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * HeapSnapshot
+ *
+ * Writes a Heap to a compact binary file and restores it with the exact
+ * same forest: the same trees in the same root list order, the same
+ * ranks, marks, child order, keys and infos, plus the mode flags and all
+ * counters. Restoring builds the nodes directly instead of going through
+ * insert/meld, so no links happen and the amortized state is preserved.
+ *
+ * Layout (big endian): magic, version, flags, heapify, cuts, links,
+ * markedNodes, numOfTrees, size, number of roots, then every tree in
+ * preorder (roots in root list order starting at min, children in child
+ * list order). Each node is key, rank, a flags byte (1 = marked,
+ * 2 = tombstone, 4 = has id), the long id if flagged, info byte length
+ * (-1 for null) and the UTF-8 info bytes. Items inserted with
+ * insertWithId come back as IndexedItems with the same ids and the id
+ * index is rebuilt. Tombstones of a heap with lazy deletes are saved as
+ * they are; the restored heap has lazy deletes off until setLazyDeletes
+ * is called. Version 1 files (without ids) can still be read.
+ *
+ * Both directions stream through a FileChannel with a fixed direct
+ * buffer, so files larger than 2GB work as well.
+ *
+ */
+public class HeapSnapshot
+{
+    private static final int MAGIC = 0x46484541; // "FHEA"
+    private static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private HeapSnapshot()
+    {
+    }
+
+    /**
+     *
+     * Write heap to file, replacing it if it exists.
+     * A pooled heap is written like a regular one; the pool is not saved.
+     *
+     */
+    public static void write(Heap heap, Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer out = new Writer(channel);
+            List<Heap.HeapNode> roots = new ArrayList<>();
+            if (heap.min != null) {
+                Heap.HeapNode r = heap.min.node;
+                do {
+                    roots.add(r);
+                    r = r.next;
+                } while (r != heap.min.node);
+            }
+
+            out.ensure(44);
+            out.buffer.putInt(MAGIC);
+            out.buffer.putInt(VERSION);
+            out.buffer.putInt((heap.lazyMelds ? 1 : 0) | (heap.lazyDecreaseKeys ? 2 : 0));
+            out.buffer.putInt(heap.heapify);
+            out.buffer.putInt(heap.cuts);
+            out.buffer.putInt(heap.links);
+            out.buffer.putInt(heap.markedNodes);
+            out.buffer.putInt(heap.numOfTrees);
+            out.buffer.putInt(heap.size);
+            out.buffer.putInt(roots.size());
+
+            // preorder walk with an explicit stack, trees can be deep
+            List<Heap.HeapNode> stack = new ArrayList<>();
+            List<Heap.HeapNode> children = new ArrayList<>();
+            for (Heap.HeapNode root : roots) {
+                stack.add(root);
+                while (!stack.isEmpty()) {
+                    Heap.HeapNode node = stack.remove(stack.size() - 1);
+                    out.writeNode(node);
+                    if (node.child != null) {
+                        Heap.HeapNode c = node.child;
+                        do {
+                            children.add(c);
+                            c = c.next;
+                        } while (c != node.child);
+                        for (int i = children.size() - 1; i >= 0; i--) {
+                            stack.add(children.get(i));
+                        }
+                        children.clear();
+                    }
+                }
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     *
+     * Read a heap written by write(). Throws IOException if the file is
+     * not a heap snapshot or is truncated.
+     *
+     */
+    public static Heap read(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Reader in = new Reader(channel);
+            in.ensure(44);
+            if (in.buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a heap snapshot");
+            }
+            int version = in.buffer.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("unsupported heap snapshot version " + version);
+            }
+            int flags = in.buffer.getInt();
+            Heap heap = new Heap((flags & 1) != 0, (flags & 2) != 0);
+            heap.heapify = in.buffer.getInt();
+            heap.cuts = in.buffer.getInt();
+            heap.links = in.buffer.getInt();
+            heap.markedNodes = in.buffer.getInt();
+            heap.numOfTrees = in.buffer.getInt();
+            heap.size = in.buffer.getInt();
+            int numRoots = in.buffer.getInt();
+
+            Heap.HeapNode first = null;
+            // parents still waiting for children, and how many each still needs
+            Heap.HeapNode[] parents = new Heap.HeapNode[64];
+            int[] missing = new int[64];
+            for (int r = 0; r < numRoots; r++) {
+                Heap.HeapNode root = in.readNode(heap);
+                heap.tombstones += root.tombstone ? 1 : 0;
+                if (first == null) {
+                    first = root;
+                } else {
+                    appendSibling(first, root);
+                }
+                int depth = 0;
+                if (root.rank > 0) {
+                    parents[0] = root;
+                    missing[0] = root.rank;
+                    depth = 1;
+                }
+                while (depth > 0) {
+                    Heap.HeapNode node = in.readNode(heap);
+                    heap.tombstones += node.tombstone ? 1 : 0;
+                    Heap.HeapNode parent = parents[depth - 1];
+                    node.parent = parent;
+                    if (parent.child == null) {
+                        parent.child = node;
+                    } else {
+                        appendSibling(parent.child, node);
+                    }
+                    if (--missing[depth - 1] == 0) {
+                        depth--;
+                    }
+                    if (node.rank > 0) {
+                        if (depth == parents.length) {
+                            parents = Arrays.copyOf(parents, depth * 2);
+                            missing = Arrays.copyOf(missing, depth * 2);
+                        }
+                        parents[depth] = node;
+                        missing[depth] = node.rank;
+                        depth++;
+                    }
+                }
+            }
+            heap.min = first == null ? null : first.item;
+            return heap;
+        }
+    }
+
+    // puts node at the end of the circular list that starts at head
+    private static void appendSibling(Heap.HeapNode head, Heap.HeapNode node)
+    {
+        Heap.HeapNode tail = head.prev;
+        tail.next = node;
+        node.prev = tail;
+        node.next = head;
+        head.prev = node;
+    }
+
+    private static class Writer {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void writeNode(Heap.HeapNode node) throws IOException {
+            ensure(21);
+            boolean hasId = node.item instanceof Heap.IndexedItem;
+            buffer.putInt(node.item.key);
+            buffer.putInt(node.rank);
+            buffer.put((byte) ((node.marked ? 1 : 0) | (node.tombstone ? 2 : 0) | (hasId ? 4 : 0)));
+            if (hasId) {
+                buffer.putLong(((Heap.IndexedItem) node.item).id);
+            }
+            String info = node.item.info;
+            if (info == null) {
+                buffer.putInt(-1);
+                return;
+            }
+            byte[] bytes = info.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length);
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+    }
+
+    private static class Reader {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Reader(FileChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("heap snapshot is truncated");
+                }
+            }
+            buffer.flip();
+        }
+
+        // reads one node; an item with an id is added to heap's id index
+        // unless it is a tombstone, which has left the index already
+        Heap.HeapNode readNode(Heap heap) throws IOException {
+            ensure(9);
+            int key = buffer.getInt();
+            int rank = buffer.getInt();
+            byte flags = buffer.get();
+            boolean hasId = (flags & 4) != 0;
+            ensure(hasId ? 12 : 4);
+            long id = hasId ? buffer.getLong() : 0;
+            int length = buffer.getInt();
+            String info = null;
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                int offset = 0;
+                while (offset < length) {
+                    ensure(1);
+                    int chunk = Math.min(buffer.remaining(), length - offset);
+                    buffer.get(bytes, offset, chunk);
+                    offset += chunk;
+                }
+                info = new String(bytes, StandardCharsets.UTF_8);
+            }
+            Heap.HeapItem item = hasId ? new Heap.IndexedItem(id, key, info) : new Heap.HeapItem(key, info);
+            Heap.HeapNode node = item.node;
+            node.rank = rank;
+            node.marked = (flags & 1) != 0;
+            node.tombstone = (flags & 2) != 0;
+            if (hasId && !node.tombstone) {
+                heap.index((Heap.IndexedItem) item);
+            }
+            return node;
+        }
+    }
+}
@@ -1,7 +1,15 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class HeapTester {
-    private static List<String> operationLog = new ArrayList<>();
     // מימוש מד התקדמות בסגנון TQDM
     public static void printProgressBar(int current, int total) {
         int percent = (int) ((double) current / total * 100);
@@ -25,6 +33,31 @@ public class HeapTester {
 
         testBinomialWithCuts();
         testMassiveHeapifyUp();
+        testIntHeapMatchesHeap();
+        testInsertAll();
+        testPooledHeap();
+        testMultiQueue();
+        testStagedHeap();
+        testBatchDecreaseAndDelete();
+        testDeleteMinK();
+        testSortedIterator();
+        testKeySpecializations();
+        testGraphSearch();
+        testRadixHeap();
+        testAddressableEngines();
+        testSnapshot();
+        testTraceReplay();
+        testBoundedHeap();
+        testLazyDelete();
+        testParallelLinking();
+        testAdaptiveHeap();
+        testHeapMetrics();
+        testCompactHeapMatchesHeap();
+        testFootprint();
+        testIdIndex();
+        testTimerScheduler();
+        testHeapPublisher();
+        testExternalHeap();
         runStressTestWithLog(100000);
     }
 
@@ -92,13 +125,1958 @@ public class HeapTester {
         System.out.println();
     }
 
+    /**
+     * Runs the same random workload on Heap and IntHeap in all four modes
+     * and checks that both report the same min, size, trees and marks.
+     */
+    public static void testIntHeapMatchesHeap() {
+        System.out.println("--- Test: IntHeap matches Heap ---");
+        boolean ok = true;
+        for (int mode = 0; mode < 4; mode++) {
+            boolean lazyMelds = (mode & 1) != 0;
+            boolean lazyDecreaseKeys = (mode & 2) != 0;
+            Heap heap = new Heap(lazyMelds, lazyDecreaseKeys);
+            IntHeap intHeap = new IntHeap(lazyMelds, lazyDecreaseKeys, 4);
+            List<Heap.HeapItem> items = new ArrayList<>();
+            List<Integer> handles = new ArrayList<>();
+            Random rand = new Random(mode);
+
+            for (int i = 0; i < 20000 && ok; i++) {
+                int action = rand.nextInt(5);
+                if (action <= 1 || heap.size() == 0) {
+                    int key = rand.nextInt(1000) + 1;
+                    items.add(heap.insert(key, "val" + i));
+                    handles.add(intHeap.insert(key, "val" + i));
+                } else if (action == 2) {
+                    Heap.HeapItem m = heap.findMin();
+                    int idx = items.indexOf(m);
+                    heap.deleteMin();
+                    intHeap.deleteMin();
+                    items.remove(idx);
+                    handles.remove(idx);
+                } else if (action == 3) {
+                    int idx = rand.nextInt(items.size());
+                    int diff = rand.nextInt(items.get(idx).key / 2 + 1);
+                    heap.decreaseKey(items.get(idx), diff);
+                    intHeap.decreaseKey(handles.get(idx), diff);
+                } else {
+                    int idx = rand.nextInt(items.size());
+                    heap.delete(items.remove(idx));
+                    intHeap.delete(handles.remove(idx));
+                }
+
+                int expectedMin = heap.size() == 0 ? -1 : heap.findMin().key;
+                int actualMin = intHeap.size() == 0 ? -1 : intHeap.key(intHeap.findMin());
+                if (expectedMin != actualMin || heap.size() != intHeap.size()
+                        || heap.numTrees() != intHeap.numTrees()
+                        || heap.numMarkedNodes() != intHeap.numMarkedNodes()) {
+                    System.err.println("FAILED: mode " + mode + " diverged at op " + i);
+                    ok = false;
+                }
+            }
+        }
+        if (ok) {
+            System.out.println("SUCCESS: IntHeap agrees with Heap in all modes.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Bulk loads a heap with insertAll in every mode and drains it in order.
+     */
+    public static void testInsertAll() {
+        System.out.println("--- Test: insertAll ---");
+        boolean ok = true;
+        for (int mode = 0; mode < 4; mode++) {
+            Heap heap = new Heap((mode & 1) != 0, (mode & 2) != 0);
+            heap.insert(500, "pre");
+            int n = 1000;
+            int[] keys = new int[n];
+            String[] infos = new String[n];
+            Random rand = new Random(mode);
+            for (int i = 0; i < n; i++) {
+                keys[i] = rand.nextInt(1000) + 1;
+                infos[i] = "val" + i;
+            }
+            Heap.HeapItem[] items = heap.insertAll(keys, infos);
+            if (items.length != n || items[7].key != keys[7] || heap.size() != n + 1) {
+                ok = false;
+            }
+            if (!heap.lazyMelds && heap.numTrees() != Integer.bitCount(n + 1)) {
+                ok = false;
+            }
+            heap.decreaseKey(items[3], items[3].key - 1);
+            int last = 0;
+            while (heap.size() > 0) {
+                int key = heap.findMin().key;
+                if (key < last) {
+                    ok = false;
+                }
+                last = key;
+                heap.deleteMin();
+            }
+        }
+        if (ok) {
+            System.out.println("SUCCESS: insertAll builds a valid heap in all modes.");
+        } else {
+            System.err.println("FAILED: insertAll produced a broken heap.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Checks that a pooled heap hands deleted items out again and still
+     * behaves like a regular heap.
+     */
+    public static void testPooledHeap() {
+        System.out.println("--- Test: pooled Heap ---");
+        boolean ok = true;
+        for (int mode = 0; mode < 4; mode++) {
+            Heap pooled = new Heap((mode & 1) != 0, (mode & 2) != 0, 16);
+            Heap plain = new Heap((mode & 1) != 0, (mode & 2) != 0);
+            Random rand = new Random(mode);
+            for (int i = 0; i < 5000; i++) {
+                int key = rand.nextInt(1000) + 2;
+                Heap.HeapItem a = pooled.insert(key, "val" + i);
+                Heap.HeapItem b = plain.insert(key, "val" + i);
+                if (rand.nextBoolean()) {
+                    int diff = rand.nextInt(key / 2 + 1);
+                    pooled.decreaseKey(a, diff);
+                    plain.decreaseKey(b, diff);
+                }
+                if (i % 3 != 0) {
+                    Heap.HeapItem removed = pooled.findMin();
+                    pooled.deleteMin();
+                    plain.deleteMin();
+                    if (pooled.insert(7, "again") != removed) {
+                        ok = false;
+                    }
+                    plain.insert(7, "again");
+                }
+                if (pooled.findMin().key != plain.findMin().key || pooled.size() != plain.size()
+                        || pooled.numTrees() != plain.numTrees()) {
+                    ok = false;
+                }
+            }
+        }
+        if (ok) {
+            System.out.println("SUCCESS: pooled heap recycles items correctly.");
+        } else {
+            System.err.println("FAILED: pooled heap diverged from a regular heap.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Fills a MultiQueue from several threads, then drains it: strict mode
+     * must come out sorted, relaxed mode must return every item once.
+     */
+    public static void testMultiQueue() {
+        System.out.println("--- Test: MultiQueue ---");
+        boolean ok = true;
+        for (int strict = 0; strict < 2; strict++) {
+            MultiQueue queue = new MultiQueue(8, true, true, strict == 1);
+            int threads = 4;
+            int perThread = 5000;
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                final int base = t * perThread;
+                workers[t] = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        queue.insert(base + i + 1, null);
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            boolean[] seen = new boolean[threads * perThread + 1];
+            int last = 0;
+            int count = 0;
+            MultiQueue.Item item;
+            while ((item = queue.deleteMin()) != null) {
+                if (seen[item.key()] || (strict == 1 && item.key() < last)) {
+                    ok = false;
+                }
+                seen[item.key()] = true;
+                last = item.key();
+                count++;
+            }
+            if (count != threads * perThread || queue.size() != 0) {
+                ok = false;
+            }
+        }
+        if (ok) {
+            System.out.println("SUCCESS: MultiQueue returned every item in both modes.");
+        } else {
+            System.err.println("FAILED: MultiQueue lost or misordered items.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Producers stage inserts while the consumer keeps deleting the min;
+     * every item must come out exactly once.
+     */
+    public static void testStagedHeap() {
+        System.out.println("--- Test: StagedHeap ---");
+        StagedHeap heap = new StagedHeap(true, true);
+        int threads = 4;
+        int perThread = 5000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    heap.insert(base + i + 1, null);
+                }
+            });
+            workers[t].start();
+        }
+        boolean[] seen = new boolean[threads * perThread + 1];
+        boolean ok = true;
+        int count = 0;
+        while (count < threads * perThread) {
+            Heap.HeapItem min = heap.pollMin();
+            if (min == null) {
+                Thread.yield();
+                continue;
+            }
+            if (seen[min.key]) {
+                ok = false;
+            }
+            seen[min.key] = true;
+            count++;
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (ok && heap.size() == 0 && heap.numDrains() > 0) {
+            System.out.println("SUCCESS: StagedHeap drained " + count + " items in " + heap.numDrains()
+                    + " batches (avg " + heap.averageBatchSize() + ").");
+        } else {
+            System.err.println("FAILED: StagedHeap lost or duplicated items.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Runs the same decreases and deletes one by one and as batches: the
+     * cut, mark and heapify counters must agree and both heaps must drain
+     * in the same order.
+     */
+    public static void testBatchDecreaseAndDelete() {
+        System.out.println("--- Test: batch decreaseKeys / deleteAll ---");
+        boolean ok = true;
+        for (int mode = 0; mode < 4; mode++) {
+            Heap single = new Heap((mode & 1) != 0, (mode & 2) != 0);
+            Heap batch = new Heap((mode & 1) != 0, (mode & 2) != 0);
+            int n = 2000;
+            Random rand = new Random(mode);
+            Heap.HeapItem[] a = new Heap.HeapItem[n];
+            Heap.HeapItem[] b = new Heap.HeapItem[n];
+            for (int i = 0; i < n; i++) {
+                int key = rand.nextInt(100000) + 2;
+                a[i] = single.insert(key, null);
+                b[i] = batch.insert(key, null);
+            }
+            Heap.HeapItem first = single.findMin();
+            single.deleteMin();
+            batch.deleteMin();
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                if (a[i] != first) {
+                    order.add(i);
+                }
+            }
+            Collections.shuffle(order, rand);
+            int picked = 500;
+            Heap.HeapItem[] decA = new Heap.HeapItem[picked];
+            Heap.HeapItem[] decB = new Heap.HeapItem[picked];
+            int[] diffs = new int[picked];
+            for (int i = 0; i < picked; i++) {
+                int idx = order.get(i);
+                decA[i] = a[idx];
+                decB[i] = b[idx];
+                diffs[i] = rand.nextInt(a[idx].key / 2 + 1);
+            }
+            for (int i = 0; i < picked; i++) {
+                single.decreaseKey(decA[i], diffs[i]);
+            }
+            batch.decreaseKeys(decB, diffs);
+            // with eager melds the single heap consolidates between cuts, so
+            // its trees and therefore its cuts differ from the batch run
+            if (single.lazyMelds && (single.numMarkedNodes() != batch.numMarkedNodes()
+                    || single.totalCuts() != batch.totalCuts()
+                    || single.totalHeapifyCosts() != batch.totalHeapifyCosts())) {
+                ok = false;
+            }
+            if (single.findMin().key != batch.findMin().key
+                    || batch.numMarkedNodes() != countMarked(batch)) {
+                ok = false;
+            }
+
+            Heap.HeapItem[] delA = Arrays.copyOf(decA, 200);
+            Heap.HeapItem[] delB = Arrays.copyOf(decB, 200);
+            for (Heap.HeapItem x : delA) {
+                single.delete(x);
+            }
+            batch.deleteAll(delB);
+            if (single.size() != batch.size() || batch.numMarkedNodes() != countMarked(batch)) {
+                ok = false;
+            }
+            while (single.size() > 0) {
+                if (single.findMin().key != batch.findMin().key) {
+                    ok = false;
+                    break;
+                }
+                single.deleteMin();
+                batch.deleteMin();
+            }
+        }
+        if (ok) {
+            System.out.println("SUCCESS: batch operations match single operations.");
+        } else {
+            System.err.println("FAILED: batch operations diverged.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Pops items in chunks with deleteMin(k) and drainTo in every mode and
+     * checks the keys come out in the same order as with single deleteMins.
+     */
+    public static void testDeleteMinK() {
+        System.out.println("--- Test: deleteMin(k) / drainTo ---");
+        boolean ok = true;
+        for (int mode = 0; mode < 4; mode++) {
+            Heap heap = new Heap((mode & 1) != 0, (mode & 2) != 0);
+            Random rand = new Random(mode);
+            List<Heap.HeapItem> items = new ArrayList<>();
+            for (int i = 0; i < 3000; i++) {
+                items.add(heap.insert(rand.nextInt(1000) + 2, "val" + i));
+            }
+            items.remove(heap.findMin());
+            heap.deleteMin();
+            // a few decreases so that marked nodes and cut trees are around
+            for (int i = 0; i < 50; i++) {
+                Heap.HeapItem x = items.get(rand.nextInt(items.size()));
+                heap.decreaseKey(x, x.key - 1);
+            }
+            List<Integer> expected = new ArrayList<>();
+            for (Heap.HeapItem x : items) {
+                expected.add(x.key);
+            }
+            Collections.sort(expected);
+
+            List<Integer> drained = new ArrayList<>();
+            while (heap.size() > 0) {
+                if (rand.nextBoolean()) {
+                    for (Heap.HeapItem x : heap.deleteMin(rand.nextInt(200))) {
+                        drained.add(x.key);
+                    }
+                } else {
+                    heap.drainTo(x -> drained.add(x.key), rand.nextInt(200));
+                }
+                if (heap.numMarkedNodes() != countMarked(heap)) {
+                    ok = false;
+                }
+            }
+            if (!drained.equals(expected)) {
+                ok = false;
+            }
+        }
+        if (ok) {
+            System.out.println("SUCCESS: deleteMin(k) and drainTo return items in order.");
+        } else {
+            System.err.println("FAILED: deleteMin(k) or drainTo out of order.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Iterates a heap in sorted order, checks it is left untouched and that
+     * modifying it during iteration fails fast.
+     */
+    public static void testSortedIterator() {
+        System.out.println("--- Test: sorted iterator ---");
+        boolean ok = true;
+        Heap heap = new Heap(true, true);
+        Random rand = new Random(9);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int key = rand.nextInt(1000) + 1;
+            keys.add(key);
+            heap.insert(key, null);
+        }
+        keys.remove(Integer.valueOf(heap.findMin().key));
+        heap.deleteMin();
+        Collections.sort(keys);
+        int trees = heap.numTrees();
+
+        List<Integer> seen = new ArrayList<>();
+        for (Heap.HeapItem x : heap) {
+            seen.add(x.key);
+        }
+        Heap.HeapItem[] top = heap.peekMin(10);
+        if (!seen.equals(keys) || heap.stream().count() != keys.size() || top.length != 10
+                || top[9].key != keys.get(9) || heap.numTrees() != trees || heap.size() != keys.size()) {
+            ok = false;
+        }
+
+        Iterator<Heap.HeapItem> it = heap.iterator();
+        it.next();
+        heap.insert(5, null);
+        try {
+            it.next();
+            ok = false;
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+        if (ok) {
+            System.out.println("SUCCESS: iterator is sorted, non-destructive and fail-fast.");
+        } else {
+            System.err.println("FAILED: sorted iterator misbehaved.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Runs one random workload on Heap, LongHeap, DoubleHeap and
+     * ComparatorHeap in every mode; all four must agree on the min and size.
+     * Also checks LongHeap with keys beyond the int range and below zero.
+     */
+    public static void testKeySpecializations() {
+        System.out.println("--- Test: LongHeap / DoubleHeap / ComparatorHeap ---");
+        boolean ok = true;
+        for (int mode = 0; mode < 4; mode++) {
+            boolean lazyMelds = (mode & 1) != 0;
+            boolean lazyDecreaseKeys = (mode & 2) != 0;
+            Heap heap = new Heap(lazyMelds, lazyDecreaseKeys);
+            LongHeap longHeap = new LongHeap(lazyMelds, lazyDecreaseKeys);
+            DoubleHeap doubleHeap = new DoubleHeap(lazyMelds, lazyDecreaseKeys);
+            ComparatorHeap<Integer> cmpHeap = new ComparatorHeap<>(lazyMelds, lazyDecreaseKeys,
+                    Comparator.naturalOrder());
+            List<Heap.HeapItem> a = new ArrayList<>();
+            List<LongHeap.HeapItem> b = new ArrayList<>();
+            List<DoubleHeap.HeapItem> c = new ArrayList<>();
+            List<ComparatorHeap.HeapItem<Integer>> d = new ArrayList<>();
+            Random rand = new Random(mode);
+            for (int i = 0; i < 10000 && ok; i++) {
+                int action = rand.nextInt(5);
+                if (action <= 1 || heap.size() == 0) {
+                    int key = rand.nextInt(1000) + 1;
+                    a.add(heap.insert(key, null));
+                    b.add(longHeap.insert(key, null));
+                    c.add(doubleHeap.insert(key, null));
+                    d.add(cmpHeap.insert(key, null));
+                } else if (action == 2) {
+                    int idx = a.indexOf(heap.findMin());
+                    heap.deleteMin();
+                    longHeap.delete(b.get(idx));
+                    doubleHeap.delete(c.get(idx));
+                    cmpHeap.delete(d.get(idx));
+                    a.remove(idx);
+                    b.remove(idx);
+                    c.remove(idx);
+                    d.remove(idx);
+                } else if (action == 3) {
+                    int idx = rand.nextInt(a.size());
+                    int diff = rand.nextInt(a.get(idx).key / 2 + 1);
+                    heap.decreaseKey(a.get(idx), diff);
+                    longHeap.decreaseKey(b.get(idx), diff);
+                    doubleHeap.decreaseKey(c.get(idx), diff);
+                    cmpHeap.decreaseKey(d.get(idx), d.get(idx).key - diff);
+                } else {
+                    int idx = rand.nextInt(a.size());
+                    heap.delete(a.remove(idx));
+                    longHeap.delete(b.remove(idx));
+                    doubleHeap.delete(c.remove(idx));
+                    cmpHeap.delete(d.remove(idx));
+                }
+                if (heap.size() != longHeap.size() || heap.size() != doubleHeap.size()
+                        || heap.size() != cmpHeap.size()) {
+                    ok = false;
+                } else if (heap.size() > 0) {
+                    int min = heap.findMin().key;
+                    if (longHeap.findMin().key != min || doubleHeap.findMin().key != min
+                            || cmpHeap.findMin().key != min) {
+                        ok = false;
+                    }
+                }
+            }
+            while (ok && longHeap.size() > 0) {
+                long min = longHeap.findMin().key;
+                longHeap.deleteMin();
+                if (longHeap.size() > 0 && longHeap.findMin().key < min) {
+                    ok = false;
+                }
+            }
+        }
+
+        LongHeap wide = new LongHeap(true, true);
+        LongHeap.HeapItem big = wide.insert(5000000000L, "big");
+        wide.insert(-7L, "negative");
+        wide.insert(Long.MAX_VALUE, "max");
+        wide.deleteMin();
+        wide.decreaseKey(big, 6000000000L);
+        if (wide.findMin() != big || wide.findMin().key != -1000000000L) {
+            ok = false;
+        }
+        if (ok) {
+            System.out.println("SUCCESS: key specializations agree with Heap.");
+        } else {
+            System.err.println("FAILED: key specializations diverged from Heap.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Dijkstra and Prim on a random grid must give the same distances and
+     * tree weight in every mode, and Dijkstra must match a quadratic
+     * reference implementation.
+     */
+    public static void testGraphSearch() {
+        System.out.println("--- Test: GraphSearch ---");
+        boolean ok = true;
+        int side = 30;
+        CsrGraph graph = HeapBenchmark.gridGraph(side, new Random(3));
+        int n = graph.numVertices;
+
+        int[] expected = new int[n];
+        boolean[] done = new boolean[n];
+        Arrays.fill(expected, GraphSearch.UNREACHED);
+        expected[0] = 0;
+        for (int round = 0; round < n; round++) {
+            int u = -1;
+            for (int v = 0; v < n; v++) {
+                if (!done[v] && expected[v] != GraphSearch.UNREACHED && (u == -1 || expected[v] < expected[u])) {
+                    u = v;
+                }
+            }
+            if (u == -1) {
+                break;
+            }
+            done[u] = true;
+            for (int e = graph.offsets[u]; e < graph.offsets[u + 1]; e++) {
+                int v = graph.targets[e];
+                expected[v] = Math.min(expected[v], expected[u] + graph.weights[e]);
+            }
+        }
+
+        long primTotal = -1;
+        for (int mode = 0; mode < 4; mode++) {
+            GraphSearch.Result d = GraphSearch.dijkstra(graph, 0, (mode & 1) != 0, (mode & 2) != 0);
+            GraphSearch.Result p = GraphSearch.prim(graph, (mode & 1) != 0, (mode & 2) != 0);
+            if (!Arrays.equals(d.value, expected) || d.deleteMins != n || p.deleteMins != n) {
+                ok = false;
+            }
+            if (mode == 0 && !Arrays.equals(GraphSearch.dijkstraRadix(graph, 0).value, expected)) {
+                ok = false;
+            }
+            if (primTotal != -1 && p.total != primTotal) {
+                ok = false;
+            }
+            primTotal = p.total;
+        }
+        if (ok) {
+            System.out.println("SUCCESS: Dijkstra and Prim agree in all modes.");
+        } else {
+            System.err.println("FAILED: GraphSearch results differ.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Runs a monotone random workload on RadixHeap and Heap side by side and
+     * checks that a key below the last min is rejected.
+     */
+    public static void testRadixHeap() {
+        System.out.println("--- Test: RadixHeap ---");
+        boolean ok = true;
+        RadixHeap radix = new RadixHeap(4);
+        AddressableHeap engine = HeapFactory.create("radix");
+        Heap heap = new Heap(true, true);
+        List<Integer> handles = new ArrayList<>();
+        List<AddressableHeap.Handle> engineHandles = new ArrayList<>();
+        List<Heap.HeapItem> items = new ArrayList<>();
+        Random rand = new Random(12);
+        for (int i = 0; i < 20000 && ok; i++) {
+            int action = rand.nextInt(4);
+            int base = radix.lastMin();
+            if (action <= 1 || heap.size() == 0) {
+                int key = base + rand.nextInt(1000) + 1;
+                handles.add(radix.insert(key, null));
+                engineHandles.add(engine.insert(key, null));
+                items.add(heap.insert(key, null));
+            } else if (action == 2) {
+                int idx = items.indexOf(heap.findMin());
+                if (radix.key(radix.findMin()) != heap.findMin().key) {
+                    ok = false;
+                }
+                radix.delete(handles.remove(idx));
+                engine.delete(engineHandles.remove(idx));
+                heap.delete(items.remove(idx));
+            } else {
+                int idx = rand.nextInt(items.size());
+                int room = items.get(idx).key - base;
+                int diff = rand.nextInt(room + 1);
+                radix.decreaseKey(handles.get(idx), diff);
+                engine.decreaseKey(engineHandles.get(idx), diff);
+                heap.decreaseKey(items.get(idx), diff);
+            }
+            if (radix.size() != heap.size() || engine.size() != heap.size()
+                    || (heap.size() > 0 && radix.key(radix.findMin()) != heap.findMin().key)
+                    || (heap.size() > 0 && engine.findMin().key() != heap.findMin().key)) {
+                ok = false;
+            }
+        }
+        try {
+            engine.insert(0, null);
+            ok = false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            radix.insert(radix.lastMin() - 1, null);
+            ok = false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        if (ok) {
+            System.out.println("SUCCESS: RadixHeap and the radix engine match Heap on a monotone workload.");
+        } else {
+            System.err.println("FAILED: RadixHeap diverged from Heap.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Runs one random workload through the AddressableHeap interface on every
+     * engine HeapFactory knows; all must agree with Heap on min and size.
+     */
+    public static void testAddressableEngines() {
+        System.out.println("--- Test: AddressableHeap engines ---");
+        boolean ok = true;
+        for (String name : HeapFactory.NAMES) {
+            AddressableHeap engine = HeapFactory.create(name);
+            Heap reference = new Heap(true, true);
+            List<AddressableHeap.Handle> handles = new ArrayList<>();
+            List<Heap.HeapItem> items = new ArrayList<>();
+            Random rand = new Random(13);
+            for (int i = 0; i < 20000; i++) {
+                int action = rand.nextInt(5);
+                if (action <= 1 || reference.size() == 0) {
+                    int key = rand.nextInt(1000) + 2;
+                    handles.add(engine.insert(key, "val" + i));
+                    items.add(reference.insert(key, "val" + i));
+                } else if (action == 2) {
+                    if (engine.findMin().key() != reference.findMin().key) {
+                        ok = false;
+                    }
+                    int idx = handles.indexOf(engine.findMin());
+                    engine.deleteMin();
+                    reference.delete(items.get(idx));
+                    handles.remove(idx);
+                    items.remove(idx);
+                } else if (action == 3) {
+                    int idx = rand.nextInt(handles.size());
+                    int diff = rand.nextInt(handles.get(idx).key() / 2 + 1);
+                    engine.decreaseKey(handles.get(idx), diff);
+                    reference.decreaseKey(items.get(idx), diff);
+                } else {
+                    int idx = rand.nextInt(handles.size());
+                    engine.delete(handles.remove(idx));
+                    reference.delete(items.remove(idx));
+                }
+                if (engine.size() != reference.size()
+                        || (engine.size() > 0 && engine.findMin().key() != reference.findMin().key)) {
+                    ok = false;
+                }
+            }
+            if (!ok) {
+                System.err.println("FAILED: engine " + name + " diverged.");
+                break;
+            }
+        }
+        if (ok) {
+            System.out.println("SUCCESS: all engines agree with Heap.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Saves heaps in every mode, restores them and checks that the forest,
+     * counters and ids are identical and that both copies keep behaving
+     * the same.
+     */
+    public static void testSnapshot() {
+        System.out.println("--- Test: HeapSnapshot ---");
+        boolean ok = true;
+        try {
+            Path file = Files.createTempFile("heap", ".snapshot");
+            for (int mode = 0; mode < 4; mode++) {
+                Heap heap = new Heap((mode & 1) != 0, (mode & 2) != 0);
+                Random rand = new Random(mode);
+                List<Heap.HeapItem> items = new ArrayList<>();
+                for (int i = 0; i < 5000; i++) {
+                    int key = rand.nextInt(100000) + 2;
+                    String info = i % 7 == 0 ? null : "välue" + i;
+                    items.add(i % 3 == 0 ? heap.insertWithId(i, key, info) : heap.insert(key, info));
+                }
+                items.remove(heap.findMin());
+                heap.deleteMin();
+                for (int i = 0; i < 500; i++) {
+                    Heap.HeapItem x = items.get(rand.nextInt(items.size()));
+                    heap.decreaseKey(x, rand.nextInt(x.key / 2 + 1));
+                }
+
+                HeapSnapshot.write(heap, file);
+                Heap copy = HeapSnapshot.read(file);
+                if (!sameForest(heap, copy) || copy.numTrees() != heap.numTrees()
+                        || copy.numMarkedNodes() != heap.numMarkedNodes() || copy.totalLinks() != heap.totalLinks()
+                        || copy.totalCuts() != heap.totalCuts() || copy.lazyMelds != heap.lazyMelds
+                        || copy.totalHeapifyCosts() != heap.totalHeapifyCosts() || copy.size() != heap.size()) {
+                    ok = false;
+                }
+                for (long id = 0; id < 5000 && ok; id += 3) {
+                    Heap.IndexedItem x = copy.getById(id);
+                    if (heap.containsId(id) != (x != null) || x != null && x.key != heap.getById(id).key) {
+                        ok = false;
+                    }
+                }
+                for (int i = 0; i < 1000 && ok; i++) {
+                    if (i % 4 == 0) {
+                        long id = rand.nextInt(5000 / 3) * 3L;
+                        if (heap.deleteById(id) != copy.deleteById(id)) {
+                            ok = false;
+                        }
+                    } else {
+                        heap.deleteMin();
+                        copy.deleteMin();
+                    }
+                    if (!sameForest(heap, copy)) {
+                        ok = false;
+                    }
+                }
+            }
+            Files.delete(file);
+        } catch (IOException e) {
+            ok = false;
+        }
+        if (ok) {
+            System.out.println("SUCCESS: restored heaps are identical.");
+        } else {
+            System.err.println("FAILED: restored heap differs.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Records a random workload with insert, deleteMin, decreaseKey, delete
+     * and meld into a memory-mapped trace and replays it on every engine:
+     * nothing may be skipped and every engine must end with the same size
+     * and min key. A small ring that wraps must still replay, also when
+     * it wraps inside a meld.
+     */
+    public static void testTraceReplay() {
+        System.out.println("--- Test: TraceRecorder and TraceReplay ---");
+        boolean ok = true;
+        try {
+            Path file = Files.createTempFile("heap", ".trace");
+            TraceRecorder recorder = TraceRecorder.mapped(file, 1 << 16);
+            TracingHeap heap = new TracingHeap(true, true, recorder);
+            Random rand = new Random(15);
+            List<TracingHeap.TracedItem> items = new ArrayList<>();
+            for (int i = 0; i < 20000; i++) {
+                int action = rand.nextInt(10);
+                if (action < 4 || items.isEmpty()) {
+                    items.add(heap.insert(rand.nextInt(100000) + 1, null));
+                } else if (action < 6) {
+                    items.remove(heap.findMin());
+                    heap.deleteMin();
+                } else if (action < 8) {
+                    TracingHeap.TracedItem x = items.get(rand.nextInt(items.size()));
+                    heap.decreaseKey(x, rand.nextInt(x.key / 2 + 1));
+                } else if (action < 9) {
+                    heap.delete(items.remove(rand.nextInt(items.size())));
+                } else {
+                    TracingHeap other = new TracingHeap(true, true, recorder);
+                    for (int j = rand.nextInt(20); j > 0; j--) {
+                        items.add(other.insert(rand.nextInt(100000) + 1, null));
+                    }
+                    heap.meld(other);
+                }
+            }
+            recorder.writeTo(file);
+            int[] records = TraceReplay.load(file);
+            if (records.length / 4 != recorder.totalRecords()) {
+                ok = false;
+            }
+            for (String engine : HeapFactory.NAMES) {
+                TraceReplay.Result r = TraceReplay.replay(records, engine);
+                if (r.skipped != 0 || r.size != heap.size()) {
+                    System.err.println(engine + ": skipped=" + r.skipped + " size=" + r.size + " expected " + heap.size());
+                    ok = false;
+                }
+            }
+
+            TraceRecorder small = TraceRecorder.inMemory(1000);
+            TracingHeap wrapped = new TracingHeap(false, true, small);
+            for (int i = 0; i < 5000; i++) {
+                wrapped.insert(rand.nextInt(1000) + 1, null);
+                if (i % 3 == 0) {
+                    wrapped.deleteMin();
+                }
+            }
+            small.writeTo(file);
+            int[] tail = TraceReplay.load(file);
+            if (tail.length / 4 != 1000 || tail[0] != TraceRecorder.DELETE_MIN && tail[0] != TraceRecorder.INSERT) {
+                ok = false;
+            }
+            TraceReplay.replay(tail, "fib-EM-LDK");
+
+            // the ring wraps inside a meld: the oldest records are MELD_ITEMs
+            // without their MELD, and their items must be replayed as inserts
+            TraceRecorder cut = TraceRecorder.inMemory(8);
+            TracingHeap target = new TracingHeap(true, true, cut);
+            TracingHeap source = new TracingHeap(true, true, cut);
+            target.insert(1, null);
+            for (int i = 0; i < 10; i++) {
+                source.insert(100 + i, null);
+            }
+            target.meld(source);
+            target.deleteMin();
+            cut.writeTo(file);
+            int[] orphans = TraceReplay.load(file);
+            if ((orphans[0] & 0xff) != TraceRecorder.MELD_ITEM) {
+                ok = false;
+            }
+            for (String engine : HeapFactory.NAMES) {
+                TraceReplay.Result r = TraceReplay.replay(orphans, engine);
+                // 7 orphaned items survive in the ring, then one deleteMin
+                if (r.skipped != 0 || r.size != 6) {
+                    System.err.println(engine + ": orphaned meld items skipped=" + r.skipped + " size=" + r.size);
+                    ok = false;
+                }
+            }
+            Files.delete(file);
+        } catch (IOException | RuntimeException e) {
+            System.err.println(e);
+            ok = false;
+        }
+        if (ok) {
+            System.out.println("SUCCESS: traces replay on every engine.");
+        } else {
+            System.err.println("FAILED: trace replay differs.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Streams random keys through a BoundedHeap in all modes, with some
+     * decreaseKeys and deletes of kept items, and checks it against a
+     * sorted list of the keys that should be kept.
+     */
+    public static void testBoundedHeap() {
+        System.out.println("--- Test: BoundedHeap top-K ---");
+        boolean ok = true;
+        int k = 100;
+        for (int mode = 0; mode < 4; mode++) {
+            BoundedHeap heap = new BoundedHeap((mode & 1) != 0, (mode & 2) != 0, k);
+            Random rand = new Random(mode);
+            List<BoundedHeap.BoundedItem> live = new ArrayList<>();
+            for (int i = 0; i < 20000; i++) {
+                int key = rand.nextInt(1000000) + 1;
+                BoundedHeap.BoundedItem worst = heap.findMax();
+                boolean accepts = heap.accepts(key);
+                BoundedHeap.BoundedItem item = heap.insert(key, null);
+                if (accepts != (item != null) || heap.size() > k) {
+                    ok = false;
+                }
+                if (item != null) {
+                    if (live.size() == k) {
+                        live.remove(worst);
+                    }
+                    live.add(item);
+                }
+                if (i % 500 == 0) {
+                    BoundedHeap.BoundedItem x = live.get(rand.nextInt(live.size()));
+                    if (i % 1000 == 0) {
+                        heap.decreaseKey(x, x.key / 2);
+                    } else {
+                        heap.delete(x);
+                        live.remove(x);
+                    }
+                }
+            }
+            List<Integer> kept = new ArrayList<>();
+            for (BoundedHeap.BoundedItem x : live) {
+                kept.add(x.key);
+            }
+            Collections.sort(kept);
+            if (heap.size() != kept.size() || heap.findMax().key != kept.get(kept.size() - 1)
+                    || heap.rejections == 0 || heap.evictions == 0) {
+                ok = false;
+            }
+            for (int key : kept) {
+                if (heap.findMin().key != key) {
+                    ok = false;
+                    break;
+                }
+                heap.deleteMin();
+            }
+        }
+        if (ok) {
+            System.out.println("SUCCESS: BoundedHeap keeps the smallest keys in all modes.");
+        } else {
+            System.err.println("FAILED: BoundedHeap lost or kept the wrong items.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Runs the same random workload with many deletes on an eager heap and
+     * on heaps with lazy deletes (different purge fractions) in all modes.
+     * size(), the sorted iterator, deleteMin(k), a snapshot round trip and
+     * the final deleteMin order must agree with the eager heap.
+     */
+    public static void testLazyDelete() {
+        System.out.println("--- Test: lazy deletes with tombstones ---");
+        boolean ok = true;
+        double[] fractions = {0.1, 1.0, 1000.0};
+        for (int mode = 0; mode < 4 && ok; mode++) {
+            for (double fraction : fractions) {
+                Heap eager = new Heap((mode & 1) != 0, (mode & 2) != 0);
+                Heap lazy = new Heap((mode & 1) != 0, (mode & 2) != 0, 64);
+                lazy.setLazyDeletes(fraction);
+                Random rand = new Random(mode);
+                List<Heap.HeapItem> eagerItems = new ArrayList<>();
+                List<Heap.HeapItem> lazyItems = new ArrayList<>();
+                for (int i = 0; i < 20000; i++) {
+                    int action = rand.nextInt(10);
+                    if (action < 5 || eagerItems.isEmpty()) {
+                        int key = rand.nextInt(1000000) + 2;
+                        eagerItems.add(eager.insert(key, null));
+                        lazyItems.add(lazy.insert(key, null));
+                    } else if (action < 7) {
+                        int j = rand.nextInt(eagerItems.size());
+                        eager.delete(eagerItems.remove(j));
+                        lazy.delete(lazyItems.remove(j));
+                    } else if (action < 8) {
+                        int j = rand.nextInt(eagerItems.size());
+                        int diff = rand.nextInt(eagerItems.get(j).key / 2 + 1);
+                        eager.decreaseKey(eagerItems.get(j), diff);
+                        lazy.decreaseKey(lazyItems.get(j), diff);
+                    } else if (action < 9) {
+                        eagerItems.remove(eager.findMin());
+                        lazyItems.remove(lazy.findMin());
+                        eager.deleteMin();
+                        lazy.deleteMin();
+                    } else if (i % 5 == 0) {
+                        for (Heap.HeapItem x : eager.deleteMin(3)) {
+                            eagerItems.remove(x);
+                        }
+                        for (Heap.HeapItem x : lazy.deleteMin(3)) {
+                            lazyItems.remove(x);
+                        }
+                    }
+                    if (eager.size() != lazy.size() || eager.findMin() != null
+                            && eager.findMin().key != lazy.findMin().key) {
+                        ok = false;
+                        break;
+                    }
+                }
+                if (fraction >= 1000 && lazy.numTombstones() == 0) {
+                    ok = false;
+                }
+                int[] lazyKeys = lazy.stream().mapToInt(x -> x.key).toArray();
+                int[] eagerKeys = eager.stream().mapToInt(x -> x.key).toArray();
+                if (!Arrays.equals(lazyKeys, eagerKeys)) {
+                    ok = false;
+                }
+                try {
+                    Path file = Files.createTempFile("heap", ".snapshot");
+                    HeapSnapshot.write(lazy, file);
+                    Heap copy = HeapSnapshot.read(file);
+                    Files.delete(file);
+                    if (copy.size() != lazy.size() || copy.numTombstones() != lazy.numTombstones()) {
+                        ok = false;
+                    }
+                } catch (IOException e) {
+                    ok = false;
+                }
+                while (ok && eager.size() > 0) {
+                    if (lazy.findMin().key != eager.findMin().key || lazy.findMin().node.tombstone) {
+                        ok = false;
+                    }
+                    eager.deleteMin();
+                    lazy.deleteMin();
+                }
+                if (lazy.size() != 0 || lazy.numTombstones() != 0 || lazy.findMin() != null) {
+                    ok = false;
+                }
+                if (!ok) {
+                    System.err.println("mode " + mode + ", purge fraction " + fraction);
+                    break;
+                }
+            }
+        }
+        if (ok) {
+            System.out.println("SUCCESS: lazy deletes agree with eager deletes in all modes.");
+        } else {
+            System.err.println("FAILED: lazy deletes differ from eager deletes.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Consolidates a huge lazy root list in parallel and builds a heap with
+     * insertAllParallel on a 4 thread pool, and checks heap order, ranks,
+     * binomial tree sizes, the links counter and the deleteMin order
+     * against a heap consolidated sequentially.
+     */
+    public static void testParallelLinking() {
+        System.out.println("--- Test: parallel consolidation and bulk build ---");
+        boolean ok = true;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        int n = 200000;
+        Random rand = new Random(18);
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = rand.nextInt(1000000) + 1;
+        }
+        int[] sorted = keys.clone();
+        Arrays.sort(sorted);
+
+        Heap sequential = new Heap(true, true);
+        sequential.setParallelLinking(null, 0);
+        sequential.insertAll(keys, null);
+        sequential.deleteMin();
+        Heap parallel = new Heap(true, true);
+        parallel.setParallelLinking(pool, 1000);
+        parallel.insertAll(keys, null);
+        parallel.deleteMin();
+        if (parallel.totalLinks() != sequential.totalLinks() || parallel.numTrees() != sequential.numTrees()
+                || parallel.size() != n - 1 || forestSize(parallel, true) != n - 1) {
+            ok = false;
+        }
+
+        for (int mode = 0; mode < 4 && ok; mode++) {
+            Heap built = new Heap((mode & 1) != 0, (mode & 2) != 0);
+            built.insert(5, null);
+            Heap.HeapItem[] items = built.insertAllParallel(keys, null, pool);
+            if (items.length != n || items[n / 2].key != keys[n / 2] || built.size() != n + 1
+                    || forestSize(built, (mode & 1) != 0) != n + 1) {
+                ok = false;
+            }
+            built.deleteMin();
+            for (int i = 0; i < n && ok; i++) {
+                if (built.findMin().key != sorted[i]) {
+                    ok = false;
+                }
+                built.deleteMin();
+            }
+        }
+        for (int i = 1; i < n && ok; i++) {
+            if (parallel.findMin().key != sorted[i]) {
+                ok = false;
+            }
+            parallel.deleteMin();
+        }
+        pool.shutdown();
+        if (ok) {
+            System.out.println("SUCCESS: parallel linking keeps the rank invariants.");
+        } else {
+            System.err.println("FAILED: parallel linking broke the heap.");
+        }
+        System.out.println();
+    }
+
+    // returns the number of nodes, or -1 if a tree is not heap ordered, a
+    // rank differs from the number of children, or (if binomial) a tree of
+    // rank r does not have 2^r nodes
+    private static int forestSize(Heap heap, boolean binomial) {
+        if (heap.min == null) {
+            return 0;
+        }
+        int total = 0;
+        Heap.HeapNode root = heap.min.node;
+        do {
+            if (root.parent != null || root.item.key < heap.min.key) {
+                return -1;
+            }
+            int treeSize = subtreeSize(root);
+            if (treeSize < 0 || binomial && treeSize != 1 << root.rank) {
+                return -1;
+            }
+            total += treeSize;
+            root = root.next;
+        } while (root != heap.min.node);
+        return total;
+    }
+
+    private static int subtreeSize(Heap.HeapNode node) {
+        int total = 1;
+        int children = 0;
+        if (node.child != null) {
+            Heap.HeapNode c = node.child;
+            do {
+                int childSize = subtreeSize(c);
+                if (childSize < 0 || c.parent != node || c.item.key < node.item.key || c.next.prev != c) {
+                    return -1;
+                }
+                total += childSize;
+                children++;
+                c = c.next;
+            } while (c != node.child);
+        }
+        return children == node.rank ? total : -1;
+    }
+
+    /**
+     * Drives an AdaptiveHeap through a deleteMin-heavy, a decreaseKey-heavy
+     * and an insert-heavy phase; it must pass through EM/HDK, LDK and LM
+     * modes, record the switches and still delete in key order.
+     */
+    public static void testAdaptiveHeap() {
+        System.out.println("--- Test: AdaptiveHeap ---");
+        boolean ok = true;
+        AdaptiveHeap heap = new AdaptiveHeap(1000);
+        Random rand = new Random(19);
+        List<Heap.HeapItem> items = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            items.add(heap.insert(rand.nextInt(1000000) + 1000000, null));
+        }
+        Set<String> modes = new HashSet<>();
+        for (int i = 0; i < 30000; i++) {
+            if (i % 5 == 0) {
+                items.add(heap.insert(rand.nextInt(1000000) + 1000000, null));
+            } else {
+                items.remove(heap.findMin());
+                heap.deleteMin();
+            }
+            modes.add(heap.mode());
+        }
+        boolean sawEagerHeapify = modes.contains("EM/HDK");
+        for (int i = 0; i < 20000; i++) {
+            Heap.HeapItem x = items.get(rand.nextInt(items.size()));
+            if (i % 10 == 0) {
+                items.remove(heap.findMin());
+                heap.deleteMin();
+            } else if (x.key > 1000) {
+                // to near the top of the heap, the worst case for heapify
+                heap.decreaseKey(x, x.key - 1 - rand.nextInt(1000));
+            }
+            modes.add(heap.mode());
+        }
+        boolean sawLazyDecrease = heap.mode().endsWith("LDK");
+        for (int i = 0; i < 20000; i++) {
+            items.add(heap.insert(rand.nextInt(1000000) + 1, null));
+            modes.add(heap.mode());
+        }
+        boolean sawLazyMelds = heap.mode().startsWith("LM");
+        List<AdaptiveHeap.Switch> switches = heap.switches();
+        if (!sawEagerHeapify || !sawLazyDecrease || !sawLazyMelds || switches.size() < 3
+                || heap.size() != items.size()) {
+            System.err.println("modes " + modes + ", switches " + switches);
+            ok = false;
+        }
+        int last = 0;
+        while (ok && heap.size() > 0) {
+            if (heap.findMin().key < last) {
+                ok = false;
+            }
+            last = heap.findMin().key;
+            heap.deleteMin();
+        }
+        // a switch applied when a deleteMin empties the heap, then an
+        // insert into the empty heap: the counters must carry over both
+        AdaptiveHeap small = new AdaptiveHeap(6);
+        small.insert(10, null);
+        small.insert(20, null);
+        small.insert(30, null);
+        small.deleteMin();
+        small.deleteMin();
+        small.deleteMin();
+        int links = small.totalLinks();
+        small.insert(40, null);
+        if (links == 0 || small.totalLinks() != links || small.switches().isEmpty()) {
+            System.err.println("links " + links + " -> " + small.totalLinks() + ", switches " + small.switches());
+            ok = false;
+        }
+        if (ok) {
+            System.out.println("SUCCESS: AdaptiveHeap switched " + switches.size() + " times, e.g. " + switches.get(0));
+        } else {
+            System.err.println("FAILED: AdaptiveHeap did not adapt or lost order.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Checks the HeapMetrics counts, long totals and histograms against a
+     * known workload, and that a JFR recording receives the consolidation
+     * and cascading-cut events.
+     */
+    public static void testHeapMetrics() {
+        System.out.println("--- Test: HeapMetrics and JFR events ---");
+        boolean ok = true;
+        Heap heap = new Heap(true, true);
+        HeapMetrics metrics = heap.enableMetrics();
+        metrics.eventMinChain = 2;
+        Random rand = new Random(20);
+        try (jdk.jfr.Recording recording = new jdk.jfr.Recording()) {
+            recording.enable("heap.Consolidation");
+            recording.enable("heap.CascadingCuts");
+            recording.start();
+
+            List<Heap.HeapItem> items = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                items.add(heap.insert(rand.nextInt(1000000) + 1, null));
+            }
+            items.remove(heap.findMin());
+            heap.deleteMin();
+            int decreases = 0;
+            for (int i = 0; i < 3000; i++) {
+                Heap.HeapItem x = items.get(rand.nextInt(items.size()));
+                heap.decreaseKey(x, x.key / 2);
+                decreases++;
+            }
+            heap.delete(items.remove(0));
+            Heap other = new Heap(true, true);
+            other.insert(7, null);
+            heap.meld(other);
+
+            HeapMetrics.Snapshot snap = metrics.snapshot();
+            if (snap.counts[HeapMetrics.INSERT] != 5000 || snap.counts[HeapMetrics.DELETE_MIN] != 1
+                    || snap.counts[HeapMetrics.DECREASE_KEY] != decreases || snap.counts[HeapMetrics.DELETE] != 1
+                    || snap.counts[HeapMetrics.MELD] != 1 || snap.links != heap.totalLinks()
+                    || snap.cuts != heap.totalCuts() || snap.consolidations != 2
+                    || snap.consolidationRootsPercentile(1.0) < 4999
+                    || snap.latencyPercentile(HeapMetrics.INSERT, 0.5) <= 0
+                    || snap.latencyPercentile(HeapMetrics.INSERT, 0.5) > snap.latencyPercentile(HeapMetrics.INSERT, 1.0)) {
+                System.err.println(snap);
+                ok = false;
+            }
+            long chains = 0;
+            for (int i = 2; i < snap.cascadeLengths.length; i++) {
+                chains += snap.cascadeLengths[i];
+            }
+
+            recording.stop();
+            Path file = Files.createTempFile("heap", ".jfr");
+            recording.dump(file);
+            int consolidationEvents = 0;
+            int cascadeEvents = 0;
+            boolean firstPass = false;
+            for (jdk.jfr.consumer.RecordedEvent event : jdk.jfr.consumer.RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().equals("heap.Consolidation")) {
+                    consolidationEvents++;
+                    if (event.getInt("roots") < metrics.eventMinRoots) {
+                        ok = false;
+                    }
+                    if (event.getInt("roots") == 5000) {
+                        firstPass = true;
+                    }
+                } else if (event.getEventType().getName().equals("heap.CascadingCuts")) {
+                    cascadeEvents++;
+                }
+            }
+            Files.delete(file);
+            if (!firstPass || consolidationEvents > snap.consolidations || cascadeEvents != chains || chains == 0) {
+                System.err.println("events: " + consolidationEvents + " consolidations, "
+                        + cascadeEvents + " cascades, expected " + chains);
+                ok = false;
+            }
+        } catch (IOException e) {
+            ok = false;
+        }
+        heap.disableMetrics();
+        heap.deleteMin();
+        if (heap.metrics() != null) {
+            ok = false;
+        }
+        if (ok) {
+            System.out.println("SUCCESS: metrics and JFR events match the workload.");
+        } else {
+            System.err.println("FAILED: metrics or JFR events are off.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Runs the same random workload on Heap and CompactHeap in every mode
+     * and checks that the min, the forest shape and all counters agree.
+     */
+    public static void testCompactHeapMatchesHeap() {
+        System.out.println("--- Test: CompactHeap matches Heap ---");
+        boolean ok = true;
+        for (int mode = 0; mode < 4 && ok; mode++) {
+            boolean lazyMelds = (mode & 1) != 0;
+            boolean lazyDecreaseKeys = (mode & 2) != 0;
+            Heap heap = new Heap(lazyMelds, lazyDecreaseKeys);
+            CompactHeap compact = new CompactHeap(lazyMelds, lazyDecreaseKeys);
+            List<Heap.HeapItem> items = new ArrayList<>();
+            List<CompactHeap.Node> nodes = new ArrayList<>();
+            Random rand = new Random(21 + mode);
+
+            // the heaps never run empty: an insert into an empty Heap melds
+            // a fresh heap into it and restarts its counters from zero
+            for (int i = 0; i < 20000 && ok; i++) {
+                int action = rand.nextInt(5);
+                if (action <= 1 || heap.size() <= 1) {
+                    int key = rand.nextInt(1000) + 1;
+                    items.add(heap.insert(key, null));
+                    nodes.add(i % 2 == 0 ? compact.insertInt(key, i) : compact.insertLong(key, -i));
+                } else if (action == 2) {
+                    int idx = items.indexOf(heap.findMin());
+                    heap.deleteMin();
+                    compact.deleteMin();
+                    items.remove(idx);
+                    nodes.remove(idx);
+                } else if (action == 3) {
+                    int idx = rand.nextInt(items.size());
+                    int diff = rand.nextInt(items.get(idx).key / 2 + 1);
+                    heap.decreaseKey(items.get(idx), diff);
+                    compact.decreaseKey(nodes.get(idx), diff);
+                } else {
+                    int idx = rand.nextInt(items.size());
+                    heap.delete(items.remove(idx));
+                    compact.delete(nodes.remove(idx));
+                }
+
+                if (heap.size() != compact.size()
+                        || (heap.size() > 0 && heap.findMin().key != compact.findMin().key)
+                        || heap.numTrees() != compact.numTrees()
+                        || heap.numMarkedNodes() != compact.numMarkedNodes()
+                        || heap.totalLinks() != compact.totalLinks()
+                        || heap.totalCuts() != compact.totalCuts()
+                        || heap.totalHeapifyCosts() != compact.totalHeapifyCosts()) {
+                    System.err.println("FAILED: mode " + mode + " diverged at op " + i);
+                    ok = false;
+                }
+            }
+            // payloads stay with their nodes through heapify and cuts
+            for (int i = 0; i < nodes.size() && ok; i++) {
+                CompactHeap.Node node = nodes.get(i);
+                if (node.key() != items.get(i).key) {
+                    System.err.println("FAILED: mode " + mode + " handle " + i + " has key " + node.key());
+                    ok = false;
+                }
+            }
+        }
+        if (ok) {
+            System.out.println("SUCCESS: CompactHeap agrees with Heap in all modes.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Footprint report: retained bytes per entry of n entries in each
+     * layout, measured as the used heap after full GCs. Checks that the
+     * compact layouts are smaller than Heap's item and node pair.
+     */
+    public static void testFootprint() {
+        System.out.println("--- Test: bytes per entry ---");
+        int n = 200000;
+        String[] configs = {"Heap info", "Heap no info", "IntHeap no info", "CompactHeap info",
+                "CompactHeap no info", "CompactHeap int", "CompactHeap long"};
+        double[] bytes = new double[configs.length];
+        for (int c = 0; c < configs.length; c++) {
+            long before = usedMemory();
+            Object kept;
+            if (c <= 1) {
+                Heap heap = new Heap(true, true);
+                for (int i = 0; i < n; i++) {
+                    heap.insert(i + 1, c == 0 ? "val" + i : null);
+                }
+                kept = heap;
+            } else if (c == 2) {
+                IntHeap heap = new IntHeap(true, true, n);
+                for (int i = 0; i < n; i++) {
+                    heap.insert(i + 1, null);
+                }
+                kept = heap;
+            } else {
+                CompactHeap heap = new CompactHeap(true, true);
+                for (int i = 0; i < n; i++) {
+                    if (c == 3) {
+                        heap.insert(i + 1, "val" + i);
+                    } else if (c == 4) {
+                        heap.insert(i + 1, null);
+                    } else if (c == 5) {
+                        heap.insertInt(i + 1, i);
+                    } else {
+                        heap.insertLong(i + 1, i);
+                    }
+                }
+                kept = heap;
+            }
+            bytes[c] = (double) (usedMemory() - before) / n;
+            System.out.printf("%-20s %6.1f bytes/entry (%s)%n", configs[c], bytes[c], kept.getClass().getName());
+        }
+        if (bytes[4] < bytes[1] && bytes[5] < bytes[1] && bytes[6] < bytes[1] && bytes[3] < bytes[0]) {
+            System.out.println("SUCCESS: compact layouts use less memory per entry than Heap.");
+        } else {
+            System.err.println("FAILED: a compact layout is not smaller than Heap.");
+        }
+        System.out.println();
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Drives heaps only through ids (insertWithId, decreaseKeyById,
+     * deleteById, deleteMinId) in every mode, with and without lazy
+     * deletes, against a HashMap of the expected keys; also checks that
+     * deleteMin(k) and meld keep the index right and that duplicate ids
+     * are refused.
+     */
+    public static void testIdIndex() {
+        System.out.println("--- Test: id index ---");
+        boolean ok = true;
+        for (int mode = 0; mode < 8 && ok; mode++) {
+            Heap heap = new Heap((mode & 1) != 0, (mode & 2) != 0);
+            if ((mode & 4) != 0) {
+                heap.setLazyDeletes(0.5);
+            }
+            HashMap<Long, Integer> expected = new HashMap<>();
+            List<Long> live = new ArrayList<>();
+            Random rand = new Random(22 + mode);
+            long nextId = -5000;
+            for (int i = 0; i < 30000 && ok; i++) {
+                int action = rand.nextInt(6);
+                if (action <= 1 || live.isEmpty()) {
+                    long id = nextId * 1000003L;
+                    nextId++;
+                    int key = rand.nextInt(1000) + 1;
+                    Heap.IndexedItem item = heap.insertWithId(id, key, null);
+                    if (item.id != id) {
+                        ok = false;
+                    }
+                    expected.put(id, key);
+                    live.add(id);
+                } else if (action == 2) {
+                    int minKey = heap.findMin().key;
+                    long id = heap.deleteMinId();
+                    Integer key = expected.remove(id);
+                    if (key == null || key != minKey || heap.containsId(id)) {
+                        ok = false;
+                    }
+                    live.remove(id);
+                } else if (action == 3) {
+                    long id = live.get(rand.nextInt(live.size()));
+                    int diff = rand.nextInt(expected.get(id) / 2 + 1);
+                    if (!heap.decreaseKeyById(id, diff)) {
+                        ok = false;
+                    }
+                    expected.put(id, expected.get(id) - diff);
+                } else if (action == 4) {
+                    long id = live.remove(rand.nextInt(live.size()));
+                    expected.remove(id);
+                    if (!heap.deleteById(id) || heap.containsId(id) || heap.deleteById(id)) {
+                        ok = false;
+                    }
+                } else {
+                    long id = live.get(rand.nextInt(live.size()));
+                    Heap.IndexedItem item = heap.getById(id);
+                    if (item == null || item.id != id || item.key != expected.get(id)) {
+                        ok = false;
+                    }
+                }
+                if (heap.size() != expected.size()) {
+                    ok = false;
+                }
+                if (!ok) {
+                    System.err.println("FAILED: mode " + mode + " diverged at op " + i);
+                }
+            }
+
+            // deleteMin(k) unindexes what it returns
+            for (Heap.HeapItem item : heap.deleteMin(Math.min(100, heap.size()))) {
+                long id = ((Heap.IndexedItem) item).id;
+                if (heap.containsId(id)) {
+                    ok = false;
+                }
+                expected.remove(id);
+            }
+            // meld moves the ids of the other heap, duplicates are refused
+            Heap other = new Heap(heap.lazyMelds, heap.lazyDecreaseKeys);
+            other.insertWithId(Long.MAX_VALUE, 5, null);
+            other.insertWithId(Long.MIN_VALUE, 6, null);
+            heap.meld(other);
+            if (!heap.containsId(Long.MAX_VALUE) || !heap.containsId(Long.MIN_VALUE) || other.containsId(Long.MAX_VALUE)) {
+                ok = false;
+            }
+            Heap clash = new Heap(heap.lazyMelds, heap.lazyDecreaseKeys);
+            clash.insertWithId(Long.MAX_VALUE, 5, null);
+            try {
+                heap.meld(clash);
+                ok = false;
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                heap.insertWithId(Long.MIN_VALUE, 1, null);
+                ok = false;
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            for (Long id : expected.keySet()) {
+                if (!heap.containsId(id)) {
+                    ok = false;
+                }
+            }
+            if (!ok) {
+                System.err.println("FAILED: mode " + mode + " lost ids in deleteMin(k) or meld.");
+            }
+        }
+        Heap plain = new Heap(true, true);
+        plain.insert(1, null);
+        try {
+            plain.deleteMinId();
+            ok = false;
+        } catch (IllegalStateException e) {
+            // expected: the min has no id
+        }
+        if (ok) {
+            System.out.println("SUCCESS: the id index follows every operation.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Schedules tasks over the first wheel levels, cancels and reschedules
+     * some of them, moves a task through the far Heap (decreaseKey while
+     * it stays far, then into the wheel) and checks that every live task
+     * ran once, never before its deadline, and that cancelled ones never ran.
+     */
+    public static void testTimerScheduler() {
+        System.out.println("--- Test: TimerScheduler ---");
+        boolean ok = true;
+        TimerScheduler scheduler = new TimerScheduler(200000, Runnable::run);
+        int n = 3000;
+        AtomicLongArray ranAt = new AtomicLongArray(n + 1);
+        TimerScheduler.Task[] tasks = new TimerScheduler.Task[n + 1];
+        Random rand = new Random(23);
+        int live = 0;
+        for (int i = 0; i < n; i++) {
+            final int id = i;
+            tasks[i] = scheduler.schedule(() -> ranAt.set(id, System.nanoTime()), 100000 + rand.nextInt(300000),
+                    TimeUnit.MICROSECONDS);
+        }
+        for (int i = 0; i < n; i++) {
+            if (i % 10 == 0) {
+                ok &= scheduler.cancel(tasks[i]) && !scheduler.cancel(tasks[i]);
+            } else if (i % 7 == 0) {
+                ok &= scheduler.reschedule(tasks[i], rand.nextInt(50), TimeUnit.MILLISECONDS);
+            } else if (i % 11 == 0) {
+                ok &= scheduler.reschedule(tasks[i], 300 + rand.nextInt(100), TimeUnit.MILLISECONDS);
+            }
+        }
+        // 200us ticks: the wheel spans 64^4 ticks, about 56 minutes
+        tasks[n] = scheduler.schedule(() -> ranAt.set(n, System.nanoTime()), 2, TimeUnit.HOURS);
+        TimerScheduler.Task cancelledFar = scheduler.schedule(() -> ranAt.set(0, 1), 3, TimeUnit.HOURS);
+        ok &= scheduler.reschedule(tasks[n], 90, TimeUnit.MINUTES);
+        ok &= scheduler.cancel(cancelledFar);
+        ok &= scheduler.reschedule(tasks[n], 50, TimeUnit.MILLISECONDS);
+        for (int i = 0; i <= n; i++) {
+            if (!tasks[i].isCancelled()) {
+                live++;
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.firedCount() < live && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        long worst = 0;
+        for (int i = 0; i <= n; i++) {
+            long at = ranAt.get(i);
+            if (tasks[i].isCancelled()) {
+                ok &= at == 0;
+            } else {
+                ok &= at >= tasks[i].deadlineNanos() && !tasks[i].isPending()
+                        && !scheduler.cancel(tasks[i]) && !scheduler.reschedule(tasks[i], 1, TimeUnit.SECONDS);
+                worst = Math.max(worst, at - tasks[i].deadlineNanos());
+            }
+        }
+        ok &= scheduler.pending() == 0 && scheduler.firedCount() == live
+                && scheduler.cancelledCount() == n / 10 + 1 && scheduler.scheduledCount() == n + 2;
+        System.out.println("lateness p50<=" + scheduler.latenessPercentile(0.5) / 1000 + "us p99<="
+                + scheduler.latenessPercentile(0.99) / 1000 + "us max=" + worst / 1000 + "us");
+        scheduler.close();
+
+        TimerScheduler defaults = new TimerScheduler();
+        CountDownLatch done = new CountDownLatch(1);
+        defaults.schedule(done::countDown, 5, TimeUnit.MILLISECONDS);
+        try {
+            ok &= done.await(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ok = false;
+        }
+        defaults.close();
+        try {
+            defaults.schedule(done::countDown, 1, TimeUnit.MILLISECONDS);
+            ok = false;
+        } catch (IllegalStateException e) {
+            // expected: closed
+        }
+
+        // 1ns ticks with the clock started past 2^31 ticks: far deadlines
+        // no longer fit an int and must still come out in order
+        TimerScheduler nanos = new TimerScheduler(1, Runnable::run, 3L << 30);
+        CountDownLatch near = new CountDownLatch(1);
+        TimerScheduler.Task late = nanos.schedule(() -> { }, 10, TimeUnit.DAYS);
+        nanos.schedule(near::countDown, 50, TimeUnit.MILLISECONDS);
+        try {
+            ok &= near.await(3, TimeUnit.SECONDS) && nanos.pending() == 1 && late.isPending();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ok = false;
+        }
+        nanos.close();
+
+        if (ok) {
+            System.out.println("SUCCESS: " + live + " tasks ran once after their deadlines, cancelled ones never.");
+        } else {
+            System.err.println("FAILED: TimerScheduler ran a task early, twice, late or after cancel.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * A subscriber for testHeapPublisher: requests step items at a time
+     * and records the keys it got.
+     */
+    private static class KeySubscriber implements Flow.Subscriber<Heap.HeapItem> {
+        final int step;
+        final List<Integer> keys = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch completed = new CountDownLatch(1);
+        volatile Throwable error;
+        Flow.Subscription subscription;
+        int left;
+        // started from the first onNext, i.e. while the drain loop runs
+        KeySubscriber partner;
+        // shared by subscribers to record the order of all emissions
+        List<Integer> emissions;
+
+        KeySubscriber(int step) {
+            this.step = step;
+        }
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(Heap.HeapItem item) {
+            keys.add(item.key);
+            if (emissions != null) {
+                emissions.add(item.key);
+            }
+            if (partner != null) {
+                partner.start();
+                partner = null;
+            }
+            if (--left == 0) {
+                left = step;
+                subscription.request(step);
+            }
+        }
+
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        void start() {
+            left = step;
+            subscription.request(step);
+        }
+    }
+
+    /**
+     * Two subscribers with different demand share a HeapPublisher: first
+     * over a preloaded heap, where each must see its keys in order and the
+     * whole emission must be in key order, then with concurrent inserters,
+     * where every item must be delivered exactly once.
+     */
+    public static void testHeapPublisher() {
+        System.out.println("--- Test: HeapPublisher ---");
+        boolean ok = true;
+        Random rand = new Random(24);
+
+        HeapPublisher publisher = new HeapPublisher(true, true, 16);
+        KeySubscriber slow = new KeySubscriber(1);
+        KeySubscriber fast = new KeySubscriber(100);
+        publisher.subscribe(slow);
+        publisher.subscribe(fast);
+        int[] inserted = new int[10000];
+        for (int i = 0; i < inserted.length; i++) {
+            inserted[i] = rand.nextInt(100000) + 1;
+            publisher.insert(inserted[i], null);
+        }
+        publisher.close();
+        List<Integer> all = new ArrayList<>();
+        slow.emissions = all;
+        fast.emissions = all;
+        slow.partner = fast;
+        slow.start();
+        Arrays.sort(inserted);
+        for (KeySubscriber sub : new KeySubscriber[] {slow, fast}) {
+            for (int i = 1; i < sub.keys.size(); i++) {
+                ok &= sub.keys.get(i - 1) <= sub.keys.get(i);
+            }
+            ok &= sub.completed.getCount() == 0 && sub.error == null && sub.keys.size() > 0;
+        }
+        ok &= all.size() == inserted.length;
+        for (int i = 0; i < all.size() && ok; i++) {
+            ok &= all.get(i) == inserted[i]; // emitted in sorted order
+        }
+        System.out.println("preloaded: slow got " + slow.keys.size() + ", fast got " + fast.keys.size());
+
+        HeapPublisher live = new HeapPublisher(true, true);
+        KeySubscriber one = new KeySubscriber(1);
+        KeySubscriber many = new KeySubscriber(64);
+        live.subscribe(one);
+        live.subscribe(many);
+        one.start();
+        many.start();
+        int threads = 4;
+        int perThread = 5000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    live.insert(base + i + 1, null);
+                }
+            });
+            workers[t].start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            live.close();
+            ok &= one.completed.await(5, TimeUnit.SECONDS) && many.completed.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ok = false;
+        }
+        AtomicIntegerArray seen = new AtomicIntegerArray(threads * perThread + 1);
+        for (KeySubscriber sub : new KeySubscriber[] {one, many}) {
+            synchronized (sub.keys) {
+                for (int key : sub.keys) {
+                    seen.incrementAndGet(key);
+                }
+            }
+        }
+        for (int key = 1; key <= threads * perThread; key++) {
+            ok &= seen.get(key) == 1;
+        }
+
+        KeySubscriber bad = new KeySubscriber(1);
+        new HeapPublisher(true, true).subscribe(bad);
+        bad.subscription.request(0);
+        ok &= bad.error instanceof IllegalArgumentException;
+
+        // onNext throws on the third item and onError throws as well: the
+        // rest of the batch must go to the other subscriber, nothing may
+        // stall the publisher
+        HeapPublisher failing = new HeapPublisher(true, true);
+        for (int i = 1; i <= 200; i++) {
+            failing.insert(i, null);
+        }
+        failing.close();
+        KeySubscriber thrower = new KeySubscriber(10) {
+            public void onNext(Heap.HeapItem item) {
+                super.onNext(item);
+                if (keys.size() == 3) {
+                    throw new IllegalStateException("onNext");
+                }
+            }
+
+            public void onError(Throwable t) {
+                super.onError(t);
+                throw new IllegalStateException("onError");
+            }
+        };
+        KeySubscriber rest = new KeySubscriber(1000);
+        failing.subscribe(thrower);
+        failing.subscribe(rest);
+        thrower.start();
+        rest.start();
+        ok &= thrower.error instanceof IllegalStateException && thrower.keys.size() == 3
+                && rest.keys.size() == 197 && rest.completed.getCount() == 0 && failing.subscribers() == 0;
+
+        if (ok) {
+            System.out.println("SUCCESS: items were emitted in key order and delivered exactly once.");
+        } else {
+            System.err.println("FAILED: HeapPublisher lost, duplicated or misordered items.");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Runs random inserts and deleteMins on an ExternalHeap that keeps at
+     * most 500 items in memory and checks every deleted key and info
+     * against a PriorityQueue, the memory bound after every operation and
+     * that the run files are gone after close(). Small maxRuns forces merges.
+     */
+    public static void testExternalHeap() {
+        System.out.println("--- Test: ExternalHeap ---");
+        boolean ok = true;
+        try {
+            Path dir = Files.createTempDirectory("heap-runs");
+            ExternalHeap heap = new ExternalHeap(dir, 500, 4);
+            PriorityQueue<Long> expected = new PriorityQueue<>();
+            Random rand = new Random(25);
+            for (int i = 0; i < 100000 && ok; i++) {
+                // phases of growth and shrinking so runs get written and drained
+                boolean grow = (i / 20000) % 2 == 0;
+                if (expected.isEmpty() || rand.nextInt(10) < (grow ? 7 : 3)) {
+                    int key = rand.nextInt(1000000) + 1;
+                    heap.insert(key, i % 5 == 0 ? null : "v" + key + "-" + i);
+                    expected.add(((long) key << 32) | i);
+                } else {
+                    long e = expected.poll();
+                    int key = (int) (e >>> 32);
+                    Heap.HeapItem min = heap.deleteMin();
+                    // equal keys may come back in any order, so only check the info matches the key
+                    boolean infoOk = min.info == null || min.info.startsWith("v" + key + "-");
+                    if (min.key != key || !infoOk) {
+                        System.err.println("deleteMin returned " + min.key + "/" + min.info + ", expected " + key);
+                        ok = false;
+                    }
+                }
+                if (heap.inMemory() > 500 || heap.size() != expected.size()) {
+                    System.err.println("in memory " + heap.inMemory() + ", size " + heap.size() + " expected " + expected.size());
+                    ok = false;
+                }
+            }
+            while (ok && !expected.isEmpty()) {
+                int key = (int) (expected.poll() >>> 32);
+                if (heap.deleteMin().key != key) {
+                    ok = false;
+                }
+            }
+            if (heap.findMin() != null || heap.runsWritten == 0 || heap.merges == 0 || heap.bytesRead == 0) {
+                System.err.println("runs " + heap.runsWritten + ", merges " + heap.merges + ", read " + heap.bytesRead);
+                ok = false;
+            }
+            heap.insert(7, "x");
+            heap.close();
+            try (java.util.stream.Stream<Path> left = Files.list(dir)) {
+                if (left.count() != 0) {
+                    System.err.println("run files left after close");
+                    ok = false;
+                }
+            }
+            Files.delete(dir);
+        } catch (IOException | RuntimeException e) {
+            System.err.println(e);
+            ok = false;
+        }
+        if (ok) {
+            System.out.println("SUCCESS: ExternalHeap matches a PriorityQueue within its memory bound.");
+        } else {
+            System.err.println("FAILED: ExternalHeap differs.");
+        }
+        System.out.println();
+    }
+
+    private static boolean sameForest(Heap a, Heap b) {
+        if ((a.min == null) != (b.min == null)) {
+            return false;
+        }
+        if (a.min == null) {
+            return true;
+        }
+        return sameSiblings(a.min.node, b.min.node);
+    }
+
+    private static boolean sameSiblings(Heap.HeapNode a, Heap.HeapNode b) {
+        Heap.HeapNode startA = a;
+        do {
+            if (a.item.key != b.item.key || a.rank != b.rank || a.marked != b.marked
+                    || !Objects.equals(a.item.info, b.item.info) || (a.child == null) != (b.child == null)) {
+                return false;
+            }
+            if (a.child != null && (b.child.parent != b || !sameSiblings(a.child, b.child))) {
+                return false;
+            }
+            a = a.next;
+            b = b.next;
+        } while (a != startA);
+        return b.prev.next == b;
+    }
+
+    private static int countMarked(Heap heap) {
+        if (heap.min == null) {
+            return 0;
+        }
+        int count = 0;
+        Deque<Heap.HeapNode> stack = new ArrayDeque<>();
+        Heap.HeapNode root = heap.min.node;
+        do {
+            stack.push(root);
+            root = root.next;
+        } while (root != heap.min.node);
+        while (!stack.isEmpty()) {
+            Heap.HeapNode node = stack.pop();
+            if (node.marked) {
+                count++;
+            }
+            if (node.child != null) {
+                Heap.HeapNode c = node.child;
+                do {
+                    stack.push(c);
+                    c = c.next;
+                } while (c != node.child);
+            }
+        }
+        return count;
+    }
+
     /**
      * בדיקה 3: ריצה אקראית מאסיבית עם מד התקדמות.
      */
     public static void runStressTestWithLog(int numOps) {
-        Heap heap = new Heap(true, true);
+        // כל הפעולות נרשמות ב-trace בינארי. אין כאן meld, כך שכל פעולה היא לכל היותר רשומה אחת,
+        // וה-ring בגודל numOps שומר את כל הריצה מהערימה הריקה (אחרת רק הזנב נשמר ואי אפשר לשחזר)
+        TraceRecorder recorder = TraceRecorder.inMemory(Math.max(1, numOps));
+        TracingHeap heap = new TracingHeap(true, true, recorder);
         Random rand = new Random();
-        Map<Integer, Heap.HeapItem> itemsMap = new HashMap<>(); // לשמירת אובייקטים ל-decreaseKey
+        Map<Integer, TracingHeap.TracedItem> itemsMap = new HashMap<>(); // לשמירת אובייקטים ל-decreaseKey
         int idCounter = 0;
 
         System.out.println("Starting Stress Test...");
@@ -109,35 +2087,25 @@ public class HeapTester {
                 
                 if (action == 0 || action == 3) {
                     int key = rand.nextInt(1000) + 1;
-                    Heap.HeapItem item = heap.insert(key, "val" + idCounter);
-                    itemsMap.put(idCounter, item);
-                    operationLog.add("Insert(key=" + key + ", id=" + idCounter + ")");
+                    TracingHeap.TracedItem item = heap.insert(key, "val" + idCounter);
+                    itemsMap.put(item.id, item);
                     idCounter++;
                 } 
                 else if (action == 1 && heap.size() > 0) {
-                    operationLog.add("DeleteMin()");
-                    int idToRemove = -1;
-                    for (Map.Entry<Integer, Heap.HeapItem> entry : itemsMap.entrySet()) {
-                        if (entry.getValue() == heap.findMin()) {
-                            idToRemove = entry.getKey();
-                            break;
-                        }
-                    }
-                    if (idToRemove != -1) itemsMap.remove(idToRemove);
+                    itemsMap.remove(heap.findMin().id);
                     heap.deleteMin();
                 } 
                 else if (action == 2 && !itemsMap.isEmpty()) {
                     int id = rand.nextInt(idCounter);
                     if (itemsMap.containsKey(id)) {
-                        Heap.HeapItem it = itemsMap.get(id);
+                        TracingHeap.TracedItem it = itemsMap.get(id);
                         int diff = rand.nextInt(it.key / 2 + 1);
-                        operationLog.add("DecreaseKey(id=" + id + ", oldKey=" + it.key + ", diff=" + diff + ")");
                         heap.decreaseKey(it, diff);
                     }
                 }
 
                 // בדיקה פנימית בכל איטרציה
-                if (!validateHeapStructure(heap)) {
+                if (!validateHeapStructure(heap.heap)) {
                     throw new RuntimeException("Heap Validation Failed!");
                 }
             }
@@ -146,9 +2114,17 @@ public class HeapTester {
         } catch (Exception e) {
             System.err.println("\n--- BUG DETECTED ---");
             System.err.println("Reason: " + e.getMessage());
-            System.err.println("--- Operation Dictionary (Reproduce Steps) ---");
-            for (String op : operationLog) {
-                System.err.println(op);
+            try {
+                Path file = Files.createTempFile("heap-stress", ".trace");
+                recorder.writeTo(file);
+                System.err.println("--- Trace written to " + file + " (replay with: java TraceReplay " + file + " fib-LM-LDK) ---");
+                int[] records = TraceReplay.load(file);
+                System.err.println("--- Operation Dictionary (Reproduce Steps) ---");
+                for (int r = 0; r < records.length; r += 4) {
+                    System.err.println(TraceReplay.describe(records, r));
+                }
+            } catch (IOException io) {
+                System.err.println("could not write trace: " + io.getMessage());
             }
         }
     }
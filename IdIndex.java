@@ -0,0 +1,143 @@
+/**
+ * IdIndex
+ *
+ * The id index of a Heap: an open-addressing hash map from long ids to
+ * HeapItems, with linear probing in two parallel arrays (no boxing, no
+ * entry objects). Removal shifts the following entries of the probe run
+ * back instead of leaving deleted markers, so lookups never slow down
+ * after many deletes. The table is kept at most half full.
+ *
+ */
+class IdIndex
+{
+    private long[] ids;
+    private Heap.HeapItem[] items;
+    private int mask;
+    private int size = 0;
+
+    IdIndex(int capacity)
+    {
+        int tableSize = Integer.highestOneBit(Math.max(8, capacity * 2 - 1)) << 1;
+        ids = new long[tableSize];
+        items = new Heap.HeapItem[tableSize];
+        mask = tableSize - 1;
+    }
+
+    // fibonacci hashing, with the better mixed high half folded into the low bits
+    private int slot(long id)
+    {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    Heap.HeapItem get(long id)
+    {
+        for (int i = slot(id); items[i] != null; i = (i + 1) & mask) {
+            if (ids[i] == id) {
+                return items[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Map id to item. Throws IllegalArgumentException if id is already mapped.
+     */
+    void put(long id, Heap.HeapItem item)
+    {
+        if (size * 2 >= items.length) {
+            grow();
+        }
+        int i = slot(id);
+        for (; items[i] != null; i = (i + 1) & mask) {
+            if (ids[i] == id) {
+                throw new IllegalArgumentException("id " + id + " is already in the heap");
+            }
+        }
+        ids[i] = id;
+        items[i] = item;
+        size++;
+    }
+
+    /**
+     * Remove id if it is mapped to item, return whether it was.
+     */
+    boolean remove(long id, Heap.HeapItem item)
+    {
+        int i = slot(id);
+        for (; items[i] != null; i = (i + 1) & mask) {
+            if (ids[i] == id) {
+                if (items[i] != item) {
+                    return false;
+                }
+                break;
+            }
+        }
+        if (items[i] == null) {
+            return false;
+        }
+        // backward shift: move later entries of the run into the hole
+        // unless their home slot lies cyclically in (hole, j]
+        int hole = i;
+        for (int j = (i + 1) & mask; items[j] != null; j = (j + 1) & mask) {
+            int home = slot(ids[j]);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                ids[hole] = ids[j];
+                items[hole] = items[j];
+                hole = j;
+            }
+        }
+        items[hole] = null;
+        size--;
+        return true;
+    }
+
+    private void grow()
+    {
+        long[] oldIds = ids;
+        Heap.HeapItem[] oldItems = items;
+        ids = new long[oldIds.length * 2];
+        items = new Heap.HeapItem[oldItems.length * 2];
+        mask = items.length - 1;
+        for (int i = 0; i < oldItems.length; i++) {
+            if (oldItems[i] != null) {
+                int j = slot(oldIds[i]);
+                while (items[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                ids[j] = oldIds[i];
+                items[j] = oldItems[i];
+            }
+        }
+    }
+
+    /**
+     * Return true if no id of other is mapped here.
+     */
+    boolean disjoint(IdIndex other)
+    {
+        for (int i = 0; i < other.items.length; i++) {
+            if (other.items[i] != null && get(other.ids[i]) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add every mapping of other.
+     */
+    void putAll(IdIndex other)
+    {
+        for (int i = 0; i < other.items.length; i++) {
+            if (other.items[i] != null) {
+                put(other.ids[i], other.items[i]);
+            }
+        }
+    }
+}
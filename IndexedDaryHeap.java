@@ -0,0 +1,236 @@
+import java.util.Arrays;
+
+/**
+ * IndexedDaryHeap
+ *
+ * An array-backed d-ary min heap over positive integers behind the
+ * AddressableHeap interface. Keys are kept in an int[] parallel to the
+ * entry array, so sifting compares keys without touching the entries;
+ * every entry remembers its array index so decreaseKey/delete are
+ * O(log_d n) without searching.
+ *
+ * Counters: heapify counts the element moves made while sifting up or
+ * down. There is a single tree and no links, cuts or marked nodes.
+ *
+ */
+public class IndexedDaryHeap implements AddressableHeap
+{
+    public final int arity;
+    public int heapify = 0;
+    public int size = 0;
+
+    private int[] keys;
+    private Entry[] entries;
+
+    /**
+     * pre: arity >= 2
+     *
+     * Constructor to initialize an empty heap where every node has up to
+     * arity children.
+     *
+     */
+    public IndexedDaryHeap(int arity)
+    {
+        if (arity < 2) {
+            throw new IllegalArgumentException("arity must be at least 2");
+        }
+        this.arity = arity;
+        this.keys = new int[16];
+        this.entries = new Entry[16];
+    }
+
+    /**
+     * pre: key > 0
+     *
+     * Insert (key,info) into the heap and return the new entry.
+     *
+     */
+    public Entry insert(int key, String info)
+    {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        Entry e = new Entry(key, info);
+        keys[size] = key;
+        entries[size] = e;
+        e.index = size;
+        size++;
+        siftUp(size - 1);
+        return e;
+    }
+
+    /**
+     *
+     * Return the minimal entry, null if empty.
+     *
+     */
+    public Entry findMin()
+    {
+        return size == 0 ? null : entries[0];
+    }
+
+    /**
+     *
+     * Delete the minimal item.
+     *
+     */
+    public void deleteMin()
+    {
+        if (size == 0) {
+            throw new RuntimeException("nothing to delete");
+        }
+        removeAt(0);
+    }
+
+    /**
+     *
+     * pre: 0<=diff<=x.key, x is in this heap
+     *
+     * Decrease the key of x by diff and fix the heap.
+     *
+     */
+    public void decreaseKey(Handle handle, int diff)
+    {
+        Entry x = (Entry) handle;
+        x.key -= diff;
+        keys[x.index] = x.key;
+        siftUp(x.index);
+    }
+
+    /**
+     *
+     * pre: x is in this heap
+     *
+     * Delete the x from the heap.
+     *
+     */
+    public void delete(Handle handle)
+    {
+        removeAt(((Entry) handle).index);
+    }
+
+    private void removeAt(int i)
+    {
+        Entry removed = entries[i];
+        removed.index = -1;
+        size--;
+        if (i == size) {
+            entries[size] = null;
+            return;
+        }
+        keys[i] = keys[size];
+        entries[i] = entries[size];
+        entries[i].index = i;
+        entries[size] = null;
+        if (i > 0 && keys[i] < keys[(i - 1) / arity]) {
+            siftUp(i);
+        } else {
+            siftDown(i);
+        }
+    }
+
+    private void siftUp(int i)
+    {
+        int key = keys[i];
+        Entry e = entries[i];
+        while (i > 0) {
+            int parent = (i - 1) / arity;
+            if (keys[parent] <= key) {
+                break;
+            }
+            keys[i] = keys[parent];
+            entries[i] = entries[parent];
+            entries[i].index = i;
+            i = parent;
+            heapify++;
+        }
+        keys[i] = key;
+        entries[i] = e;
+        e.index = i;
+    }
+
+    private void siftDown(int i)
+    {
+        int key = keys[i];
+        Entry e = entries[i];
+        while (true) {
+            int first = i * arity + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + arity, size);
+            int best = first;
+            for (int c = first + 1; c < last; c++) {
+                if (keys[c] < keys[best]) {
+                    best = c;
+                }
+            }
+            if (keys[best] >= key) {
+                break;
+            }
+            keys[i] = keys[best];
+            entries[i] = entries[best];
+            entries[i].index = i;
+            i = best;
+            heapify++;
+        }
+        keys[i] = key;
+        entries[i] = e;
+        e.index = i;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int numTrees()
+    {
+        return size == 0 ? 0 : 1;
+    }
+
+    public int numMarkedNodes()
+    {
+        return 0;
+    }
+
+    public int totalLinks()
+    {
+        return 0;
+    }
+
+    public int totalCuts()
+    {
+        return 0;
+    }
+
+    public int totalHeapifyCosts()
+    {
+        return heapify;
+    }
+
+    /**
+     * Class implementing an entry in an IndexedDaryHeap: its key, info and
+     * current position in the heap arrays.
+     *
+     */
+    public static class Entry implements Handle{
+        public int key;
+        public String info;
+        int index;
+
+        public Entry(int key, String info) {
+            this.key = key;
+            this.info = info;
+        }
+
+        public int key() {
+            return key;
+        }
+
+        public String info() {
+            return info;
+        }
+    }
+}
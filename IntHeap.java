@@ -0,0 +1,614 @@
+import java.util.Arrays;
+
+/**
+ * IntHeap
+ *
+ * A Fibonacci heap over positive integers that keeps its whole forest in
+ * parallel primitive arrays instead of HeapNode/HeapItem objects.
+ * Supports the same lazy melds / lazy decrease keys modes as Heap and
+ * keeps the same counters.
+ *
+ * Nodes live in slots (indexes into the node arrays), items are addressed
+ * by int handles returned from insert. A handle stays valid until its item
+ * is deleted, even when heapify moves the item between slots.
+ * Freed slots and handles are recycled through free lists.
+ *
+ */
+public class IntHeap
+{
+    public static final int NIL = -1;
+
+    public int heapify = 0;
+    public int cuts = 0;
+    public int links = 0;
+    public int markedNodes = 0;
+    public int numOfTrees = 0;
+    public int size = 0;
+
+    public final boolean lazyMelds;
+    public final boolean lazyDecreaseKeys;
+
+    // slot of the minimal node, NIL if empty
+    private int min = NIL;
+
+    // node arrays, indexed by slot
+    private int[] key;
+    private String[] info;
+    private int[] handle;
+    private int[] parent;
+    private int[] child;
+    private int[] next;
+    private int[] prev;
+    private int[] rank;
+    private boolean[] marked;
+
+    // item array, indexed by handle
+    private int[] slotOf;
+
+    // free lists are chained through next (slots) and slotOf (handles)
+    private int freeSlot = NIL;
+    private int freeHandle = NIL;
+    private int used = 0;
+
+    private int[] rankTable = new int[0];
+
+    /**
+     *
+     * Constructor to initialize an empty heap.
+     *
+     */
+    public IntHeap(boolean lazyMelds, boolean lazyDecreaseKeys)
+    {
+        this(lazyMelds, lazyDecreaseKeys, 16);
+    }
+
+    /**
+     *
+     * Constructor to initialize an empty heap with room for capacity items
+     * before the arrays have to grow.
+     *
+     */
+    public IntHeap(boolean lazyMelds, boolean lazyDecreaseKeys, int capacity)
+    {
+        this.lazyMelds = lazyMelds;
+        this.lazyDecreaseKeys = lazyDecreaseKeys;
+        capacity = Math.max(capacity, 1);
+        key = new int[capacity];
+        info = new String[capacity];
+        handle = new int[capacity];
+        parent = new int[capacity];
+        child = new int[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        rank = new int[capacity];
+        marked = new boolean[capacity];
+        slotOf = new int[capacity];
+    }
+
+    /**
+     * pre: key > 0
+     *
+     * Insert (key,info) into the heap and return the handle of the new item.
+     *
+     */
+    public int insert(int k, String inf)
+    {
+        int s = allocSlot();
+        int h = allocHandle();
+        key[s] = k;
+        info[s] = inf;
+        handle[s] = h;
+        slotOf[h] = s;
+        parent[s] = NIL;
+        child[s] = NIL;
+        next[s] = s;
+        prev[s] = s;
+        rank[s] = 0;
+        marked[s] = false;
+
+        size++;
+        numOfTrees++;
+        if (min == NIL) {
+            min = s;
+            return h;
+        }
+        concatenate(min, s);
+        if (k < key[min]) {
+            min = s;
+        }
+        if (!lazyMelds) {
+            successiveLinking();
+        }
+        return h;
+    }
+
+    /**
+     *
+     * Return the handle of the minimal item, NIL if empty.
+     *
+     */
+    public int findMin()
+    {
+        return min == NIL ? NIL : handle[min];
+    }
+
+    /**
+     *
+     * Return the key of the item with handle h.
+     *
+     */
+    public int key(int h)
+    {
+        return key[slotOf[h]];
+    }
+
+    /**
+     *
+     * Return the info of the item with handle h.
+     *
+     */
+    public String info(int h)
+    {
+        return info[slotOf[h]];
+    }
+
+    /**
+     *
+     * Return true if h is the handle of an item currently in the heap.
+     *
+     */
+    public boolean contains(int h)
+    {
+        return h >= 0 && h < used && slotOf[h] >= 0 && handle[slotOf[h]] == h;
+    }
+
+    /**
+     *
+     * Delete the minimal item.
+     *
+     */
+    public void deleteMin()
+    {
+        if (size == 0) {
+            throw new RuntimeException("nothing to delete");
+        }
+        int m = min;
+        if (size == 1) {
+            size--;
+            numOfTrees--;
+            min = NIL;
+            free(m);
+            return;
+        }
+
+        int c = child[m];
+        if (c != NIL) {
+            int curr = c;
+            do {
+                parent[curr] = NIL;
+                if (marked[curr]) {
+                    marked[curr] = false;
+                    markedNodes--;
+                }
+                curr = next[curr];
+            } while (curr != c);
+            numOfTrees += rank[m] - 1;
+            concatenate(m, c);
+        }
+
+        int nextNode = next[m];
+        next[prev[m]] = next[m];
+        prev[next[m]] = prev[m];
+        min = nextNode;
+        size--;
+        free(m);
+
+        int start = min;
+        int curr = start;
+        do {
+            if (key[curr] < key[min]) {
+                min = curr;
+            }
+            curr = next[curr];
+        } while (curr != start);
+
+        successiveLinking();
+    }
+
+    /**
+     *
+     * pre: 0<=diff<=key(h)
+     *
+     * Decrease the key of the item with handle h by diff and fix the heap.
+     *
+     */
+    public void decreaseKey(int h, int diff)
+    {
+        int x = slotOf[h];
+        key[x] -= diff;
+        if (lazyDecreaseKeys) {
+            int p = parent[x];
+            if (p != NIL && key[x] < key[p]) {
+                cut(x, p);
+                if (!lazyMelds) {
+                    if (key[x] < key[min]) {
+                        min = x;
+                    }
+                    successiveLinking();
+                }
+                cascadingCut(p);
+            }
+        } else {
+            heapify(h);
+        }
+
+        x = slotOf[h];
+        if (key[x] < key[min]) {
+            min = x;
+        }
+    }
+
+    /**
+     *
+     * Delete the item with handle h from the heap.
+     *
+     */
+    public void delete(int h)
+    {
+        decreaseKey(h, key(h) + 1); // make the key -1 so it is the min.
+        deleteMin();
+    }
+
+    private void heapify(int h)
+    {
+        int x = slotOf[h];
+        while (parent[x] != NIL && key[x] < key[parent[x]]) {
+            int p = parent[x];
+            swapItems(x, p);
+            x = p;
+            heapify++;
+        }
+    }
+
+    private void swapItems(int a, int b)
+    {
+        int tk = key[a];
+        key[a] = key[b];
+        key[b] = tk;
+        String ti = info[a];
+        info[a] = info[b];
+        info[b] = ti;
+        int th = handle[a];
+        handle[a] = handle[b];
+        handle[b] = th;
+        slotOf[handle[a]] = a;
+        slotOf[handle[b]] = b;
+    }
+
+    private void cut(int x, int y)
+    {
+        if (next[x] == x) {
+            child[y] = NIL;
+        } else {
+            prev[next[x]] = prev[x];
+            next[prev[x]] = next[x];
+            if (child[y] == x) {
+                child[y] = next[x];
+            }
+        }
+        rank[y]--;
+
+        parent[x] = NIL;
+        if (marked[x]) {
+            marked[x] = false;
+            markedNodes--;
+        }
+
+        prev[next[min]] = x;
+        next[x] = next[min];
+        next[min] = x;
+        prev[x] = min;
+
+        cuts++;
+        numOfTrees++;
+    }
+
+    private void cascadingCut(int y)
+    {
+        int z = parent[y];
+        while (z != NIL) {
+            if (!marked[y]) {
+                marked[y] = true;
+                markedNodes++;
+                return;
+            }
+            cut(y, z);
+            if (!lazyMelds) {
+                successiveLinking();
+            }
+            y = z;
+            z = parent[y];
+        }
+    }
+
+    private void link(int y, int x)
+    {
+        parent[y] = x;
+        if (child[x] == NIL) {
+            child[x] = y;
+            next[y] = y;
+            prev[y] = y;
+        } else {
+            concatenate(child[x], y);
+        }
+        rank[x]++;
+        links++;
+    }
+
+    public void successiveLinking()
+    {
+        if (min == NIL) {
+            return;
+        }
+
+        int maxDegree = 32 - Integer.numberOfLeadingZeros(size);
+        int tableSize = Math.max(maxDegree * 2, 2);
+        if (rankTable.length < tableSize) {
+            rankTable = new int[tableSize];
+            Arrays.fill(rankTable, NIL);
+        }
+        int[] arr = rankTable;
+
+        boolean done = true;
+        int last = prev[min];
+        int c = min;
+        int top = 0;
+        while (done) {
+            if (c == last) {
+                done = false;
+            }
+            int nxt = next[c];
+            next[c] = c;
+            prev[c] = c;
+            int x = c;
+            int d = rank[x];
+
+            while (arr[d] != NIL) {
+                int y = arr[d];
+                if (key[x] > key[y]) {
+                    int temp = x;
+                    x = y;
+                    y = temp;
+                }
+                link(y, x);
+                arr[d] = NIL;
+                d++;
+            }
+            arr[d] = x;
+            if (d >= top) {
+                top = d + 1;
+            }
+            c = nxt;
+        }
+
+        min = NIL;
+        numOfTrees = 0;
+        for (int i = 0; i < top; i++) {
+            int node = arr[i];
+            if (node == NIL) {
+                continue;
+            }
+            arr[i] = NIL;
+            if (min == NIL) {
+                min = node;
+                next[node] = node;
+                prev[node] = node;
+            } else {
+                concatenate(min, node);
+                if (key[node] < key[min]) {
+                    min = node;
+                }
+            }
+            numOfTrees++;
+        }
+    }
+
+    private void concatenate(int n1, int n2)
+    {
+        int n1Next = next[n1];
+        int n2Prev = prev[n2];
+
+        next[n1] = n2;
+        prev[n2] = n1;
+        prev[n1Next] = n2Prev;
+        next[n2Prev] = n1Next;
+    }
+
+    /**
+     *
+     * Meld the heap with heap2.
+     * The nodes of heap2 are copied into this heap's arrays, so this costs
+     * O(heap2.size()). heap2 is left unchanged.
+     * Returns an array mapping every handle of heap2 to its new handle in
+     * this heap (NIL for handles that were not in use).
+     * pre: heap2.lazyMelds = this.lazyMelds AND heap2.lazyDecreaseKeys = this.lazyDecreaseKeys
+     *
+     */
+    public int[] meld(IntHeap heap2)
+    {
+        int[] handleMap = new int[heap2.used];
+        Arrays.fill(handleMap, NIL);
+        if (heap2.min == NIL) {
+            return handleMap;
+        }
+
+        int[] slotMap = new int[heap2.used];
+        for (int s = 0; s < heap2.used; s++) {
+            if (heap2.handle[s] == NIL) {
+                continue;
+            }
+            int ns = allocSlot();
+            int nh = allocHandle();
+            slotMap[s] = ns;
+            handleMap[heap2.handle[s]] = nh;
+            handle[ns] = nh;
+            slotOf[nh] = ns;
+        }
+        for (int s = 0; s < heap2.used; s++) {
+            if (heap2.handle[s] == NIL) {
+                continue;
+            }
+            int ns = slotMap[s];
+            key[ns] = heap2.key[s];
+            info[ns] = heap2.info[s];
+            parent[ns] = heap2.parent[s] == NIL ? NIL : slotMap[heap2.parent[s]];
+            child[ns] = heap2.child[s] == NIL ? NIL : slotMap[heap2.child[s]];
+            next[ns] = slotMap[heap2.next[s]];
+            prev[ns] = slotMap[heap2.prev[s]];
+            rank[ns] = heap2.rank[s];
+            marked[ns] = heap2.marked[s];
+        }
+        int otherMin = slotMap[heap2.min];
+
+        if (min == NIL) {
+            min = otherMin;
+
+            heapify = heap2.heapify;
+            cuts = heap2.cuts;
+            links = heap2.links;
+            markedNodes = heap2.markedNodes;
+            numOfTrees = heap2.numOfTrees;
+            size = heap2.size;
+            return handleMap;
+        }
+
+        heapify += heap2.heapify;
+        cuts += heap2.cuts;
+        links += heap2.links;
+        markedNodes += heap2.markedNodes;
+        numOfTrees += heap2.numOfTrees;
+        size += heap2.size;
+
+        concatenate(min, otherMin);
+        if (key[otherMin] < key[min]) {
+            min = otherMin;
+        }
+
+        if (!lazyMelds) {
+            successiveLinking();
+        }
+        return handleMap;
+    }
+
+    private int allocSlot()
+    {
+        int s = freeSlot;
+        if (s != NIL) {
+            freeSlot = next[s];
+            return s;
+        }
+        if (used == key.length) {
+            grow();
+        }
+        return used++;
+    }
+
+    private int allocHandle()
+    {
+        int h = freeHandle;
+        if (h != NIL) {
+            freeHandle = -2 - slotOf[h];
+            return h;
+        }
+        // slots and handles are always allocated in pairs,
+        // so a handle is free whenever the slot counter advanced
+        return used - 1;
+    }
+
+    private void free(int s)
+    {
+        int h = handle[s];
+        info[s] = null;
+        handle[s] = NIL;
+        next[s] = freeSlot;
+        freeSlot = s;
+        // free handles store the next free handle encoded as a negative number
+        slotOf[h] = -2 - freeHandle;
+        freeHandle = h;
+    }
+
+    private void grow()
+    {
+        int n = key.length * 2;
+        key = Arrays.copyOf(key, n);
+        info = Arrays.copyOf(info, n);
+        handle = Arrays.copyOf(handle, n);
+        parent = Arrays.copyOf(parent, n);
+        child = Arrays.copyOf(child, n);
+        next = Arrays.copyOf(next, n);
+        prev = Arrays.copyOf(prev, n);
+        rank = Arrays.copyOf(rank, n);
+        marked = Arrays.copyOf(marked, n);
+        slotOf = Arrays.copyOf(slotOf, n);
+    }
+
+    /**
+     *
+     * Return the number of elements in the heap
+     *
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     *
+     * Return the number of trees in the heap.
+     *
+     */
+    public int numTrees()
+    {
+        return numOfTrees;
+    }
+
+    /**
+     *
+     * Return the number of marked nodes in the heap.
+     *
+     */
+    public int numMarkedNodes()
+    {
+        return markedNodes;
+    }
+
+    /**
+     *
+     * Return the total number of links.
+     *
+     */
+    public int totalLinks()
+    {
+        return links;
+    }
+
+    /**
+     *
+     * Return the total number of cuts.
+     *
+     */
+    public int totalCuts()
+    {
+        return cuts;
+    }
+
+    /**
+     *
+     * Return the total heapify costs.
+     *
+     */
+    public int totalHeapifyCosts()
+    {
+        return heapify;
+    }
+}
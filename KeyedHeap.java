@@ -0,0 +1,495 @@
+/**
+ * KeyedHeap
+ *
+ * The engine shared by LongHeap, DoubleHeap and ComparatorHeap: a
+ * Fibonacci heap with the same algorithms, modes and counters as Heap,
+ * over items whose key type and order the subclass defines through less.
+ * delete removes the item through an explicit path (cut or bubble it up
+ * to the root list, then remove that root) instead of decreasing its key
+ * below every other key, so no key needs a smallest value.
+ *
+ * Subclasses add the typed insert, decreaseKey and meld and the item
+ * class with its key field.
+ *
+ */
+public abstract class KeyedHeap<I extends KeyedHeap.Item<I>>
+{
+    public int heapify = 0;
+    public int cuts = 0;
+    public int links = 0;
+    public int markedNodes = 0;
+    public int numOfTrees = 0;
+    public int size = 0;
+
+    public final boolean lazyMelds;
+    public final boolean lazyDecreaseKeys;
+    public I min;
+
+    private Node<I>[] rankTable = newTable(0);
+
+    /**
+     *
+     * Constructor to initialize an empty heap.
+     *
+     */
+    protected KeyedHeap(boolean lazyMelds, boolean lazyDecreaseKeys)
+    {
+        this.lazyMelds = lazyMelds;
+        this.lazyDecreaseKeys = lazyDecreaseKeys;
+        this.min = null;
+    }
+
+    /**
+     *
+     * Return true if the key of a is smaller than the key of b.
+     *
+     */
+    protected abstract boolean less(I a, I b);
+
+    /**
+     *
+     * Insert the new item into the heap and return it.
+     *
+     */
+    protected I add(I newItem)
+    {
+        size++;
+        numOfTrees++;
+        if (min == null) {
+            min = newItem;
+            return newItem;
+        }
+        concatenate(min.node, newItem.node);
+        if (less(newItem, min)) {
+            min = newItem;
+        }
+        if (!lazyMelds) {
+            successiveLinking();
+        }
+        return newItem;
+    }
+
+    /**
+     *
+     * Return the minimal item, null if empty.
+     *
+     */
+    public I findMin()
+    {
+        return min;
+    }
+
+    /**
+     *
+     * Delete the minimal item.
+     *
+     */
+    public void deleteMin()
+    {
+        if (size == 0) {
+            throw new RuntimeException("nothing to delete");
+        }
+        removeRoot(min.node);
+        if (min != null) {
+            findNewMin();
+            successiveLinking();
+        }
+    }
+
+    /**
+     *
+     * pre: the key of x was just made smaller or equal
+     *
+     * Fix the heap after the key of x decreased.
+     *
+     */
+    protected void keyDecreased(I x)
+    {
+        if (lazyDecreaseKeys) {
+            Node<I> parent = x.node.parent;
+            if (parent != null && less(x, parent.item)) {
+                cut(x.node, parent);
+                if (!lazyMelds) {
+                    if (less(x, min)) {
+                        min = x;
+                    }
+                    successiveLinking();
+                }
+                cascadingCut(parent, !lazyMelds);
+            }
+        } else {
+            heapify(x, false);
+        }
+
+        if (less(x, min)) {
+            min = x;
+        }
+    }
+
+    /**
+     *
+     * Delete the x from the heap.
+     *
+     */
+    public void delete(I x)
+    {
+        if (lazyDecreaseKeys) {
+            Node<I> parent = x.node.parent;
+            if (parent != null) {
+                cut(x.node, parent);
+                // x must stay a root until it is removed, so consolidate only at the end
+                cascadingCut(parent, false);
+            }
+        } else {
+            heapify(x, true);
+        }
+        removeRoot(x.node);
+        if (min != null) {
+            findNewMin();
+            successiveLinking();
+        }
+    }
+
+    // moves x up while it is smaller than its parent, or all the way to
+    // the root if toRoot is set
+    private void heapify(I x, boolean toRoot)
+    {
+        while (x.node.parent != null && (toRoot || less(x, x.node.parent.item))) {
+            x.swapNode(x.node.parent.item);
+            heapify++;
+        }
+    }
+
+    // removes the root r and promotes its children to roots; min is left
+    // pointing at some remaining root, or null if the heap became empty
+    private void removeRoot(Node<I> r)
+    {
+        if (size == 1) {
+            size--;
+            numOfTrees = 0;
+            min = null;
+            return;
+        }
+        if (r.child != null) {
+            Node<I> child = r.child;
+            Node<I> curr = child;
+            do {
+                curr.parent = null;
+                if (curr.marked) {
+                    curr.marked = false;
+                    markedNodes--;
+                }
+                curr = curr.next;
+            } while (curr != child);
+            numOfTrees += r.rank;
+            concatenate(r, child);
+            r.child = null;
+        }
+        Node<I> nextNode = r.next;
+        r.prev.next = r.next;
+        r.next.prev = r.prev;
+        r.next = r;
+        r.prev = r;
+        numOfTrees--;
+        size--;
+        min = nextNode.item;
+    }
+
+    private void findNewMin()
+    {
+        Node<I> start = min.node;
+        Node<I> c = start;
+        do {
+            if (less(c.item, min)) {
+                min = c.item;
+            }
+            c = c.next;
+        } while (c != start);
+    }
+
+    private void cut(Node<I> x, Node<I> y)
+    {
+        if (x.next == x) {
+            y.child = null;
+        } else {
+            x.next.prev = x.prev;
+            x.prev.next = x.next;
+            if (y.child == x) {
+                y.child = x.next;
+            }
+        }
+        y.rank--;
+
+        x.parent = null;
+        if (x.marked) {
+            x.marked = false;
+            markedNodes--;
+        }
+
+        min.node.next.prev = x;
+        x.next = min.node.next;
+        min.node.next = x;
+        x.prev = min.node;
+
+        cuts++;
+        numOfTrees++;
+    }
+
+    private void cascadingCut(Node<I> y, boolean consolidate)
+    {
+        Node<I> z = y.parent;
+        while (z != null) {
+            if (!y.marked) {
+                y.marked = true;
+                markedNodes++;
+                return;
+            }
+            cut(y, z);
+            if (consolidate) {
+                successiveLinking();
+            }
+            y = z;
+            z = y.parent;
+        }
+    }
+
+    private void link(Node<I> y, Node<I> x)
+    {
+        y.parent = x;
+        if (x.child == null) {
+            x.child = y;
+            y.next = y;
+            y.prev = y;
+        } else {
+            concatenate(x.child, y);
+        }
+        x.rank++;
+        links++;
+    }
+
+    public void successiveLinking()
+    {
+        if (min == null) {
+            return;
+        }
+
+        int maxDegree = 32 - Integer.numberOfLeadingZeros(size); // floor(log2(size)) + 1
+        if (rankTable.length < maxDegree * 2) {
+            rankTable = newTable(maxDegree * 2);
+        }
+        Node<I>[] arr = rankTable;
+        int top = 0;
+        boolean done = true;
+        Node<I> last = min.node.prev;
+        Node<I> c = min.node;
+
+        while (done) {
+            if (c == last) {
+                done = false;
+            }
+            Node<I> next = c.next;
+
+            c.next = c;
+            c.prev = c;
+            Node<I> x = c;
+            int d = x.rank;
+
+            while (arr[d] != null) {
+                Node<I> y = arr[d];
+                if (less(y.item, x.item)) {
+                    Node<I> temp = x;
+                    x = y;
+                    y = temp;
+                }
+                link(y, x);
+                arr[d] = null;
+                d++;
+            }
+
+            arr[d] = x;
+            if (d >= top) {
+                top = d + 1;
+            }
+            c = next;
+        }
+
+        min = null;
+        numOfTrees = 0;
+        for (int i = 0; i < top; i++) {
+            Node<I> node = arr[i];
+            arr[i] = null;
+            if (node != null) {
+                if (min == null) {
+                    min = node.item;
+                    node.next = node;
+                    node.prev = node;
+                } else {
+                    concatenate(min.node, node);
+                    if (less(node.item, min)) {
+                        min = node.item;
+                    }
+                }
+                numOfTrees++;
+            }
+        }
+    }
+
+    private void concatenate(Node<I> n1, Node<I> n2)
+    {
+        Node<I> n1Next = n1.next;
+        Node<I> n2Prev = n2.prev;
+
+        n1.next = n2;
+        n2.prev = n1;
+        n1Next.prev = n2Prev;
+        n2Prev.next = n1Next;
+    }
+
+    // a generic array has to be created raw
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <I extends Item<I>> Node<I>[] newTable(int length)
+    {
+        return (Node<I>[]) new Node[length];
+    }
+
+    /**
+     *
+     * Meld the heap with heap2
+     * pre: heap2 is of the same class and order, heap2.lazyMelds = this.lazyMelds
+     * AND heap2.lazyDecreaseKeys = this.lazyDecreaseKeys
+     *
+     */
+    protected void meldHeap(KeyedHeap<I> heap2)
+    {
+        heapify += heap2.heapify;
+        cuts += heap2.cuts;
+        links += heap2.links;
+        markedNodes += heap2.markedNodes;
+        if (heap2.min == null) {
+            return;
+        }
+        numOfTrees += heap2.numOfTrees;
+        size += heap2.size;
+        if (min == null) {
+            min = heap2.min;
+            return;
+        }
+
+        concatenate(min.node, heap2.min.node);
+        if (less(heap2.min, min)) {
+            min = heap2.min;
+        }
+        if (!lazyMelds) {
+            successiveLinking();
+        }
+    }
+
+    /**
+     *
+     * Return the number of elements in the heap
+     *
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     *
+     * Return the number of trees in the heap.
+     *
+     */
+    public int numTrees()
+    {
+        return numOfTrees;
+    }
+
+    /**
+     *
+     * Return the number of marked nodes in the heap.
+     *
+     */
+    public int numMarkedNodes()
+    {
+        return markedNodes;
+    }
+
+    /**
+     *
+     * Return the total number of links.
+     *
+     */
+    public int totalLinks()
+    {
+        return links;
+    }
+
+    /**
+     *
+     * Return the total number of cuts.
+     *
+     */
+    public int totalCuts()
+    {
+        return cuts;
+    }
+
+    /**
+     *
+     * Return the total heapify costs.
+     *
+     */
+    public int totalHeapifyCosts()
+    {
+        return heapify;
+    }
+
+    /**
+     * Class implementing a node in a KeyedHeap.
+     *
+     */
+    public static class Node<I>{
+        public I item;
+        public Node<I> child;
+        public Node<I> next;
+        public Node<I> prev;
+        public Node<I> parent;
+        public boolean marked;
+        public int rank;
+
+        public Node(I item) {
+            this.next = this;
+            this.prev = this;
+            this.item = item;
+        }
+    }
+
+    /**
+     * Class implementing an item in a KeyedHeap; subclasses add the key.
+     *
+     */
+    public abstract static class Item<I extends Item<I>>{
+        public Node<I> node;
+        public String info;
+
+        @SuppressWarnings("unchecked")
+        protected Item(String info) {
+            this.node = new Node<>((I) this);
+            this.info = info;
+        }
+
+        void swapNode(I other) {
+            Node<I> temp = this.node;
+            this.node = other.node;
+            other.node = temp;
+
+            this.node.item = self();
+            other.node.item = other;
+        }
+
+        @SuppressWarnings("unchecked")
+        private I self() {
+            return (I) this;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * LongHeap
+ *
+ * A Fibonacci heap over long keys (for example 64-bit timestamps).
+ * Keys may be any long value.
+ * Same algorithms, modes and counters as Heap; the structure is shared
+ * with the other key types in KeyedHeap.
+ *
+ */
+public class LongHeap extends KeyedHeap<LongHeap.HeapItem>
+{
+    /**
+     *
+     * Constructor to initialize an empty heap.
+     *
+     */
+    public LongHeap(boolean lazyMelds, boolean lazyDecreaseKeys)
+    {
+        super(lazyMelds, lazyDecreaseKeys);
+    }
+
+    protected boolean less(HeapItem a, HeapItem b)
+    {
+        return a.key < b.key;
+    }
+
+    /**
+     *
+     * Insert (key,info) into the heap and return the newly generated item.
+     *
+     */
+    public HeapItem insert(long key, String info)
+    {
+        return add(new HeapItem(key, info));
+    }
+
+    /**
+     *
+     * pre: item is a new item (possibly of a subclass) that was never in a heap
+     *
+     * Insert item into the heap and return it.
+     *
+     */
+    public HeapItem insertItem(HeapItem item)
+    {
+        return add(item);
+    }
+
+    /**
+     *
+     * pre: 0<=diff, x.key-diff does not overflow
+     *
+     * Decrease the key of x by diff and fix the heap.
+     *
+     */
+    public void decreaseKey(HeapItem x, long diff)
+    {
+        x.key = x.key - diff;
+        keyDecreased(x);
+    }
+
+    /**
+     *
+     * Meld the heap with heap2
+     * pre: heap2.lazyMelds = this.lazyMelds AND heap2.lazyDecreaseKeys = this.lazyDecreaseKeys
+     *
+     */
+    public void meld(LongHeap heap2)
+    {
+        meldHeap(heap2);
+    }
+
+    /**
+     * Class implementing an item in a LongHeap.
+     *
+     */
+    public static class HeapItem extends KeyedHeap.Item<HeapItem>{
+        public long key;
+
+        public HeapItem(long key, String info) {
+            super(info);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MultiQueue
+ *
+ * A concurrent priority queue over positive integers built from several
+ * Heap shards, each guarded by its own lock.
+ *
+ * In relaxed mode insert goes to a random shard and deleteMin takes the
+ * better of the minimums of two random shards, so the returned item is
+ * close to, but not always, the global minimum.
+ * In strict mode deleteMin locks every shard and returns the exact minimum.
+ *
+ * Items returned by insert may only be passed to decreaseKey/delete while
+ * they are still in the queue.
+ *
+ */
+public class MultiQueue
+{
+    private final Heap[] shards;
+    private final ReentrantLock[] locks;
+    // per shard min key, read without locking to pick candidate shards
+    private final AtomicIntegerArray minKeys;
+    private final boolean strict;
+
+    private static final int EMPTY = Integer.MAX_VALUE;
+
+    /**
+     * pre: numShards > 0
+     *
+     * Constructor to initialize an empty queue with numShards heaps in the
+     * given Heap mode. strict selects exact instead of relaxed deleteMin.
+     *
+     */
+    public MultiQueue(int numShards, boolean lazyMelds, boolean lazyDecreaseKeys, boolean strict)
+    {
+        this.shards = new Heap[numShards];
+        this.locks = new ReentrantLock[numShards];
+        this.minKeys = new AtomicIntegerArray(numShards);
+        this.strict = strict;
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new Heap(lazyMelds, lazyDecreaseKeys);
+            locks[i] = new ReentrantLock();
+            minKeys.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * pre: key > 0
+     *
+     * Insert (key,info) into a random shard and return the new item.
+     *
+     */
+    public Item insert(int key, String info)
+    {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        while (true) {
+            int s = rand.nextInt(shards.length);
+            ReentrantLock lock = locks[s];
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                Heap.HeapItem item = shards[s].insert(key, info);
+                minKeys.set(s, shards[s].findMin().key);
+                return new Item(item, s);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     *
+     * Remove and return a minimal item, null if the queue is empty.
+     * In relaxed mode the item is the smaller of two random shard minimums.
+     *
+     */
+    public Item deleteMin()
+    {
+        if (strict) {
+            return deleteMinStrict();
+        }
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        int n = shards.length;
+        int failures = 0;
+        while (true) {
+            int a = rand.nextInt(n);
+            int b = rand.nextInt(n);
+            int keyA = minKeys.get(a);
+            int keyB = minKeys.get(b);
+            int s = keyA <= keyB ? a : b;
+            if (Math.min(keyA, keyB) == EMPTY) {
+                // both looked empty, fall back to an exact scan before giving up
+                if (++failures > 2) {
+                    return deleteMinStrict();
+                }
+                continue;
+            }
+            ReentrantLock lock = locks[s];
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                Heap heap = shards[s];
+                if (heap.size() == 0) {
+                    continue;
+                }
+                return removeMin(s);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Item deleteMinStrict()
+    {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            int best = -1;
+            for (int s = 0; s < shards.length; s++) {
+                Heap heap = shards[s];
+                if (heap.size() > 0 && (best == -1 || heap.findMin().key < shards[best].findMin().key)) {
+                    best = s;
+                }
+            }
+            return best == -1 ? null : removeMin(best);
+        } finally {
+            for (ReentrantLock lock : locks) {
+                lock.unlock();
+            }
+        }
+    }
+
+    // pre: the lock of shard s is held and the shard is not empty
+    private Item removeMin(int s)
+    {
+        Heap heap = shards[s];
+        Heap.HeapItem min = heap.findMin();
+        Item result = new Item(min, s);
+        heap.deleteMin();
+        minKeys.set(s, heap.size() == 0 ? EMPTY : heap.findMin().key);
+        return result;
+    }
+
+    /**
+     *
+     * pre: 0<=diff<=x.key(), x is still in the queue
+     *
+     * Decrease the key of x by diff.
+     *
+     */
+    public void decreaseKey(Item x, int diff)
+    {
+        ReentrantLock lock = locks[x.shard];
+        lock.lock();
+        try {
+            Heap heap = shards[x.shard];
+            heap.decreaseKey(x.item, diff);
+            minKeys.set(x.shard, heap.findMin().key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * pre: x is still in the queue
+     *
+     * Delete x from the queue.
+     *
+     */
+    public void delete(Item x)
+    {
+        ReentrantLock lock = locks[x.shard];
+        lock.lock();
+        try {
+            Heap heap = shards[x.shard];
+            heap.delete(x.item);
+            minKeys.set(x.shard, heap.size() == 0 ? EMPTY : heap.findMin().key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * Return the number of items in the queue. Not atomic with respect to
+     * concurrent updates.
+     *
+     */
+    public int size()
+    {
+        int total = 0;
+        for (int s = 0; s < shards.length; s++) {
+            locks[s].lock();
+            try {
+                total += shards[s].size();
+            } finally {
+                locks[s].unlock();
+            }
+        }
+        return total;
+    }
+
+    /**
+     *
+     * Return the number of shards.
+     *
+     */
+    public int numShards()
+    {
+        return shards.length;
+    }
+
+    /**
+     * Handle of an item in a MultiQueue: the heap item and its shard.
+     *
+     */
+    public static class Item{
+        private final Heap.HeapItem item;
+        private final int shard;
+
+        private Item(Heap.HeapItem item, int shard) {
+            this.item = item;
+            this.shard = shard;
+        }
+
+        public int key() {
+            return item.key;
+        }
+
+        public String info() {
+            return item.info;
+        }
+    }
+}
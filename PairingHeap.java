@@ -0,0 +1,232 @@
+/**
+ * PairingHeap
+ *
+ * A pairing heap over positive integers behind the AddressableHeap
+ * interface. deleteMin pairs up the children of the root left to right
+ * and then melds the pairs right to left (two-pass pairing).
+ *
+ * Counters: links counts the melds of two trees, cuts counts subtrees
+ * detached by decreaseKey/delete. There is always at most one tree and
+ * no marked nodes.
+ *
+ */
+public class PairingHeap implements AddressableHeap
+{
+    public int cuts = 0;
+    public int links = 0;
+    public int size = 0;
+
+    public Node root;
+
+    private Node[] pairs = new Node[16];
+
+    /**
+     * pre: key > 0
+     *
+     * Insert (key,info) into the heap and return the new node.
+     *
+     */
+    public Node insert(int key, String info)
+    {
+        Node node = new Node(key, info);
+        root = root == null ? node : meld(root, node);
+        size++;
+        return node;
+    }
+
+    /**
+     *
+     * Return the minimal node, null if empty.
+     *
+     */
+    public Node findMin()
+    {
+        return root;
+    }
+
+    /**
+     *
+     * Delete the minimal item.
+     *
+     */
+    public void deleteMin()
+    {
+        if (size == 0) {
+            throw new RuntimeException("nothing to delete");
+        }
+        Node old = root;
+        root = mergePairs(old.child);
+        if (root != null) {
+            root.prev = null;
+        }
+        old.child = null;
+        size--;
+    }
+
+    /**
+     *
+     * pre: 0<=diff<=x.key, x is in this heap
+     *
+     * Decrease the key of x by diff and fix the heap.
+     *
+     */
+    public void decreaseKey(Handle handle, int diff)
+    {
+        Node x = (Node) handle;
+        x.key -= diff;
+        if (x == root) {
+            return;
+        }
+        detach(x);
+        root = meld(root, x);
+    }
+
+    /**
+     *
+     * pre: x is in this heap
+     *
+     * Delete the x from the heap.
+     *
+     */
+    public void delete(Handle handle)
+    {
+        Node x = (Node) handle;
+        if (x == root) {
+            deleteMin();
+            return;
+        }
+        detach(x);
+        Node rest = mergePairs(x.child);
+        x.child = null;
+        if (rest != null) {
+            rest.prev = null;
+            root = meld(root, rest);
+        }
+        size--;
+    }
+
+    // unlinks the subtree of x (not the root) from its parent or left sibling
+    private void detach(Node x)
+    {
+        if (x.prev.child == x) {
+            x.prev.child = x.sibling;
+        } else {
+            x.prev.sibling = x.sibling;
+        }
+        if (x.sibling != null) {
+            x.sibling.prev = x.prev;
+        }
+        x.sibling = null;
+        x.prev = null;
+        cuts++;
+    }
+
+    // links two trees, the larger root becomes the first child of the smaller
+    private Node meld(Node a, Node b)
+    {
+        if (b.key < a.key) {
+            Node temp = a;
+            a = b;
+            b = temp;
+        }
+        b.prev = a;
+        b.sibling = a.child;
+        if (a.child != null) {
+            a.child.prev = b;
+        }
+        a.child = b;
+        a.sibling = null;
+        links++;
+        return a;
+    }
+
+    private Node mergePairs(Node first)
+    {
+        if (first == null) {
+            return null;
+        }
+        int count = 0;
+        Node c = first;
+        while (c != null) {
+            Node a = c;
+            Node b = c.sibling;
+            c = b == null ? null : b.sibling;
+            a.sibling = null;
+            a.prev = null;
+            if (b != null) {
+                b.sibling = null;
+                b.prev = null;
+                a = meld(a, b);
+            }
+            if (count == pairs.length) {
+                Node[] bigger = new Node[count * 2];
+                System.arraycopy(pairs, 0, bigger, 0, count);
+                pairs = bigger;
+            }
+            pairs[count++] = a;
+        }
+        Node result = pairs[--count];
+        pairs[count] = null;
+        while (count > 0) {
+            result = meld(pairs[--count], result);
+            pairs[count] = null;
+        }
+        return result;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int numTrees()
+    {
+        return root == null ? 0 : 1;
+    }
+
+    public int numMarkedNodes()
+    {
+        return 0;
+    }
+
+    public int totalLinks()
+    {
+        return links;
+    }
+
+    public int totalCuts()
+    {
+        return cuts;
+    }
+
+    public int totalHeapifyCosts()
+    {
+        return 0;
+    }
+
+    /**
+     * Class implementing a node in a PairingHeap. prev is the parent for a
+     * first child and the left sibling otherwise.
+     *
+     */
+    public static class Node implements Handle{
+        public int key;
+        public String info;
+        public Node child;
+        public Node sibling;
+        public Node prev;
+
+        public Node(int key, String info) {
+            this.key = key;
+            this.info = info;
+        }
+
+        public int key() {
+            return key;
+        }
+
+        public String info() {
+            return info;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.Arrays;
+
+/**
+ * RadixAddressableHeap
+ *
+ * A RadixHeap behind the AddressableHeap interface, so HeapFactory can
+ * hand it out as the "radix" engine. It keeps RadixHeap's restriction:
+ * the workload must be monotone, every inserted or decreased key at least
+ * the key of the last min returned by findMin/deleteMin, or the operation
+ * throws an IllegalArgumentException. Random workloads that insert below
+ * the current min cannot use it.
+ *
+ * Each int handle of the RadixHeap gets one Entry object as its Handle;
+ * the entry of a deleted item is dropped when its handle is recycled.
+ * None of Heap's counters apply, so all of them report 0.
+ *
+ */
+public class RadixAddressableHeap implements AddressableHeap
+{
+    public final RadixHeap radix;
+
+    // indexed by the RadixHeap handle
+    private Entry[] entries;
+
+    /**
+     *
+     * Constructor to initialize an empty heap.
+     *
+     */
+    public RadixAddressableHeap()
+    {
+        this.radix = new RadixHeap();
+        this.entries = new Entry[16];
+    }
+
+    /**
+     * pre: key >= radix.lastMin()
+     *
+     * Insert (key,info) into the heap and return its handle.
+     *
+     */
+    public Handle insert(int key, String info)
+    {
+        int h = radix.insert(key, info);
+        if (h >= entries.length) {
+            entries = Arrays.copyOf(entries, Math.max(entries.length * 2, h + 1));
+        }
+        Entry e = new Entry(radix, h);
+        entries[h] = e;
+        return e;
+    }
+
+    public Handle findMin()
+    {
+        int h = radix.findMin();
+        return h == RadixHeap.NIL ? null : entries[h];
+    }
+
+    public void deleteMin()
+    {
+        int h = radix.findMin();
+        if (h == RadixHeap.NIL) {
+            throw new RuntimeException("nothing to delete");
+        }
+        delete(entries[h]);
+    }
+
+    /**
+     *
+     * pre: 0<=diff, x.key()-diff >= radix.lastMin()
+     *
+     * Decrease the key of x by diff and fix the heap.
+     *
+     */
+    public void decreaseKey(Handle x, int diff)
+    {
+        radix.decreaseKey(((Entry) x).handle, diff);
+    }
+
+    public void delete(Handle x)
+    {
+        int h = ((Entry) x).handle;
+        radix.delete(h);
+        entries[h] = null;
+    }
+
+    public int size()
+    {
+        return radix.size();
+    }
+
+    public int numTrees()
+    {
+        return 0;
+    }
+
+    public int numMarkedNodes()
+    {
+        return 0;
+    }
+
+    public int totalLinks()
+    {
+        return 0;
+    }
+
+    public int totalCuts()
+    {
+        return 0;
+    }
+
+    public int totalHeapifyCosts()
+    {
+        return 0;
+    }
+
+    /**
+     * The handle of one item in a RadixAddressableHeap.
+     *
+     */
+    public static class Entry implements Handle{
+        public final RadixHeap radix;
+        public final int handle;
+
+        public Entry(RadixHeap radix, int handle) {
+            this.radix = radix;
+            this.handle = handle;
+        }
+
+        public int key() {
+            return radix.key(handle);
+        }
+
+        public String info() {
+            return radix.info(handle);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+import java.util.Arrays;
+
+/**
+ * RadixHeap
+ *
+ * A radix heap over non-negative integers for monotone workloads: every
+ * inserted or decreased key must be at least lastMin(), the key of the
+ * last min returned by findMin/deleteMin. Keys that break this rule are
+ * rejected with an IllegalArgumentException.
+ *
+ * Items are addressed by int handles like in IntHeap; handles of deleted
+ * items are recycled. Bucket i holds the items whose key first differs
+ * from lastMin() in bit i-1 (bucket 0 holds keys equal to it),
+ * so every item moves down at most 32 times over its lifetime.
+ *
+ */
+public class RadixHeap
+{
+    public static final int NIL = -1;
+    private static final int BUCKETS = 33;
+
+    public int size = 0;
+    // number of items moved between buckets
+    public long redistributions = 0;
+
+    private int last = 0;
+    private final int[] bucketHead = new int[BUCKETS];
+
+    // indexed by handle
+    private int[] key;
+    private String[] info;
+    private int[] bucket;
+    private int[] next;
+    private int[] prev;
+
+    private int freeHandle = NIL;
+    private int used = 0;
+
+    /**
+     *
+     * Constructor to initialize an empty heap.
+     *
+     */
+    public RadixHeap()
+    {
+        this(16);
+    }
+
+    /**
+     *
+     * Constructor to initialize an empty heap with room for capacity items
+     * before the arrays have to grow.
+     *
+     */
+    public RadixHeap(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        key = new int[capacity];
+        info = new String[capacity];
+        bucket = new int[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        Arrays.fill(bucketHead, NIL);
+    }
+
+    /**
+     * pre: key >= lastMin()
+     *
+     * Insert (key,info) into the heap and return the handle of the new item.
+     *
+     */
+    public int insert(int k, String inf)
+    {
+        checkMonotone(k);
+        int h = freeHandle;
+        if (h != NIL) {
+            freeHandle = next[h];
+        } else {
+            if (used == key.length) {
+                grow();
+            }
+            h = used++;
+        }
+        key[h] = k;
+        info[h] = inf;
+        push(h, bucketFor(k));
+        size++;
+        return h;
+    }
+
+    /**
+     *
+     * Return the handle of the minimal item, NIL if empty.
+     * May move items between buckets, but never changes the contents.
+     *
+     */
+    public int findMin()
+    {
+        if (size == 0) {
+            return NIL;
+        }
+        if (bucketHead[0] == NIL) {
+            redistribute();
+        }
+        return bucketHead[0];
+    }
+
+    /**
+     *
+     * Delete the minimal item.
+     *
+     */
+    public void deleteMin()
+    {
+        int h = findMin();
+        if (h == NIL) {
+            throw new RuntimeException("nothing to delete");
+        }
+        delete(h);
+    }
+
+    /**
+     *
+     * pre: 0<=diff, key(h)-diff >= lastMin()
+     *
+     * Decrease the key of the item with handle h by diff.
+     *
+     */
+    public void decreaseKey(int h, int diff)
+    {
+        int k = key[h] - diff;
+        checkMonotone(k);
+        key[h] = k;
+        int b = bucketFor(k);
+        if (b != bucket[h]) {
+            unlink(h);
+            push(h, b);
+        }
+    }
+
+    /**
+     *
+     * Delete the item with handle h from the heap.
+     *
+     */
+    public void delete(int h)
+    {
+        unlink(h);
+        info[h] = null;
+        bucket[h] = NIL;
+        next[h] = freeHandle;
+        freeHandle = h;
+        size--;
+    }
+
+    /**
+     *
+     * Return the key of the item with handle h.
+     *
+     */
+    public int key(int h)
+    {
+        return key[h];
+    }
+
+    /**
+     *
+     * Return the info of the item with handle h.
+     *
+     */
+    public String info(int h)
+    {
+        return info[h];
+    }
+
+    /**
+     *
+     * Return the key of the last min found by findMin/deleteMin (0 before
+     * the first one), the smallest key that may still be inserted.
+     *
+     */
+    public int lastMin()
+    {
+        return last;
+    }
+
+    /**
+     *
+     * Return the number of elements in the heap
+     *
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    private void checkMonotone(int k)
+    {
+        if (k < last) {
+            throw new IllegalArgumentException("key " + k + " is smaller than the last min " + last);
+        }
+    }
+
+    private int bucketFor(int k)
+    {
+        return 32 - Integer.numberOfLeadingZeros(k ^ last);
+    }
+
+    // moves the items of the first non-empty bucket down, around its min
+    private void redistribute()
+    {
+        int b = 1;
+        while (bucketHead[b] == NIL) {
+            b++;
+        }
+        int h = bucketHead[b];
+        int m = key[h];
+        for (int c = next[h]; c != NIL; c = next[c]) {
+            if (key[c] < m) {
+                m = key[c];
+            }
+        }
+        last = m;
+
+        bucketHead[b] = NIL;
+        while (h != NIL) {
+            int nxt = next[h];
+            push(h, bucketFor(key[h]));
+            redistributions++;
+            h = nxt;
+        }
+    }
+
+    private void push(int h, int b)
+    {
+        int head = bucketHead[b];
+        bucket[h] = b;
+        prev[h] = NIL;
+        next[h] = head;
+        if (head != NIL) {
+            prev[head] = h;
+        }
+        bucketHead[b] = h;
+    }
+
+    private void unlink(int h)
+    {
+        if (prev[h] != NIL) {
+            next[prev[h]] = next[h];
+        } else {
+            bucketHead[bucket[h]] = next[h];
+        }
+        if (next[h] != NIL) {
+            prev[next[h]] = prev[h];
+        }
+    }
+
+    private void grow()
+    {
+        int n = key.length * 2;
+        key = Arrays.copyOf(key, n);
+        info = Arrays.copyOf(info, n);
+        bucket = Arrays.copyOf(bucket, n);
+        next = Arrays.copyOf(next, n);
+        prev = Arrays.copyOf(prev, n);
+    }
+}
@@ -0,0 +1,255 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * StagedHeap
+ *
+ * A Heap wrapper for many producer threads and a single consumer thread.
+ *
+ * insert may be called from any thread: it creates the item and pushes it
+ * onto a lock-free stack, using the item's (still unused) node next field
+ * as the stack link. The consumer drains the whole stack with one atomic
+ * swap and splices the staged nodes into the heap's root list with a
+ * single Heap.insertItems call, right before findMin/deleteMin/pollMin/
+ * decreaseKey/delete. A consumer loop should take items with pollMin,
+ * not findMin followed by deleteMin.
+ *
+ * All methods except insert must be called from the consumer thread.
+ *
+ */
+public class StagedHeap
+{
+    private final Heap heap;
+    private final AtomicReference<Heap.HeapItem> staged = new AtomicReference<>();
+    private Heap.HeapItem[] batch = new Heap.HeapItem[64];
+
+    private long drains = 0;
+    private long drainedItems = 0;
+    private int lastBatchSize = 0;
+    private int maxBatchSize = 0;
+    private long lastDrainNanos = 0;
+    private long maxDrainNanos = 0;
+    private long totalDrainNanos = 0;
+
+    /**
+     *
+     * Constructor to initialize an empty staged heap over a new
+     * Heap(lazyMelds, lazyDecreaseKeys).
+     *
+     */
+    public StagedHeap(boolean lazyMelds, boolean lazyDecreaseKeys)
+    {
+        this.heap = new Heap(lazyMelds, lazyDecreaseKeys);
+    }
+
+    /**
+     * pre: key > 0
+     *
+     * Stage (key,info) for insertion and return the new item.
+     * Safe to call from any thread.
+     *
+     */
+    public Heap.HeapItem insert(int key, String info)
+    {
+        Heap.HeapItem item = new Heap.HeapItem(key, info);
+        Heap.HeapNode node = item.node;
+        Heap.HeapItem head;
+        do {
+            head = staged.get();
+            node.next = head == null ? null : head.node;
+        } while (!staged.compareAndSet(head, item));
+        return item;
+    }
+
+    /**
+     *
+     * Move every staged item into the heap. Called automatically by the
+     * other consumer methods.
+     *
+     */
+    public void drain()
+    {
+        if (staged.get() == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        Heap.HeapItem head = staged.getAndSet(null);
+        int count = 0;
+        for (Heap.HeapNode node = head.node; node != null; node = node.next) {
+            if (count == batch.length) {
+                Heap.HeapItem[] bigger = new Heap.HeapItem[count * 2];
+                System.arraycopy(batch, 0, bigger, 0, count);
+                batch = bigger;
+            }
+            batch[count++] = node.item;
+        }
+        heap.insertItems(batch, count);
+        for (int i = 0; i < count; i++) {
+            batch[i] = null;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        drains++;
+        drainedItems += count;
+        lastBatchSize = count;
+        maxBatchSize = Math.max(maxBatchSize, count);
+        lastDrainNanos = elapsed;
+        maxDrainNanos = Math.max(maxDrainNanos, elapsed);
+        totalDrainNanos += elapsed;
+    }
+
+    /**
+     *
+     * Return the minimal item, null if empty.
+     *
+     */
+    public Heap.HeapItem findMin()
+    {
+        drain();
+        return heap.findMin();
+    }
+
+    /**
+     *
+     * Delete the minimal item. Both this and findMin drain first, so
+     * after findMin a producer may stage a smaller key that deleteMin
+     * then deletes instead; use pollMin to take the item you see.
+     *
+     */
+    public void deleteMin()
+    {
+        drain();
+        heap.deleteMin();
+    }
+
+    /**
+     *
+     * Drain once, then delete the minimal item and return it, null if
+     * empty.
+     *
+     */
+    public Heap.HeapItem pollMin()
+    {
+        drain();
+        Heap.HeapItem min = heap.findMin();
+        if (min != null) {
+            heap.deleteMin();
+        }
+        return min;
+    }
+
+    /**
+     *
+     * pre: 0<=diff<=x.key
+     *
+     * Decrease the key of x by diff and fix the heap.
+     *
+     */
+    public void decreaseKey(Heap.HeapItem x, int diff)
+    {
+        drain();
+        heap.decreaseKey(x, diff);
+    }
+
+    /**
+     *
+     * Delete the x from the heap.
+     *
+     */
+    public void delete(Heap.HeapItem x)
+    {
+        drain();
+        heap.delete(x);
+    }
+
+    /**
+     *
+     * Return the number of elements in the heap, including staged ones.
+     *
+     */
+    public int size()
+    {
+        drain();
+        return heap.size();
+    }
+
+    /**
+     *
+     * Return the underlying heap, for its counters. Staged items are not
+     * in it until the next drain.
+     *
+     */
+    public Heap heap()
+    {
+        return heap;
+    }
+
+    /**
+     *
+     * Return the number of drains that moved at least one item.
+     *
+     */
+    public long numDrains()
+    {
+        return drains;
+    }
+
+    /**
+     *
+     * Return the number of items moved by the last drain.
+     *
+     */
+    public int lastBatchSize()
+    {
+        return lastBatchSize;
+    }
+
+    /**
+     *
+     * Return the largest number of items moved by one drain.
+     *
+     */
+    public int maxBatchSize()
+    {
+        return maxBatchSize;
+    }
+
+    /**
+     *
+     * Return the average number of items moved per drain.
+     *
+     */
+    public double averageBatchSize()
+    {
+        return drains == 0 ? 0 : (double) drainedItems / drains;
+    }
+
+    /**
+     *
+     * Return the duration of the last drain in nanoseconds.
+     *
+     */
+    public long lastDrainNanos()
+    {
+        return lastDrainNanos;
+    }
+
+    /**
+     *
+     * Return the longest drain in nanoseconds.
+     *
+     */
+    public long maxDrainNanos()
+    {
+        return maxDrainNanos;
+    }
+
+    /**
+     *
+     * Return the average drain duration in nanoseconds.
+     *
+     */
+    public double averageDrainNanos()
+    {
+        return drains == 0 ? 0 : (double) totalDrainNanos / drains;
+    }
+}
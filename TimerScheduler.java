@@ -0,0 +1,580 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TimerScheduler
+ *
+ * Runs delayed tasks. Near deadlines live in a hierarchical timing wheel
+ * of LEVELS levels with WHEEL_SIZE slots each: level 0 holds the next
+ * WHEEL_SIZE ticks one slot per tick, every further level covers
+ * WHEEL_SIZE times the span of the one below, and a level's slot is
+ * cascaded into the lower levels when the time reaches it. Deadlines
+ * beyond the wheel (64^4 ticks, 4.6 hours with the default 1ms tick) go
+ * to a LongHeap keyed by their tick and move into the wheel once they fit.
+ * schedule, reschedule and cancel are O(1) in the wheel and Heap
+ * operations (insert, decreaseKey to reschedule earlier, delete to
+ * cancel) in the far tier.
+ *
+ * A single ticker thread advances the wheel and hands due tasks to the
+ * executor outside the lock, so slow tasks never delay the wheel. The
+ * default executor starts a virtual thread per task when the JDK has
+ * them (looked up by reflection, Java 21+) and otherwise uses a fixed
+ * pool of daemon threads, so blocking tasks should bring their own
+ * executor on older JDKs. The ticker sleeps until the next tick while
+ * wheel tasks are pending, until the far minimum fits the wheel
+ * otherwise, and indefinitely when nothing is pending.
+ *
+ * A task runs no earlier than its deadline and normally less than one
+ * tick plus the OS wake-up latency after it; lateness() reports the
+ * observed distribution.
+ *
+ * All methods are thread safe.
+ *
+ */
+public class TimerScheduler implements AutoCloseable
+{
+    public static final long DEFAULT_TICK_NANOS = 1000000;
+    public static final int WHEEL_BITS = 6;
+    public static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    public static final int LEVELS = 4;
+
+    private static final int MASK = WHEEL_SIZE - 1;
+    private static final int TOP_SHIFT = (LEVELS - 1) * WHEEL_BITS;
+    // Task.level of tasks in the far Heap, and of tasks in no tier
+    private static final int FAR = LEVELS;
+    private static final int NONE = -1;
+
+    private final long tickNanos;
+    private final long origin;
+    private final Executor executor;
+    // the default executor, shut down by close; null for a caller's executor
+    private final ExecutorService ownedExecutor;
+    private final Thread ticker;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // wheel[level][slot] is the head of a doubly linked list of tasks
+    private final Task[][] wheel = new Task[LEVELS][WHEEL_SIZE];
+    private final LongHeap far = new LongHeap(true, true);
+    // every tick up to currentTick has been processed
+    private long currentTick = 0;
+    // the tick the ticker sleeps until, Long.MAX_VALUE when parked without timeout
+    private long wakeTick = 0;
+    private int wheelCount = 0;
+    private long scheduled = 0;
+    private long fired = 0;
+    private long cancelled = 0;
+    private final long[] lateness = new long[HeapMetrics.BUCKETS];
+    private volatile boolean closed = false;
+
+    // due tasks collected under the lock, dispatched after it; ticker only
+    private Task[] batch = new Task[64];
+
+    /**
+     *
+     * Constructor to initialize a scheduler with a 1ms tick and the
+     * default executor.
+     *
+     */
+    public TimerScheduler()
+    {
+        this(DEFAULT_TICK_NANOS, null);
+    }
+
+    /**
+     * pre: tickNanos > 0
+     *
+     * Constructor to initialize a scheduler with the given tick; tasks run
+     * on executor, or on the default executor (see the class comment) when
+     * it is null. Runnable::run runs them on the ticker thread itself.
+     *
+     */
+    public TimerScheduler(long tickNanos, Executor executor)
+    {
+        this(tickNanos, executor, 0);
+    }
+
+    // for tests: the clock starts startTick ticks after origin
+    TimerScheduler(long tickNanos, Executor executor, long startTick)
+    {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+        this.tickNanos = tickNanos;
+        this.origin = System.nanoTime() - startTick * tickNanos;
+        this.ownedExecutor = executor == null ? newTaskExecutor() : null;
+        this.executor = executor == null ? ownedExecutor : executor;
+        this.ticker = new Thread(this::tickLoop, "timer-scheduler");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     *
+     * Return an executor that runs every task on a new virtual thread when
+     * the JDK supports them, else a fixed pool of max(2, #cpus) daemon
+     * threads (a cached pool would start a thread per task in a burst).
+     *
+     */
+    public static ExecutorService newTaskExecutor()
+    {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread thread = new Thread(r, "timer-task");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * pre: delay >= 0
+     *
+     * Run action once the delay has passed and return its handle.
+     * Throws IllegalStateException after close.
+     *
+     */
+    public Task schedule(Runnable action, long delay, TimeUnit unit)
+    {
+        if (action == null) {
+            throw new NullPointerException("action");
+        }
+        Task task = new Task(action);
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("scheduler is closed");
+            }
+            catchUp();
+            setDeadline(task, System.nanoTime() + unit.toNanos(delay));
+            place(task);
+            scheduled++;
+            wakeIfSooner(task);
+        } finally {
+            lock.unlock();
+        }
+        return task;
+    }
+
+    /**
+     * pre: delay >= 0
+     *
+     * Move the deadline of task to delay from now, earlier or later.
+     * Return false if the task already ran or was cancelled.
+     *
+     */
+    public boolean reschedule(Task task, long delay, TimeUnit unit)
+    {
+        lock.lock();
+        try {
+            if (task.state != Task.PENDING) {
+                return false;
+            }
+            long oldTick = task.deadlineTick;
+            catchUp();
+            setDeadline(task, System.nanoTime() + unit.toNanos(delay));
+            if (task.level == FAR && task.deadlineTick < oldTick && !fitsWheel(task.deadlineTick)) {
+                // still far: keep the heap item, only its key moves
+                far.decreaseKey(task.item, task.item.key - task.deadlineTick);
+            } else {
+                unlink(task);
+                place(task);
+            }
+            wakeIfSooner(task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * Cancel task. Return false if it already ran or was cancelled.
+     *
+     */
+    public boolean cancel(Task task)
+    {
+        lock.lock();
+        try {
+            if (task.state != Task.PENDING) {
+                return false;
+            }
+            unlink(task);
+            task.state = Task.CANCELLED;
+            cancelled++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // while the wheel is empty the ticker may sleep for long and
+    // currentTick goes stale; bring it to the present (as advance would,
+    // there is nothing to cascade) so place measures delays from now
+    private void catchUp()
+    {
+        long now = (System.nanoTime() - origin) / tickNanos;
+        if (wheelCount == 0 && now - 1 > currentTick) {
+            currentTick = now - 1;
+        }
+    }
+
+    private void setDeadline(Task task, long deadlineNanos)
+    {
+        task.deadlineNanos = deadlineNanos;
+        long ticks = -Math.floorDiv(origin - deadlineNanos, tickNanos); // ceil((deadline - origin) / tick)
+        task.deadlineTick = Math.max(ticks, currentTick + 1);
+    }
+
+    // puts a task that is in no tier into the lowest level that covers
+    // its deadline, or into the far heap
+    private void place(Task task)
+    {
+        long t = task.deadlineTick;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = level * WHEEL_BITS;
+            if ((t >>> shift) - (currentTick >>> shift) < WHEEL_SIZE) {
+                int slot = (int) (t >>> shift) & MASK;
+                Task head = wheel[level][slot];
+                task.prev = null;
+                task.next = head;
+                if (head != null) {
+                    head.prev = task;
+                }
+                wheel[level][slot] = task;
+                task.level = level;
+                task.slot = slot;
+                wheelCount++;
+                return;
+            }
+        }
+        task.item = new FarItem(t, task);
+        far.insertItem(task.item);
+        task.level = FAR;
+    }
+
+    private void unlink(Task task)
+    {
+        if (task.level == FAR) {
+            far.delete(task.item);
+            task.item = null;
+        } else if (task.level != NONE) {
+            if (task.prev == null) {
+                wheel[task.level][task.slot] = task.next;
+            } else {
+                task.prev.next = task.next;
+            }
+            if (task.next != null) {
+                task.next.prev = task.prev;
+            }
+            task.next = null;
+            task.prev = null;
+            wheelCount--;
+        }
+        task.level = NONE;
+    }
+
+    private boolean fitsWheel(long tick)
+    {
+        return (tick >>> TOP_SHIFT) - (currentTick >>> TOP_SHIFT) < WHEEL_SIZE;
+    }
+
+    // the first tick at which a far deadline fits the top level
+    private static long fitTick(long tick)
+    {
+        return ((tick >>> TOP_SHIFT) - WHEEL_SIZE + 1) << TOP_SHIFT;
+    }
+
+    // wakes the ticker if task needs it before it planned to wake up
+    private void wakeIfSooner(Task task)
+    {
+        long tick = task.level == FAR ? Math.max(currentTick + 1, fitTick(task.deadlineTick)) : task.deadlineTick;
+        if (tick < wakeTick) {
+            wakeTick = tick;
+            LockSupport.unpark(ticker);
+        }
+    }
+
+    private void tickLoop()
+    {
+        while (!closed) {
+            long now = (System.nanoTime() - origin) / tickNanos;
+            int count;
+            long wake;
+            lock.lock();
+            try {
+                count = advance(now);
+                wake = nextWakeTick();
+                wakeTick = wake;
+            } finally {
+                lock.unlock();
+            }
+            dispatch(count);
+            if (wake == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else {
+                long sleep = origin + wake * tickNanos - System.nanoTime();
+                if (sleep > 0) {
+                    LockSupport.parkNanos(this, sleep);
+                }
+            }
+        }
+    }
+
+    // processes the ticks up to now and collects the due tasks in batch,
+    // returns how many
+    private int advance(long now)
+    {
+        int count = 0;
+        if (wheelCount == 0 && now > currentTick) {
+            // nothing to cascade in between
+            currentTick = now - 1;
+        }
+        while (currentTick < now) {
+            long t = ++currentTick;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((t & ((1L << (level * WHEEL_BITS)) - 1)) == 0) {
+                    cascade(level, (int) (t >>> (level * WHEEL_BITS)) & MASK);
+                }
+            }
+            while (far.size() > 0 && fitsWheel(((FarItem) far.findMin()).task.deadlineTick)) {
+                Task task = ((FarItem) far.findMin()).task;
+                far.deleteMin();
+                task.item = null;
+                task.level = NONE;
+                place(task);
+            }
+            int slot = (int) t & MASK;
+            Task task = wheel[0][slot];
+            wheel[0][slot] = null;
+            while (task != null) {
+                Task next = task.next;
+                task.next = null;
+                task.prev = null;
+                task.level = NONE;
+                task.state = Task.FIRED;
+                wheelCount--;
+                fired++;
+                if (count == batch.length) {
+                    Task[] bigger = new Task[count * 2];
+                    System.arraycopy(batch, 0, bigger, 0, count);
+                    batch = bigger;
+                }
+                batch[count++] = task;
+                task = next;
+            }
+        }
+        return count;
+    }
+
+    private void cascade(int level, int slot)
+    {
+        Task task = wheel[level][slot];
+        wheel[level][slot] = null;
+        while (task != null) {
+            Task next = task.next;
+            wheelCount--;
+            task.level = NONE;
+            place(task);
+            task = next;
+        }
+    }
+
+    private long nextWakeTick()
+    {
+        if (wheelCount > 0) {
+            return currentTick + 1;
+        }
+        if (far.size() > 0) {
+            return Math.max(currentTick + 1, fitTick(((FarItem) far.findMin()).task.deadlineTick));
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private void dispatch(int count)
+    {
+        if (count == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Task task = batch[i];
+            batch[i] = null;
+            lateness[HeapMetrics.bucket(now - task.deadlineNanos)]++;
+            try {
+                executor.execute(task.action);
+            } catch (RejectedExecutionException e) {
+                // the executor was shut down under us; the task is dropped
+            }
+        }
+    }
+
+    /**
+     *
+     * Return the number of tasks waiting for their deadline.
+     *
+     */
+    public int pending()
+    {
+        lock.lock();
+        try {
+            return wheelCount + far.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * Return the number of tasks scheduled, handed to the executor and
+     * cancelled so far.
+     *
+     */
+    public long scheduledCount()
+    {
+        lock.lock();
+        try {
+            return scheduled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long firedCount()
+    {
+        lock.lock();
+        try {
+            return fired;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long cancelledCount()
+    {
+        lock.lock();
+        try {
+            return cancelled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * Return a log2 histogram (see HeapMetrics.BUCKETS) of how many
+     * nanoseconds after their deadline tasks were handed to the executor.
+     * Only the ticker thread writes it, so a concurrent copy may be off by
+     * the tasks of the batch being dispatched.
+     *
+     */
+    public long[] lateness()
+    {
+        return lateness.clone();
+    }
+
+    /**
+     * pre: 0 <= p <= 1
+     *
+     * Return an upper bound of the p-quantile of lateness() in nanoseconds.
+     *
+     */
+    public long latenessPercentile(double p)
+    {
+        long[] histogram = lateness();
+        long total = 0;
+        for (long c : histogram) {
+            total += c;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return i == 0 ? 0 : (1L << i) - 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     *
+     * Stop the ticker and drop the pending tasks; tasks already handed to
+     * the executor still run. Shuts down the default executor.
+     *
+     */
+    public void close()
+    {
+        closed = true;
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * The handle of a scheduled task.
+     *
+     */
+    public static class Task{
+        static final int PENDING = 0;
+        static final int FIRED = 1;
+        static final int CANCELLED = 2;
+
+        final Runnable action;
+        volatile int state = PENDING;
+        volatile long deadlineNanos;
+        long deadlineTick;
+        int level = NONE;
+        int slot;
+        Task next;
+        Task prev;
+        FarItem item;
+
+        Task(Runnable action) {
+            this.action = action;
+        }
+
+        /**
+         * Return the deadline as a System.nanoTime value.
+         */
+        public long deadlineNanos() {
+            return deadlineNanos;
+        }
+
+        public boolean isPending() {
+            return state == PENDING;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+    }
+
+    /**
+     * A far-tier LongHeap item, keyed by the deadline tick, pointing back
+     * to its task.
+     *
+     */
+    static class FarItem extends LongHeap.HeapItem{
+        final Task task;
+
+        FarItem(long key, Task task) {
+            super(key, null);
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * TraceRecorder
+ *
+ * Records heap operations as fixed-width 16 byte binary records
+ * (op, id, key, arg as ints) into a ring buffer that keeps the newest
+ * capacity records. The buffer is either on the Java heap or a
+ * memory-mapped file, so a trace survives a crash of the process.
+ * Recording one operation is a handful of absolute puts, with no
+ * allocation and no string building.
+ *
+ * File layout: a 32 byte header (magic, version, capacity, record size,
+ * total number of records ever written as a long, 8 bytes padding)
+ * followed by the ring of capacity records. Record i of the whole trace
+ * sits at slot i % capacity. The low byte of op is the operation, the
+ * upper bytes number the heap it ran on, so one trace can hold several
+ * heaps that are melded together.
+ *
+ * TracingHeap produces the records and TraceReplay reads them back.
+ *
+ */
+public class TraceRecorder
+{
+    public static final int INSERT = 1;
+    public static final int DELETE_MIN = 2;
+    public static final int DECREASE_KEY = 3;
+    public static final int DELETE = 4;
+    // a meld record (key = heap melded in, arg = number of its items) is
+    // followed by one MELD_ITEM record per item of the melded heap
+    public static final int MELD = 5;
+    public static final int MELD_ITEM = 6;
+
+    static final int MAGIC = 0x48545243; // "HTRC"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 16;
+    static final int TOTAL_OFFSET = 16;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private long total = 0;
+    private int nextId = 0;
+    private int nextHeap = 0;
+
+    private TraceRecorder(ByteBuffer buffer, int capacity)
+    {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, capacity);
+        buffer.putInt(12, RECORD_SIZE);
+        buffer.putLong(TOTAL_OFFSET, 0);
+    }
+
+    /**
+     * pre: capacity > 0
+     *
+     * Return a recorder that keeps the newest capacity records in memory.
+     *
+     */
+    public static TraceRecorder inMemory(int capacity)
+    {
+        return new TraceRecorder(ByteBuffer.allocate(HEADER_SIZE + capacity * RECORD_SIZE), capacity);
+    }
+
+    /**
+     * pre: capacity > 0
+     *
+     * Return a recorder that keeps the newest capacity records in a
+     * memory-mapped file, replacing the file if it exists.
+     *
+     */
+    public static TraceRecorder mapped(Path file, int capacity) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            return new TraceRecorder(buffer, capacity);
+        }
+    }
+
+    /**
+     *
+     * Append one record, overwriting the oldest one when the ring is full.
+     *
+     */
+    public void record(int op, int id, int key, int arg)
+    {
+        int at = HEADER_SIZE + (int) (total % capacity) * RECORD_SIZE;
+        buffer.putInt(at, op);
+        buffer.putInt(at + 4, id);
+        buffer.putInt(at + 8, key);
+        buffer.putInt(at + 12, arg);
+        total++;
+        buffer.putLong(TOTAL_OFFSET, total);
+    }
+
+    /**
+     *
+     * Return a new item id. Ids are unique per recorder, so heaps that are
+     * melded together should share one recorder.
+     *
+     */
+    public int nextId()
+    {
+        return nextId++;
+    }
+
+    /**
+     *
+     * Return a new heap number for the upper bytes of op.
+     *
+     */
+    public int nextHeap()
+    {
+        return nextHeap++;
+    }
+
+    /**
+     *
+     * Return the number of records written so far, including overwritten ones.
+     *
+     */
+    public long totalRecords()
+    {
+        return total;
+    }
+
+    /**
+     *
+     * Return the number of records the ring holds.
+     *
+     */
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    /**
+     *
+     * Flush a mapped trace to disk, or write an in-memory trace to file in
+     * the same format as a mapped one.
+     *
+     */
+    public void writeTo(Path file) throws IOException
+    {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+        // no TRUNCATE_EXISTING: the file may be the one this trace is mapped from
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer view = buffer.duplicate();
+            view.clear();
+            while (view.hasRemaining()) {
+                channel.write(view, view.position());
+            }
+            channel.truncate(view.capacity());
+        }
+    }
+}
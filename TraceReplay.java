@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * TraceReplay
+ *
+ * Replays a trace written by TraceRecorder against any engine from
+ * HeapFactory and reports throughput, per-operation latency percentiles
+ * and the final cost counters.
+ *
+ *   java TraceReplay <trace file> [engine ...]
+ *
+ * Without engine names every engine in HeapFactory.NAMES is replayed.
+ *
+ * Every heap number in the trace gets its own replay heap; a MELD record
+ * melds the replay heaps like the traced ones. Replays always start from
+ * empty heaps. When the ring of the recorder
+ * wrapped, the items inserted before the oldest kept record are missing,
+ * so operations on them are skipped and counted in Result.skipped. If
+ * the wrap cut a meld in two, its MELD_ITEM records come without their
+ * MELD record; those items are inserted into the melding heap with their
+ * recorded keys, so later operations on them still apply.
+ * When engines break ties between equal keys differently from the traced
+ * heap, the replay swaps the ids of the two equal items so later
+ * operations still find a live item with the traced key.
+ *
+ */
+public class TraceReplay
+{
+    private TraceReplay()
+    {
+    }
+
+    /**
+     *
+     * Read a trace file and return its records oldest first, four ints
+     * (op, id, key, arg) per record.
+     * Throws IOException if the file is not a trace or is truncated.
+     *
+     */
+    public static int[] load(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(TraceRecorder.HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != TraceRecorder.MAGIC) {
+                throw new IOException(file + " is not a heap trace");
+            }
+            if (header.getInt(4) != TraceRecorder.VERSION) {
+                throw new IOException("unsupported heap trace version " + header.getInt(4));
+            }
+            int capacity = header.getInt(8);
+            long total = header.getLong(TraceRecorder.TOTAL_OFFSET);
+            int count = (int) Math.min(total, capacity);
+            int first = total > capacity ? (int) (total % capacity) : 0;
+
+            ByteBuffer ring = ByteBuffer.allocate(count * TraceRecorder.RECORD_SIZE);
+            readFully(channel, ring, TraceRecorder.HEADER_SIZE);
+            int[] records = new int[count * 4];
+            for (int i = 0; i < count; i++) {
+                int at = ((first + i) % count) * TraceRecorder.RECORD_SIZE;
+                for (int j = 0; j < 4; j++) {
+                    records[i * 4 + j] = ring.getInt(at + j * 4);
+                }
+            }
+            return records;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("heap trace is truncated");
+            }
+        }
+    }
+
+    /**
+     *
+     * Replay records (as returned by load) against new heaps of the given
+     * engine, one per heap in the trace, and return the measurements.
+     * The counters are those of the heap of the first record.
+     *
+     */
+    public static Result replay(int[] records, String engine)
+    {
+        int minId = Integer.MAX_VALUE;
+        int maxId = -1;
+        for (int i = 0; i < records.length; i += 4) {
+            int id = records[i + 1];
+            if (id >= 0) {
+                minId = Math.min(minId, id);
+                maxId = Math.max(maxId, id);
+            }
+        }
+        AddressableHeap.Handle[] handles = new AddressableHeap.Handle[maxId < 0 ? 0 : maxId - minId + 1];
+        IdentityHashMap<AddressableHeap.Handle, Integer> ids = new IdentityHashMap<>();
+        HashMap<Integer, AddressableHeap> heaps = new HashMap<>();
+        long[] latencies = new long[records.length / 4];
+        Result result = new Result(engine);
+        AddressableHeap first = null;
+
+        int i = 0;
+        while (i < records.length) {
+            int op = records[i] & 0xff;
+            AddressableHeap heap = heaps.computeIfAbsent(records[i] >>> 8, t -> HeapFactory.create(engine));
+            if (first == null) {
+                first = heap;
+            }
+            int id = records[i + 1] < 0 ? -1 : records[i + 1] - minId;
+            int key = records[i + 2];
+            int arg = records[i + 3];
+            i += 4;
+            long start;
+            switch (op) {
+                case TraceRecorder.INSERT:
+                    start = System.nanoTime();
+                    AddressableHeap.Handle h = heap.insert(key, null);
+                    latencies[result.ops++] = System.nanoTime() - start;
+                    handles[id] = h;
+                    ids.put(h, id);
+                    break;
+                case TraceRecorder.DELETE_MIN:
+                    AddressableHeap.Handle min = heap.findMin();
+                    if (min == null) {
+                        result.skipped++;
+                        break;
+                    }
+                    start = System.nanoTime();
+                    heap.deleteMin();
+                    latencies[result.ops++] = System.nanoTime() - start;
+                    int actual = ids.remove(min);
+                    AddressableHeap.Handle traced = id >= 0 ? handles[id] : null;
+                    if (actual != id && traced != null && traced.key() == min.key()) {
+                        // tie broken differently: the traced item stays, under the deleted one's id
+                        handles[actual] = traced;
+                        ids.put(traced, actual);
+                    } else {
+                        handles[actual] = null;
+                    }
+                    if (id >= 0) {
+                        handles[id] = null;
+                    }
+                    break;
+                case TraceRecorder.DECREASE_KEY:
+                case TraceRecorder.DELETE:
+                    AddressableHeap.Handle x = id >= 0 ? handles[id] : null;
+                    if (x == null) {
+                        result.skipped++;
+                        break;
+                    }
+                    start = System.nanoTime();
+                    if (op == TraceRecorder.DECREASE_KEY) {
+                        heap.decreaseKey(x, Math.min(arg, x.key()));
+                    } else {
+                        heap.delete(x);
+                    }
+                    latencies[result.ops++] = System.nanoTime() - start;
+                    if (op == TraceRecorder.DELETE) {
+                        handles[id] = null;
+                        ids.remove(x);
+                    }
+                    break;
+                case TraceRecorder.MELD:
+                    AddressableHeap other = heaps.remove(key);
+                    if (other == null) {
+                        other = HeapFactory.create(engine);
+                    }
+                    i = replayMeld(heap, other, records, i, arg, minId, handles, ids, latencies, result);
+                    break;
+                case TraceRecorder.MELD_ITEM:
+                    // the MELD record (and every insert of these items) was overwritten
+                    start = System.nanoTime();
+                    AddressableHeap.Handle orphan = heap.insert(key, null);
+                    latencies[result.ops++] = System.nanoTime() - start;
+                    handles[id] = orphan;
+                    ids.put(orphan, id);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown trace op " + op + " at record " + (i / 4 - 1));
+            }
+        }
+
+        long[] sorted = Arrays.copyOf(latencies, result.ops);
+        Arrays.sort(sorted);
+        for (long nanos : sorted) {
+            result.nanos += nanos;
+        }
+        result.p50 = percentile(sorted, 0.50);
+        result.p99 = percentile(sorted, 0.99);
+        result.p999 = percentile(sorted, 0.999);
+        result.max = sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+        if (first != null) {
+            result.size = first.size();
+            result.numTrees = first.numTrees();
+            result.markedNodes = first.numMarkedNodes();
+            result.links = first.totalLinks();
+            result.cuts = first.totalCuts();
+            result.heapify = first.totalHeapifyCosts();
+        }
+        return result;
+    }
+
+    // Heap engines meld the replayed second heap directly and skip the
+    // MELD_ITEM records; other engines have no meld, so they insert those
+    // items into heap one by one and drop the second heap.
+    private static int replayMeld(AddressableHeap heap, AddressableHeap other, int[] records, int i, int count,
+            int minId, AddressableHeap.Handle[] handles, IdentityHashMap<AddressableHeap.Handle, Integer> ids,
+            long[] latencies, Result result)
+    {
+        int end = i;
+        while (end < records.length && end - i < count * 4 && (records[end] & 0xff) == TraceRecorder.MELD_ITEM) {
+            end += 4;
+        }
+        long start;
+        if (heap instanceof Heap && other instanceof Heap) {
+            start = System.nanoTime();
+            ((Heap) heap).meld((Heap) other);
+            latencies[result.ops++] = System.nanoTime() - start;
+            return end;
+        }
+        long nanos = 0;
+        for (; i < end; i += 4) {
+            int id = records[i + 1] - minId;
+            AddressableHeap.Handle old = handles[id];
+            if (old != null) {
+                ids.remove(old);
+            }
+            start = System.nanoTime();
+            AddressableHeap.Handle h = heap.insert(old == null ? records[i + 2] : old.key(), null);
+            nanos += System.nanoTime() - start;
+            handles[id] = h;
+            ids.put(h, id);
+        }
+        latencies[result.ops++] = nanos;
+        return end;
+    }
+
+    /**
+     *
+     * Return a readable form of the record starting at records[i].
+     *
+     */
+    public static String describe(int[] records, int i)
+    {
+        int id = records[i + 1];
+        int key = records[i + 2];
+        int arg = records[i + 3];
+        String heap = (records[i] >>> 8) == 0 ? "" : "heap" + (records[i] >>> 8) + ".";
+        switch (records[i] & 0xff) {
+            case TraceRecorder.INSERT:
+                return heap + "Insert(key=" + key + ", id=" + id + ")";
+            case TraceRecorder.DELETE_MIN:
+                return heap + "DeleteMin(id=" + id + ")";
+            case TraceRecorder.DECREASE_KEY:
+                return heap + "DecreaseKey(id=" + id + ", oldKey=" + key + ", diff=" + arg + ")";
+            case TraceRecorder.DELETE:
+                return heap + "Delete(id=" + id + ", key=" + key + ")";
+            case TraceRecorder.MELD:
+                return heap + "Meld(heap" + key + ", items=" + arg + ")";
+            case TraceRecorder.MELD_ITEM:
+                return "  MeldItem(key=" + key + ", id=" + id + ")";
+            default:
+                return "Unknown(op=" + records[i] + ")";
+        }
+    }
+
+    private static long percentile(long[] sorted, double p)
+    {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    /**
+     * The measurements of one replay. Latencies are in nanoseconds and
+     * include the System.nanoTime overhead of roughly 20-30ns.
+     *
+     */
+    public static class Result{
+        public final String engine;
+        public int ops;
+        public int skipped;
+        public long nanos;
+        public long p50;
+        public long p99;
+        public long p999;
+        public long max;
+        public int size;
+        public int numTrees;
+        public int markedNodes;
+        public int links;
+        public int cuts;
+        public int heapify;
+
+        Result(String engine) {
+            this.engine = engine;
+        }
+
+        public double opsPerSecond() {
+            return nanos == 0 ? 0 : ops * 1e9 / nanos;
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length == 0) {
+            System.err.println("usage: java TraceReplay <trace file> [engine ...]");
+            System.exit(2);
+        }
+        int[] records = load(Path.of(args[0]));
+        String[] engines = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : HeapFactory.NAMES;
+        System.out.printf("%d records%n", records.length / 4);
+        System.out.printf("%-12s %10s %8s %8s %8s %9s %9s %8s %8s %8s %10s %10s%n",
+                "engine", "ops/s", "p50 ns", "p99 ns", "p999 ns", "max ns", "skipped",
+                "size", "trees", "marked", "links", "cuts");
+        for (String engine : engines) {
+            Result r = replay(records, engine);
+            System.out.printf("%-12s %10.0f %8d %8d %8d %9d %9d %8d %8d %8d %10d %10d  heapify=%d%n",
+                    r.engine, r.opsPerSecond(), r.p50, r.p99, r.p999, r.max, r.skipped,
+                    r.size, r.numTrees, r.markedNodes, r.links, r.cuts, r.heapify);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.ArrayList;
+
+/**
+ * TracingHeap
+ *
+ * A Heap that writes every operation to a TraceRecorder, so a failing
+ * run or a production workload can be replayed later with TraceReplay.
+ * Items are TracedItems, HeapItems that also carry the id used in the
+ * trace; they are spliced in with insertItem, so tracing adds no
+ * allocation per insert over a plain Heap.
+ *
+ * Heaps that are melded together must share one recorder, otherwise
+ * their ids collide.
+ *
+ */
+public class TracingHeap implements AddressableHeap
+{
+    public final Heap heap;
+    public final TraceRecorder recorder;
+    // this heap's number in the trace, already shifted into the op word
+    private final int tag;
+
+    /**
+     *
+     * Constructor to initialize a traced empty heap in the given mode.
+     *
+     */
+    public TracingHeap(boolean lazyMelds, boolean lazyDecreaseKeys, TraceRecorder recorder)
+    {
+        this.heap = new Heap(lazyMelds, lazyDecreaseKeys);
+        this.recorder = recorder;
+        this.tag = recorder.nextHeap() << 8;
+    }
+
+    /**
+     * pre: key > 0
+     *
+     * Insert (key,info) into the heap and return the newly generated TracedItem.
+     *
+     */
+    public TracedItem insert(int key, String info)
+    {
+        TracedItem item = new TracedItem(key, info, recorder.nextId());
+        recorder.record(tag | TraceRecorder.INSERT, item.id, key, 0);
+        heap.insertItem(item);
+        return item;
+    }
+
+    /**
+     *
+     * Return the minimal TracedItem, null if empty.
+     *
+     */
+    public TracedItem findMin()
+    {
+        return (TracedItem) heap.findMin();
+    }
+
+    /**
+     *
+     * Delete the minimal item.
+     *
+     */
+    public void deleteMin()
+    {
+        TracedItem min = findMin();
+        recorder.record(tag | TraceRecorder.DELETE_MIN, min == null ? -1 : min.id, 0, 0);
+        heap.deleteMin();
+    }
+
+    /**
+     *
+     * pre: 0<=diff<=x.key, x is in this heap
+     *
+     * Decrease the key of x by diff and fix the heap.
+     *
+     */
+    public void decreaseKey(Handle x, int diff)
+    {
+        TracedItem item = (TracedItem) x;
+        recorder.record(tag | TraceRecorder.DECREASE_KEY, item.id, item.key, diff);
+        heap.decreaseKey(item, diff);
+    }
+
+    /**
+     *
+     * pre: x is in this heap
+     *
+     * Delete the x from the heap.
+     *
+     */
+    public void delete(Handle x)
+    {
+        TracedItem item = (TracedItem) x;
+        recorder.record(tag | TraceRecorder.DELETE, item.id, item.key, 0);
+        heap.delete(item);
+    }
+
+    /**
+     *
+     * Meld the heap with heap2. Records one MELD record followed by a
+     * MELD_ITEM record per item of heap2, so engines without a meld can
+     * replay it by inserting the items.
+     *
+     */
+    public void meld(TracingHeap heap2)
+    {
+        recorder.record(tag | TraceRecorder.MELD, -1, heap2.tag >>> 8, heap2.size());
+        // any order will do, so walk the nodes instead of the sorted iterator
+        if (heap2.heap.min != null) {
+            ArrayList<Heap.HeapNode> stack = new ArrayList<>();
+            stack.add(heap2.heap.min.node);
+            while (!stack.isEmpty()) {
+                Heap.HeapNode first = stack.remove(stack.size() - 1);
+                Heap.HeapNode node = first;
+                do {
+                    if (!node.tombstone) {
+                        Heap.HeapItem item = node.item;
+                        recorder.record(tag | TraceRecorder.MELD_ITEM, ((TracedItem) item).id, item.key, 0);
+                    }
+                    if (node.child != null) {
+                        stack.add(node.child);
+                    }
+                    node = node.next;
+                } while (node != first);
+            }
+        }
+        heap.meld(heap2.heap);
+    }
+
+    public int size()
+    {
+        return heap.size();
+    }
+
+    public int numTrees()
+    {
+        return heap.numTrees();
+    }
+
+    public int numMarkedNodes()
+    {
+        return heap.numMarkedNodes();
+    }
+
+    public int totalLinks()
+    {
+        return heap.totalLinks();
+    }
+
+    public int totalCuts()
+    {
+        return heap.totalCuts();
+    }
+
+    public int totalHeapifyCosts()
+    {
+        return heap.totalHeapifyCosts();
+    }
+
+    /**
+     * Class implementing a HeapItem together with its id in the trace.
+     *
+     */
+    public static class TracedItem extends Heap.HeapItem{
+        public final int id;
+
+        public TracedItem(int key, String info, int id) {
+            super(key, info);
+            this.id = id;
+        }
+    }
+}